@@ -0,0 +1,104 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.adapter;
+
+import android.content.Context;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.view.View;
+import android.widget.FrameLayout;
+
+import com.android.julia.todolist.data.TaskSnapshot;
+import com.android.julia.todolist.ui.TaskClickListener;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that binding task rows hardly allocates once scrolling has warmed up,
+ * so that a fling through the list doesn't trigger garbage collections.
+ *
+ * Only onBindViewHolder() is counted, on a row that hasn't been laid out, so that neither
+ * the RecyclerView's layout nor the TextViews' text layouts are: they are framework code,
+ * which allocates differently from one device to the next. Even setText() may allocate on
+ * some devices, so binds get a budget that a String or an array allocated on every bind
+ * would still go over.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TaskListAdapterAllocationTest {
+
+    private static final int TASK_COUNT = 200;
+    private static final int MEASURED_BINDS = 1000;
+    // Allocations allowed over all the measured binds: fewer than one per bind
+    private static final int ALLOCATION_BUDGET = MEASURED_BINDS / 2;
+
+    @Test
+    public void steadyStateBindStaysWithinBudget() throws Exception {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        TaskSnapshot.Builder builder = new TaskSnapshot.Builder(TASK_COUNT);
+        for (int i = 0; i < TASK_COUNT; i++) {
+            builder.add(i + 1, "Task number " + i, 1 + i % 3);
+        }
+        final TaskSnapshot snapshot = builder.build();
+
+        final TaskListAdapter[] adapter = new TaskListAdapter[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                adapter[0] = new TaskListAdapter(context, new TaskClickListener() {
+                    @Override
+                    public void onTaskClick(View v, int taskId) {
+                    }
+                });
+                adapter[0].swapSnapshot(snapshot);
+            }
+        });
+        // The snapshot is swapped in once it has been diffed in the background
+        while (adapter[0].getItemCount() != TASK_COUNT) {
+            Thread.sleep(10);
+            InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+        }
+
+        final int[] allocations = new int[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                TaskListAdapter.TaskViewHolder holder =
+                        adapter[0].onCreateViewHolder(new FrameLayout(context), 0);
+
+                // Warm up: every priority and every description length has been bound once
+                for (int i = 0; i < TASK_COUNT; i++) {
+                    adapter[0].onBindViewHolder(holder, i);
+                }
+
+                Debug.startAllocCounting();
+                Debug.resetThreadAllocCount();
+                for (int i = 0; i < MEASURED_BINDS; i++) {
+                    adapter[0].onBindViewHolder(holder, (i * 7) % TASK_COUNT);
+                }
+                allocations[0] = Debug.getThreadAllocCount();
+                Debug.stopAllocCounting();
+            }
+        });
+
+        assertTrue("Allocations during " + MEASURED_BINDS + " binds: " + allocations[0],
+                allocations[0] <= ALLOCATION_BUDGET);
+    }
+}
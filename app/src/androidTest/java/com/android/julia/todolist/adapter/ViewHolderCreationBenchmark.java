@@ -0,0 +1,152 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.adapter;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.View;
+
+import com.android.julia.todolist.metrics.Histogram;
+import com.android.julia.todolist.metrics.Metrics;
+import com.android.julia.todolist.ui.TaskClickListener;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the main thread time it takes to get the ViewHolders for a screenful of task
+ * rows, the way the first screen and the start of a fling get them: inflated one by one in
+ * onCreateViewHolder(), or taken from the pool that prewarmViewHolders() filled in the
+ * background.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ViewHolderCreationBenchmark {
+
+    private static final String TAG = ViewHolderCreationBenchmark.class.getSimpleName();
+
+    private static final int HOLDER_COUNT = 16;
+    private static final int ROUNDS = 5;
+
+    private final Instrumentation mInstrumentation = InstrumentationRegistry.getInstrumentation();
+    private final Histogram mCreateTime = Metrics.histogram("adapter.create");
+
+    @Before
+    public void setUp() {
+        Metrics.setEnabled(true);
+    }
+
+    @After
+    public void tearDown() {
+        Metrics.setEnabled(false);
+        Metrics.reset();
+    }
+
+    @Test
+    public void prewarmedHoldersTakeLessMainThreadTime() throws Exception {
+        // The first round loads the layout's resources and classes for both
+        createSynchronously();
+        createPrewarmed();
+
+        long synchronous = 0;
+        long prewarmed = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            synchronous += createSynchronously();
+            prewarmed += createPrewarmed();
+        }
+        Log.i(TAG, HOLDER_COUNT + " ViewHolders on the main thread: inflated "
+                + synchronous / ROUNDS / 1000 + " us, prewarmed " + prewarmed / ROUNDS / 1000
+                + " us");
+
+        assertTrue("Prewarmed " + prewarmed + " ns, inflated " + synchronous + " ns",
+                prewarmed < synchronous);
+    }
+
+    // Returns the main thread time of creating the holders in onCreateViewHolder()
+    private long createSynchronously() {
+        final long[] nanos = new long[1];
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                RecyclerView recyclerView = newRecyclerView();
+                TaskListAdapter adapter = (TaskListAdapter) recyclerView.getAdapter();
+                long start = System.nanoTime();
+                for (int i = 0; i < HOLDER_COUNT; i++) {
+                    adapter.createViewHolder(recyclerView, TaskListAdapter.VIEW_TYPE_TASK);
+                }
+                nanos[0] = System.nanoTime() - start;
+            }
+        });
+        return nanos[0];
+    }
+
+    // Returns the main thread time of prewarming the holders and taking them from the pool:
+    // starting the inflation, the ViewHolders made for the inflated rows, and the takes
+    private long createPrewarmed() throws InterruptedException {
+        final RecyclerView[] recyclerView = new RecyclerView[1];
+        final long[] nanos = new long[1];
+        Metrics.reset();
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                recyclerView[0] = newRecyclerView();
+                long start = System.nanoTime();
+                ((TaskListAdapter) recyclerView[0].getAdapter())
+                        .prewarmViewHolders(recyclerView[0], HOLDER_COUNT);
+                nanos[0] = System.nanoTime() - start;
+            }
+        });
+        while (mCreateTime.getCount() < HOLDER_COUNT) {
+            Thread.sleep(10);
+            mInstrumentation.waitForIdleSync();
+        }
+
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                RecyclerView.RecycledViewPool pool = recyclerView[0].getRecycledViewPool();
+                long start = System.nanoTime();
+                for (int i = 0; i < HOLDER_COUNT; i++) {
+                    assertNotNull(pool.getRecycledView(TaskListAdapter.VIEW_TYPE_TASK));
+                }
+                nanos[0] += System.nanoTime() - start;
+            }
+        });
+        return nanos[0] + mCreateTime.getMean() * mCreateTime.getCount();
+    }
+
+    private static RecyclerView newRecyclerView() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        RecyclerView recyclerView = new RecyclerView(context);
+        recyclerView.setLayoutManager(new LinearLayoutManager(context));
+        recyclerView.setAdapter(new TaskListAdapter(context, new TaskClickListener() {
+            @Override
+            public void onTaskClick(View v, int taskId) {
+            }
+        }));
+        return recyclerView;
+    }
+}
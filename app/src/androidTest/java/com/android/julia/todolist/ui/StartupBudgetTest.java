@@ -0,0 +1,120 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.ui;
+
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.android.julia.todolist.metrics.StartupTimer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Fails when the app takes longer than its budget to show the first frame of MainActivity.
+ *
+ * The instrumentation starts the app's process cold, so the Application and provider phases
+ * are those of a real cold start. The launch phase, from the Application to the activity,
+ * is up to the test runner and isn't counted. The budget defaults to BUDGET_MS and can be
+ * set for slower devices:
+ *
+ *     ./gradlew connectedDebugAndroidTest \
+ *         -Pandroid.testInstrumentationRunnerArguments.startupBudgetMs=1500
+ */
+@RunWith(AndroidJUnit4.class)
+public class StartupBudgetTest {
+
+    private static final String TAG = StartupBudgetTest.class.getSimpleName();
+
+    // Application, provider, activity and first frame together, in a debug build
+    private static final long BUDGET_MS = 800;
+    private static final long FIRST_FRAME_TIMEOUT_MS = 10000;
+
+    private static final int[] BUDGETED_PHASES = {
+            StartupTimer.PHASE_APPLICATION,
+            StartupTimer.PHASE_PROVIDER,
+            StartupTimer.PHASE_ACTIVITY,
+            StartupTimer.PHASE_FIRST_FRAME
+    };
+
+    private final Instrumentation mInstrumentation = InstrumentationRegistry.getInstrumentation();
+
+    @Test
+    public void firstFrameIsDrawnWithinBudget() throws Exception {
+        Intent intent = new Intent(Intent.ACTION_MAIN)
+                .setClassName(InstrumentationRegistry.getTargetContext(),
+                        MainActivity.class.getName())
+                .addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        Activity activity = mInstrumentation.startActivitySync(intent);
+        try {
+            waitForFirstFrame();
+
+            final long[] nanos = new long[1];
+            final String[] report = new String[1];
+            mInstrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    for (int phase : BUDGETED_PHASES) {
+                        long phaseNanos = StartupTimer.getPhaseNanos(phase);
+                        assertTrue("Phase " + phase + " wasn't marked", phaseNanos >= 0);
+                        nanos[0] += phaseNanos;
+                    }
+                    report[0] = StartupTimer.getReport();
+                }
+            });
+            Log.i(TAG, report[0]);
+
+            long budgetMs = getBudgetMs();
+            assertTrue("Startup took " + nanos[0] / 1000000 + " ms, over the budget of "
+                    + budgetMs + " ms\n" + report[0], nanos[0] <= budgetMs * 1000000);
+        } finally {
+            activity.finish();
+        }
+    }
+
+    private void waitForFirstFrame() throws InterruptedException {
+        final boolean[] drawn = new boolean[1];
+        long deadline = SystemClock.uptimeMillis() + FIRST_FRAME_TIMEOUT_MS;
+        while (SystemClock.uptimeMillis() < deadline) {
+            mInstrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    drawn[0] = StartupTimer.isFirstFrameDrawn();
+                }
+            });
+            if (drawn[0]) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("No frame was drawn in " + FIRST_FRAME_TIMEOUT_MS + " ms");
+    }
+
+    private static long getBudgetMs() {
+        Bundle arguments = InstrumentationRegistry.getArguments();
+        String budget = arguments.getString("startupBudgetMs");
+        return budget != null ? Long.parseLong(budget) : BUDGET_MS;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist;
+
+
+import android.app.Application;
+import android.os.Process;
+
+import com.android.julia.todolist.metrics.MetricsDumperPlugin;
+import com.android.julia.todolist.metrics.StartupTimer;
+import com.facebook.stetho.DumperPluginsProvider;
+import com.facebook.stetho.Stetho;
+import com.facebook.stetho.dumpapp.DumperPlugin;
+
+
+/**
+ * The tools of debug builds. Release builds have a DebugTools that does nothing, and don't
+ * ship Stetho.
+ */
+final class DebugTools {
+
+    private DebugTools() {
+    }
+
+
+    /**
+     * Sets up Stetho with its default inspector and dumpapp plugins, and the metrics plugin,
+     * so that "dumpapp metrics" prints the metrics of the running app. It is started on
+     * a background thread once the first frame is on the screen, to keep it off the startup.
+     */
+    static void install(final Application application) {
+        StartupTimer.runAfterFirstFrame(new Runnable() {
+            @Override
+            public void run() {
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        initializeStetho(application);
+                    }
+                }, "stetho-initializer").start();
+            }
+        });
+    }
+
+
+    private static void initializeStetho(final Application application) {
+        Stetho.initialize(Stetho.newInitializerBuilder(application)
+                .enableDumpapp(new DumperPluginsProvider() {
+                    @Override
+                    public Iterable<DumperPlugin> get() {
+                        return new Stetho.DefaultDumperPluginsBuilder(application)
+                                .provide(new MetricsDumperPlugin())
+                                .finish();
+                    }
+                })
+                .enableWebKitInspector(Stetho.defaultInspectorModulesProvider(application))
+                .build());
+    }
+}
@@ -0,0 +1,69 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.metrics;
+
+
+import com.facebook.stetho.dumpapp.DumpUsageException;
+import com.facebook.stetho.dumpapp.DumperContext;
+import com.facebook.stetho.dumpapp.DumperPlugin;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.List;
+
+
+/**
+ * Shows the metrics through Stetho's dumpapp:
+ *
+ *     dumpapp metrics [dump|enable|disable|reset]
+ */
+public class MetricsDumperPlugin implements DumperPlugin {
+
+    private static final String NAME = "metrics";
+
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+
+    @Override
+    public void dump(DumperContext dumpContext) throws DumpUsageException {
+        PrintStream out = dumpContext.getStdout();
+        List<String> args = dumpContext.getArgsAsList();
+        String command = args.isEmpty() ? "dump" : args.get(0);
+
+        switch (command) {
+            case "dump":
+                break;
+            case "enable":
+                Metrics.setEnabled(true);
+                break;
+            case "disable":
+                Metrics.setEnabled(false);
+                break;
+            case "reset":
+                Metrics.reset();
+                break;
+            default:
+                throw new DumpUsageException(
+                        "Usage: dumpapp " + NAME + " [dump|enable|disable|reset]");
+        }
+        Metrics.dump(new PrintWriter(out));
+    }
+}
@@ -0,0 +1,63 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist;
+
+
+import android.app.Application;
+import android.content.Context;
+import android.os.StrictMode;
+
+import com.android.julia.todolist.metrics.FrameWatchdog;
+import com.android.julia.todolist.metrics.StartupTimer;
+
+
+public class TodoApplication extends Application {
+
+    @Override
+    protected void attachBaseContext(Context base) {
+        // The earliest the app's code runs, before the content provider is created
+        StartupTimer.mark(StartupTimer.PROCESS_START);
+        super.attachBaseContext(base);
+    }
+
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        // Debug builds made with -PstrictMode crash as soon as the main thread
+        // reads or writes the disk, so that such accesses can't go unnoticed
+        if (BuildConfig.STRICT_MODE) {
+            StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                    .detectDiskReads()
+                    .detectDiskWrites()
+                    .penaltyLog()
+                    .penaltyDeath()
+                    .build());
+        }
+
+        // Debug builds made with -PframeWatchdog log the frames that took too long, and the
+        // phase to blame for them. It keeps the main thread busy, so it is only on when asked for.
+        if (BuildConfig.FRAME_WATCHDOG) {
+            FrameWatchdog.install();
+        }
+        // Stetho in debug builds, once the first frame has been drawn
+        DebugTools.install(this);
+
+        StartupTimer.mark(StartupTimer.APPLICATION_CREATED);
+    }
+}
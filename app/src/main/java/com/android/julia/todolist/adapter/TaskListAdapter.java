@@ -0,0 +1,484 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.adapter;
+
+
+import android.content.Context;
+import android.graphics.Color;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.GradientDrawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.content.ContextCompat;
+import android.support.v4.view.AsyncLayoutInflater;
+import android.support.v4.view.ViewCompat;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import com.android.julia.todolist.R;
+import com.android.julia.todolist.data.TaskSnapshot;
+import com.android.julia.todolist.data.TaskWriter;
+import com.android.julia.todolist.metrics.Histogram;
+import com.android.julia.todolist.metrics.Metrics;
+import com.android.julia.todolist.metrics.Tracer;
+import com.android.julia.todolist.ui.TaskClickListener;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * TaskListAdapter creates and binds ViewHolders,
+ * that hold the description and priority of a task,
+ * to a RecyclerView to efficiently display data.
+ */
+public class TaskListAdapter extends RecyclerView.Adapter<TaskListAdapter.TaskViewHolder> {
+
+    // Class variables for the TaskSnapshot that holds task data and the Context
+    private TaskSnapshot mSnapshot;
+    // When set, the tasks are read from this source a page at a time instead of from mSnapshot
+    private TaskPagingSource mPagingSource;
+    // The snapshot as it was loaded, before the hidden tasks were taken out of it
+    private TaskSnapshot mLoadedSnapshot;
+    private Context mContext;
+    private TaskClickListener mListener;
+    // Incremented on every swap, so that the result of an outdated diff is dropped
+    private int mSwapGeneration;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // Single background thread on which new snapshots are diffed
+    private static final ExecutorService sDiffExecutor = Executors.newSingleThreadExecutor();
+    // How long onBindViewHolder() takes
+    private static final Histogram sBindTime = Metrics.histogram("adapter.bind");
+    // How long onCreateViewHolder() takes on the main thread
+    private static final Histogram sCreateTime = Metrics.histogram("adapter.create");
+    // Knows the tasks that are being deleted, which are kept out of every new snapshot
+    private final TaskWriter mTaskWriter;
+    // Rows inflated in the background by prewarmViewHolders(), not yet given to a ViewHolder
+    private final ArrayDeque<View> mInflatedViews = new ArrayDeque<>();
+
+    // Priority labels and circle colors, indexed by priority (0 is for unknown priorities)
+    private final String[] mPriorityLabels;
+    private final int[] mPriorityColors;
+
+    // Task id of a ViewHolder that has no task bound to it
+    public static final int NO_TASK_ID = -1;
+    // The adapter has a single view type
+    static final int VIEW_TYPE_TASK = 0;
+
+
+    /**
+     * Constructor for the TaskListAdapter that initializes the Context.
+     *
+     * @param context the current Context
+     */
+    public TaskListAdapter(Context context, TaskClickListener listener) {
+        this.mContext = context;
+        this.mListener = listener;
+        mTaskWriter = TaskWriter.getInstance(context);
+
+        // Look up the priority labels and colors once, rather than on every bind.
+        // P1 = red, P2 = orange, P3 = yellow
+        mPriorityLabels = new String[]{
+                "",
+                context.getString(R.string.high_priority),
+                context.getString(R.string.med_priority),
+                context.getString(R.string.low_priority)
+        };
+        mPriorityColors = new int[]{
+                Color.TRANSPARENT,
+                ContextCompat.getColor(context, R.color.materialRed),
+                ContextCompat.getColor(context, R.color.materialOrange),
+                ContextCompat.getColor(context, R.color.materialYellow)
+        };
+    }
+
+
+    /**
+     * Called when ViewHolders are created to fill a RecyclerView.
+     * A row inflated ahead of time by prewarmViewHolders() is used if there is one,
+     * otherwise the row is inflated here, on the main thread.
+     *
+     * @return A new TaskViewHolder that holds the view for each task
+     */
+    @Override
+    public TaskViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        long start = Metrics.start();
+        Tracer.beginSection("TaskListAdapter.create");
+        try {
+            View view = mInflatedViews.poll();
+            if (view == null) {
+                // Inflate the task_layout to a view
+                view = LayoutInflater.from(mContext)
+                        .inflate(R.layout.task_layout, parent, false);
+            }
+            return new TaskViewHolder(view);
+        } finally {
+            Tracer.endSection();
+            sCreateTime.stop(start);
+        }
+    }
+
+
+    /**
+     * Inflates count task rows on a background thread and puts a ViewHolder for each of them
+     * into the RecyclerView's pool, so that the first screen of tasks, and the first rows of
+     * a fling, are bound to ViewHolders that already exist instead of being inflated on the
+     * main thread. Call it before the first tasks are loaded, with the RecyclerView the
+     * adapter is set on. Must be called on the main thread.
+     */
+    public void prewarmViewHolders(final RecyclerView recyclerView, int count) {
+        final RecyclerView.RecycledViewPool pool = recyclerView.getRecycledViewPool();
+        pool.setMaxRecycledViews(VIEW_TYPE_TASK, count);
+
+        AsyncLayoutInflater inflater = new AsyncLayoutInflater(mContext);
+        AsyncLayoutInflater.OnInflateFinishedListener onInflated =
+                new AsyncLayoutInflater.OnInflateFinishedListener() {
+                    @Override
+                    public void onInflateFinished(View view, int resid, ViewGroup parent) {
+                        // createViewHolder() sets the view type the pool files the holder under
+                        mInflatedViews.add(view);
+                        pool.putRecycledView(createViewHolder(recyclerView, VIEW_TYPE_TASK));
+                    }
+                };
+        for (int i = 0; i < count; i++) {
+            inflater.inflate(R.layout.task_layout, recyclerView, onInflated);
+        }
+    }
+
+
+    /**
+     * Called by the RecyclerView to display data at a specified position in the snapshot.
+     * Binding doesn't allocate: the description is shown straight from the snapshot's
+     * character pool, and the priority label and circle come from what was prepared up front.
+     *
+     * @param holder   The ViewHolder to bind task data to
+     * @param position The position of the task in the snapshot
+     */
+    @Override
+    public void onBindViewHolder(final TaskViewHolder holder, final int position) {
+        long start = Metrics.start();
+        Tracer.beginSection("TaskListAdapter.bind");
+        try {
+            if (mPagingSource != null) {
+                // Make sure the page of this position, and the ones after it, are loaded
+                mPagingSource.loadAround(position);
+                if (!mPagingSource.isLoaded(position)) {
+                    bindPlaceholder(holder);
+                } else {
+                    bindTask(holder, mPagingSource.getPage(position),
+                            position % TaskPagingSource.PAGE_SIZE);
+                }
+            } else {
+                bindTask(holder, mSnapshot, position);
+            }
+        } finally {
+            Tracer.endSection();
+        }
+
+        sBindTime.stop(start);
+    }
+
+
+    /**
+     * Sets the id, description and priority of the task at index of the snapshot.
+     */
+    private void bindTask(TaskViewHolder holder, TaskSnapshot snapshot, int index) {
+        holder.taskId = snapshot.getId(index);
+        holder.taskDescriptionView.setText(snapshot.getDescriptionPool(),
+                snapshot.getDescriptionStart(index), snapshot.getDescriptionLength(index));
+        bindPriority(holder, snapshot.getPriority(index));
+    }
+
+
+    /**
+     * Programmatically sets the text and color for the priority TextView.
+     */
+    private void bindPriority(TaskViewHolder holder, int priority) {
+        if (priority < 1 || priority >= mPriorityLabels.length) {
+            priority = 0; // unknown priorities are shown without label and color
+        }
+        holder.priorityView.setText(mPriorityLabels[priority]);
+        ViewCompat.setBackground(holder.priorityView, holder.getPriorityCircle(priority));
+    }
+
+
+    /**
+     * Shows an empty row while the page of its task is being loaded.
+     */
+    private void bindPlaceholder(TaskViewHolder holder) {
+        holder.taskId = NO_TASK_ID;
+        holder.taskDescriptionView.setText(null);
+        bindPriority(holder, 0);
+    }
+
+
+    /**
+     * Returns the id of the task that is bound to the given ViewHolder,
+     * or NO_TASK_ID if it hasn't been bound yet or its task isn't loaded yet.
+     */
+    public int getTaskId(RecyclerView.ViewHolder holder) {
+        return ((TaskViewHolder) holder).taskId;
+    }
+
+
+    // Called by a ViewHolder when its task is clicked
+    private void onTaskClick(TaskViewHolder holder) {
+        if (holder.taskId == NO_TASK_ID
+                || holder.getAdapterPosition() == RecyclerView.NO_POSITION) {
+            return;
+        }
+        // The task is loaded again by whoever opens it, the list only has part of it
+        mListener.onTaskClick(holder.itemView, holder.taskId);
+    }
+
+
+    /**
+     * Returns the number of items to display.
+     */
+    @Override
+    public int getItemCount() {
+        if (mPagingSource != null) {
+            return mPagingSource.getCount();
+        }
+        if (mSnapshot == null) {
+            return 0;
+        }
+        return mSnapshot.getCount();
+    }
+
+
+    /**
+     * When data changes and a re-query occurs, this function swaps the old TaskSnapshot
+     * with a newly loaded one (TaskSnapshot snapshot) that is passed in.
+     *
+     * The new snapshot is compared with the old one on a background thread, and only
+     * then swapped in, together with the item changes between the two.
+     */
+    public void swapSnapshot(final TaskSnapshot snapshot) {
+        // Check if this snapshot is the same as the previous one (mLoadedSnapshot)
+        if (mLoadedSnapshot == snapshot) {
+            return; // nothing has changed
+        }
+        mLoadedSnapshot = snapshot;
+
+        if (snapshot == null) {
+            // Any diff still running is for an older snapshot now
+            mSwapGeneration++;
+            mSnapshot = null;
+            notifyDataSetChanged();
+            return;
+        }
+        diffAndSwap(snapshot);
+    }
+
+
+    // Compares the snapshot with the current one in the background, then swaps it in
+    private void diffAndSwap(final TaskSnapshot snapshot) {
+        // Any diff still running is for an older snapshot now
+        final int generation = ++mSwapGeneration;
+
+        final TaskSnapshot oldSnapshot = mSnapshot;
+        final int[] hiddenIds = mTaskWriter.getHiddenTasks();
+        sDiffExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Tracer.beginSection("TaskListAdapter.diff");
+                // Tasks that are being deleted stay out of the list
+                final int[] absentIds;
+                final TaskSnapshot newSnapshot;
+                final DiffUtil.DiffResult diff;
+                try {
+                    absentIds = findAbsent(snapshot, hiddenIds);
+                    newSnapshot = hiddenIds.length == 0
+                            ? snapshot : snapshot.withoutIds(hiddenIds);
+
+                    // Without a previous snapshot there is nothing to compare with
+                    diff = oldSnapshot == null ? null : DiffUtil.calculateDiff(
+                            new TaskDiffCallback(oldSnapshot, newSnapshot));
+                } finally {
+                    Tracer.endSection();
+                }
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mSwapGeneration) {
+                            return; // another snapshot was swapped in meanwhile
+                        }
+                        if (mSnapshot != oldSnapshot) {
+                            // A task was removed meanwhile, compare again
+                            diffAndSwap(snapshot);
+                            return;
+                        }
+                        Tracer.beginSection("TaskListAdapter.swap");
+                        try {
+                            mSnapshot = newSnapshot; // new snapshot value assigned
+                            mTaskWriter.onTasksLoadedWithout(absentIds);
+                            if (diff == null) {
+                                notifyDataSetChanged();
+                            } else {
+                                diff.dispatchUpdatesTo(TaskListAdapter.this);
+                            }
+                        } finally {
+                            Tracer.endSection();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+
+    // Returns the ids among the sorted ids that aren't in the snapshot
+    private static int[] findAbsent(TaskSnapshot snapshot, int[] ids) {
+        int[] absent = new int[ids.length];
+        int count = 0;
+        for (int id : ids) {
+            if (snapshot.indexOf(id) < 0) {
+                absent[count++] = id;
+            }
+        }
+        return Arrays.copyOf(absent, count);
+    }
+
+
+    /**
+     * Removes the task at the given position from the list and queues its delete on the
+     * TaskWriter. The task stays out of the lists of every adapter while it is deleted,
+     * and comes back with the next load if the delete fails.
+     *
+     * In paging mode the task is only deleted: it leaves the list when its page is loaded
+     * again after the delete.
+     *
+     * @param callback Told once the task has been deleted, may be null
+     * @return The id of the removed task, or NO_TASK_ID if there is no task at position
+     */
+    public int deleteTask(int position, TaskWriter.Callback callback) {
+        if (mPagingSource != null) {
+            if (position < 0 || position >= mPagingSource.getCount()
+                    || !mPagingSource.isLoaded(position)) {
+                return NO_TASK_ID;
+            }
+            int id = mPagingSource.getId(position);
+            mTaskWriter.delete(id, callback);
+            return id;
+        }
+        if (mSnapshot == null || position < 0 || position >= mSnapshot.getCount()) {
+            return NO_TASK_ID;
+        }
+        int id = mSnapshot.getId(position);
+        mTaskWriter.delete(id, callback);
+        // Only hides the row, the snapshot is shared
+        mSnapshot = mSnapshot.without(position);
+        notifyItemRemoved(position);
+        return id;
+    }
+
+
+    /**
+     * Switches the adapter to paging mode, where the tasks are loaded a page at a time from
+     * the given source as the list is scrolled, or back to snapshot mode if the source is null.
+     * A source shows the pages it still holds while it loads them again; in snapshot mode
+     * the list is empty until the next snapshot is swapped in.
+     */
+    public void setPagingSource(TaskPagingSource source) {
+        if (source == mPagingSource) {
+            return;
+        }
+        if (mPagingSource != null) {
+            mPagingSource.setCallback(null);
+        }
+        // Any diff still running is for the other mode
+        mSwapGeneration++;
+        mSnapshot = null;
+        mLoadedSnapshot = null;
+        mPagingSource = source;
+        notifyDataSetChanged();
+        if (source != null) {
+            source.setCallback(new TaskPagingSource.Callback() {
+                @Override
+                public void onItemRangeInserted(int positionStart, int itemCount) {
+                    notifyItemRangeInserted(positionStart, itemCount);
+                }
+
+                @Override
+                public void onItemRangeChanged(int positionStart, int itemCount) {
+                    notifyItemRangeChanged(positionStart, itemCount);
+                }
+
+                @Override
+                public void onItemRangeRemoved(int positionStart, int itemCount) {
+                    notifyItemRangeRemoved(positionStart, itemCount);
+                }
+            });
+        }
+    }
+
+
+    // Inner class for creating ViewHolders
+    class TaskViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+
+        // Class variables for the task description and priority TextViews
+        final TextView taskDescriptionView;
+        final TextView priorityView;
+
+        // The id of the bound task
+        int taskId = NO_TASK_ID;
+        // A priority circle for every priority, made the first time the priority is bound,
+        // so that later binds only have to pick one
+        private final Drawable[] mPriorityCircles = new Drawable[mPriorityColors.length];
+        // The circle of the layout, which the priority circles are copied from
+        private final Drawable.ConstantState mCircle;
+
+        /**
+         * Constructor for the TaskViewHolders.
+         *
+         * @param itemView The view inflated in onCreateViewHolder
+         */
+        TaskViewHolder(View itemView) {
+            super(itemView);
+            taskDescriptionView = (TextView) itemView.findViewById(R.id.taskDescription);
+            priorityView = (TextView) itemView.findViewById(R.id.priorityTextView);
+            mCircle = priorityView.getBackground().getConstantState();
+
+            // One listener per ViewHolder, which looks up the task bound at click time
+            itemView.setOnClickListener(this);
+        }
+
+        Drawable getPriorityCircle(int priority) {
+            Drawable priorityCircle = mPriorityCircles[priority];
+            if (priorityCircle == null) {
+                GradientDrawable circle = (GradientDrawable) mCircle.newDrawable().mutate();
+                circle.setColor(mPriorityColors[priority]);
+                mPriorityCircles[priority] = circle;
+                priorityCircle = circle;
+            }
+            return priorityCircle;
+        }
+
+        @Override
+        public void onClick(View v) {
+            onTaskClick(this);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,377 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.android.julia.todolist.adapter;
+
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+
+import com.android.julia.todolist.data.ExecutorScheduler;
+import com.android.julia.todolist.data.HandlerScheduler;
+import com.android.julia.todolist.data.Scheduler;
+import com.android.julia.todolist.data.TaskContract;
+import com.android.julia.todolist.data.TaskSnapshot;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+
+
+/**
+ * TaskPagingSource loads the tasks in fixed-size pages, keyed on (priority, _id),
+ * as the RecyclerView scrolls through them.
+ *
+ * Only the pages around the last accessed position are kept in memory, so the memory use
+ * doesn't depend on the size of the tasks table. For every page that has been discovered
+ * only the key of its last task is remembered, which is enough to load it again later.
+ *
+ * When the tasks change, the pages are loaded again in place: the list keeps its count and
+ * its pages until the new ones arrive, and is only told which ranges changed.
+ *
+ * All methods must be called on the main thread.
+ */
+public class TaskPagingSource {
+
+    private static final String TAG = TaskPagingSource.class.getSimpleName();
+
+    // Number of tasks in a page
+    static final int PAGE_SIZE = 50;
+    // Number of pages to load ahead of the last accessed page
+    static final int PREFETCH_PAGES = 2;
+    // Pages further than this from the last accessed page are dropped from memory
+    static final int EVICT_DISTANCE = 4;
+
+    // One loading thread, shared by all sources
+    private static Scheduler sWorker;
+
+    /**
+     * Receives the changes of the paged list, so they can be forwarded to an adapter.
+     */
+    public interface Callback {
+        void onItemRangeInserted(int positionStart, int itemCount);
+        void onItemRangeChanged(int positionStart, int itemCount);
+        void onItemRangeRemoved(int positionStart, int itemCount);
+    }
+
+
+    private final ContentResolver mResolver;
+    private final Scheduler mWorker;
+    private final Scheduler mMain;
+    private Callback mCallback;
+
+    // The pages currently in memory, by page index. Pages from mKnownPages on are left
+    // from before the last invalidation, and are shown until they are loaded again.
+    private final SparseArray<TaskSnapshot> mPages = new SparseArray<>();
+    // The pages that are being loaded, by page index
+    private final SparseBooleanArray mLoading = new SparseBooleanArray();
+
+    // Key of the last task of every page discovered since the last invalidation
+    private int[] mEndPriorities = new int[16];
+    private int[] mEndIds = new int[16];
+    private int mKnownPages;
+    private boolean mEndReached;
+    // The number of tasks in the list, as the callback was last told
+    private int mCount;
+    private int mLastPosition;
+
+    // Incremented on every invalidation, so that pages of a stale load are ignored
+    private int mGeneration;
+
+    private final ContentObserver mObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+            // Told on the thread that changed the tasks
+            mMain.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    invalidate();
+                }
+            }, 0);
+        }
+    };
+
+
+    public TaskPagingSource(Context context) {
+        this(context.getApplicationContext().getContentResolver(), getWorker(),
+                new HandlerScheduler(new Handler(Looper.getMainLooper())));
+    }
+
+
+    @VisibleForTesting
+    TaskPagingSource(ContentResolver resolver, Scheduler worker, Scheduler main) {
+        mResolver = resolver;
+        mWorker = worker;
+        mMain = main;
+    }
+
+
+    private static synchronized Scheduler getWorker() {
+        if (sWorker == null) {
+            sWorker = new ExecutorScheduler(Executors.newSingleThreadScheduledExecutor());
+        }
+        return sWorker;
+    }
+
+
+    /**
+     * Sets the callback that is told about the changes of the list. The tasks are observed,
+     * and the pages around the last accessed position loaded again, while there is one.
+     */
+    public void setCallback(Callback callback) {
+        if (mCallback == null && callback != null) {
+            mResolver.registerContentObserver(TaskContract.TaskEntry.CONTENT_URI, true,
+                    mObserver);
+        } else if (mCallback != null && callback == null) {
+            mResolver.unregisterContentObserver(mObserver);
+        }
+        mCallback = callback;
+        if (callback != null) {
+            // The tasks may have changed while nobody was listening
+            invalidate();
+        }
+    }
+
+
+    /**
+     * Returns the number of tasks discovered so far. It grows as the list is scrolled
+     * towards its end.
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+
+    /**
+     * Tells the source that the given position is about to be displayed. Loads its page
+     * if needed, prefetches the pages after it and drops the pages that are too far away.
+     */
+    public void loadAround(int position) {
+        mLastPosition = position;
+        int pageIndex = position / PAGE_SIZE;
+
+        // Pages can only be found one after the other, starting from the last known one
+        if (mKnownPages < pageIndex) {
+            loadPage(mKnownPages);
+        }
+        for (int i = pageIndex; i <= pageIndex + PREFETCH_PAGES; i++) {
+            loadPage(i);
+        }
+
+        for (int i = mPages.size() - 1; i >= 0; i--) {
+            if (Math.abs(mPages.keyAt(i) - pageIndex) > EVICT_DISTANCE) {
+                mPages.removeAt(i);
+            }
+        }
+    }
+
+
+    /**
+     * Returns true if the task at the given position is in memory.
+     */
+    public boolean isLoaded(int position) {
+        return mPages.get(position / PAGE_SIZE) != null;
+    }
+
+
+    public int getId(int position) {
+        return getPage(position).getId(position % PAGE_SIZE);
+    }
+
+
+    public int getPriority(int position) {
+        return getPage(position).getPriority(position % PAGE_SIZE);
+    }
+
+
+    public String getDescription(int position) {
+        return getPage(position).getDescription(position % PAGE_SIZE);
+    }
+
+
+    /**
+     * Loads the pages around the last accessed position again, starting over from the
+     * first page. Called whenever the tasks change.
+     *
+     * What is displayed stays as it is meanwhile: the pages in memory are replaced as their
+     * new versions arrive, and the list only shrinks once its new end has been found.
+     */
+    public void invalidate() {
+        mGeneration++;
+        mLoading.clear();
+        mKnownPages = 0;
+        mEndReached = false;
+        loadAround(mLastPosition);
+    }
+
+
+    /**
+     * Stops observing the tasks and drops the pages.
+     */
+    public void close() {
+        setCallback(null);
+        mGeneration++;
+        mPages.clear();
+        mLoading.clear();
+    }
+
+
+    /**
+     * Returns the loaded page that holds the given position, at index position % PAGE_SIZE.
+     */
+    TaskSnapshot getPage(int position) {
+        TaskSnapshot page = mPages.get(position / PAGE_SIZE);
+        if (page == null) {
+            throw new IllegalStateException("Position not loaded: " + position);
+        }
+        return page;
+    }
+
+
+    // Starts loading the page with the given index, if it can be and isn't already loaded
+    private void loadPage(final int pageIndex) {
+        if (mLoading.get(pageIndex)
+                || (pageIndex < mKnownPages && mPages.get(pageIndex) != null)) {
+            return;
+        }
+        // A page can only be found from the key of the page before it
+        if (pageIndex > mKnownPages || (pageIndex == mKnownPages && mEndReached)) {
+            return;
+        }
+
+        final Uri uri;
+        if (pageIndex == 0) {
+            uri = TaskContract.TaskEntry.buildPageUri(PAGE_SIZE, 0);
+        } else {
+            uri = TaskContract.TaskEntry.buildPageUri(PAGE_SIZE,
+                    mEndPriorities[pageIndex - 1], mEndIds[pageIndex - 1]);
+        }
+
+        final int generation = mGeneration;
+        mLoading.put(pageIndex, true);
+        mWorker.schedule(new Runnable() {
+            @Override
+            public void run() {
+                final TaskSnapshot page = queryPage(uri);
+                mMain.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        onPageLoaded(generation, pageIndex, page);
+                    }
+                }, 0);
+            }
+        }, 0);
+    }
+
+
+    // Runs on the loading thread
+    private TaskSnapshot queryPage(Uri uri) {
+        Cursor cursor = null;
+        try {
+            cursor = mResolver.query(uri, TaskContract.TaskEntry.LIST_PROJECTION, null, null,
+                    TaskContract.TaskEntry.SORT_ORDER_PRIORITY);
+            if (cursor == null) {
+                return null;
+            }
+            // The empty result doesn't always name its columns
+            return cursor.getCount() == 0 ? TaskSnapshot.EMPTY : TaskSnapshot.fromCursor(cursor);
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to load a page of tasks.", e);
+            return null;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+
+    // Runs on the main thread once a page has been queried
+    private void onPageLoaded(int generation, int pageIndex, TaskSnapshot page) {
+        if (generation != mGeneration) {
+            return; // the tasks changed while this page was loading
+        }
+        mLoading.delete(pageIndex);
+        if (page == null) {
+            return;
+        }
+
+        int positionStart = pageIndex * PAGE_SIZE;
+        int count = page.getCount();
+        mPages.put(pageIndex, page);
+
+        if (pageIndex < mKnownPages) {
+            // An evicted page was loaded again
+            notifyChanged(positionStart, count);
+            return;
+        }
+
+        // A page was discovered: it replaces what was shown at its positions, if anything
+        int shownCount = Math.max(0, Math.min(mCount - positionStart, PAGE_SIZE));
+        notifyChanged(positionStart, Math.min(shownCount, count));
+        if (count > shownCount) {
+            // Only the last page shown can be short, so this grows the end of the list
+            mCount += count - shownCount;
+            if (mCallback != null) {
+                mCallback.onItemRangeInserted(positionStart + shownCount, count - shownCount);
+            }
+        }
+
+        if (count < PAGE_SIZE) {
+            // This is the end of the list, whatever was shown after it is gone
+            mEndReached = true;
+            int end = positionStart + count;
+            for (int i = mPages.size() - 1; i >= 0 && mPages.keyAt(i) > pageIndex; i--) {
+                mPages.removeAt(i);
+            }
+            if (mCount > end) {
+                int removed = mCount - end;
+                mCount = end;
+                if (mCallback != null) {
+                    mCallback.onItemRangeRemoved(end, removed);
+                }
+            }
+        }
+
+        if (count > 0) {
+            if (mKnownPages == mEndIds.length) {
+                mEndPriorities = Arrays.copyOf(mEndPriorities, mKnownPages * 2);
+                mEndIds = Arrays.copyOf(mEndIds, mKnownPages * 2);
+            }
+            mEndPriorities[mKnownPages] = page.getPriority(count - 1);
+            mEndIds[mKnownPages] = page.getId(count - 1);
+            mKnownPages++;
+            // The next page can be prefetched now that its key is known
+            loadAround(mLastPosition);
+        }
+    }
+
+
+    private void notifyChanged(int positionStart, int itemCount) {
+        if (itemCount > 0 && mCallback != null) {
+            mCallback.onItemRangeChanged(positionStart, itemCount);
+        }
+    }
+}
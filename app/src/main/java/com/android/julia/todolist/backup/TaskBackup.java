@@ -0,0 +1,125 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.backup;
+
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.android.julia.todolist.data.TaskContract.TaskEntry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+
+/**
+ * TaskBackup exports the tasks to a stream and imports them back, through TaskContentProvider,
+ * in chunks of CHUNK_SIZE tasks, so that only one chunk is ever held in memory.
+ *
+ * Both do disk I/O, so they must not be called on the main thread.
+ */
+public final class TaskBackup {
+
+    static final int CHUNK_SIZE = 1000;
+
+    private static final String[] PROJECTION = {
+            TaskEntry._ID,
+            TaskEntry.COLUMN_DESCRIPTION,
+            TaskEntry.COLUMN_PRIORITY
+    };
+
+
+    private TaskBackup() {
+    }
+
+
+    /**
+     * Writes all the tasks to the stream in priority order, a page at a time, where every
+     * page starts after the (priority, _id) key of the last task of the previous one.
+     *
+     * @param format   TaskBackupFormat.FORMAT_BINARY or FORMAT_JSON_LINES
+     * @param compress True to gzip the backup
+     * @return The number of tasks exported
+     */
+    public static int exportTasks(ContentResolver resolver, OutputStream out, int format,
+                                  boolean compress) throws IOException {
+        TaskBackupFormat.Writer writer = TaskBackupFormat.newWriter(out, format, compress);
+        int exported = 0;
+        Uri page = TaskEntry.buildPageUri(CHUNK_SIZE, 0);
+        while (page != null) {
+            Cursor cursor = resolver.query(page, PROJECTION, null, null,
+                    TaskEntry.SORT_ORDER_PRIORITY);
+            if (cursor == null) {
+                throw new IOException("Failed to query " + page);
+            }
+            try {
+                int lastId = 0;
+                int lastPriority = 0;
+                while (cursor.moveToNext()) {
+                    lastId = cursor.getInt(0);
+                    lastPriority = cursor.getInt(2);
+                    writer.write(cursor.getString(1), lastPriority);
+                }
+                exported += cursor.getCount();
+                // A short page is the last one
+                page = cursor.getCount() < CHUNK_SIZE
+                        ? null : TaskEntry.buildPageUri(CHUNK_SIZE, lastPriority, lastId);
+            } finally {
+                cursor.close();
+            }
+        }
+        writer.finish();
+        return exported;
+    }
+
+
+    /**
+     * Adds the tasks of a backup in any of the TaskBackupFormats to the existing ones.
+     * Every chunk is inserted with one bulkInsert(), in a transaction of its own, so a
+     * backup that turns out to be corrupt halfway is imported up to the chunk before.
+     *
+     * @return The number of tasks imported
+     */
+    public static int importTasks(ContentResolver resolver, InputStream in) throws IOException {
+        TaskBackupFormat.Reader reader = TaskBackupFormat.newReader(in);
+        // The same values are filled again for every chunk
+        ContentValues[] chunk = new ContentValues[CHUNK_SIZE];
+        for (int i = 0; i < CHUNK_SIZE; i++) {
+            chunk[i] = new ContentValues(2);
+        }
+
+        int imported = 0;
+        int count = 0;
+        while (reader.next()) {
+            chunk[count].put(TaskEntry.COLUMN_DESCRIPTION, reader.getDescription());
+            chunk[count].put(TaskEntry.COLUMN_PRIORITY, reader.getPriority());
+            count++;
+            if (count == CHUNK_SIZE) {
+                imported += resolver.bulkInsert(TaskEntry.CONTENT_URI, chunk);
+                count = 0;
+            }
+        }
+        if (count > 0) {
+            imported += resolver.bulkInsert(TaskEntry.CONTENT_URI, Arrays.copyOf(chunk, count));
+        }
+        return imported;
+    }
+}
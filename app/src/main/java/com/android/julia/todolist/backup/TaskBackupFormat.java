@@ -0,0 +1,345 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.backup;
+
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * TaskBackupFormat writes and reads tasks one at a time in the formats of a backup,
+ * so that a backup of any size takes the same small amount of memory:
+ *
+ *  FORMAT_BINARY       The magic "TSKB" and a format version, then every task as the length
+ *                      of its description in UTF-8 bytes, those bytes and its priority,
+ *                      all ints big-endian. A length of -1 ends the tasks.
+ *  FORMAT_JSON_LINES   A JSON object per line: {"description":"Go shopping","priority":3}
+ *
+ * Either format can be gzip compressed. The reader tells the formats and the compression
+ * apart from the first bytes, so a backup needs no file name extension or header to restore.
+ */
+public final class TaskBackupFormat {
+
+    public static final int FORMAT_BINARY = 0;
+    public static final int FORMAT_JSON_LINES = 1;
+
+    private static final int BINARY_MAGIC = 0x54534b42; // "TSKB"
+    private static final int BINARY_VERSION = 1;
+    private static final int BINARY_END = -1;
+    // A row must fit in a CursorWindow of 2 MB to be read from SQLite, so no description
+    // that was backed up is longer. A longer length is read as a corrupt backup, rather
+    // than trusted with an allocation.
+    private static final int MAX_DESCRIPTION_BYTES = 2 * 1024 * 1024;
+
+    private static final String KEY_DESCRIPTION = "description";
+    private static final String KEY_PRIORITY = "priority";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+
+    /**
+     * Writes tasks to a backup.
+     */
+    public interface Writer {
+        void write(String description, int priority) throws IOException;
+
+        /**
+         * Ends the backup and flushes it. The underlying stream is left open.
+         */
+        void finish() throws IOException;
+    }
+
+
+    /**
+     * Reads the tasks of a backup, one at a time.
+     */
+    public interface Reader {
+        /**
+         * Moves to the next task, and returns false if there is none.
+         */
+        boolean next() throws IOException;
+
+        String getDescription();
+
+        int getPriority();
+    }
+
+
+    private TaskBackupFormat() {
+    }
+
+
+    /**
+     * Returns a Writer of the given format to the stream, gzip compressed if compress is true.
+     */
+    public static Writer newWriter(OutputStream out, int format, boolean compress)
+            throws IOException {
+        final GZIPOutputStream gzip = compress ? new GZIPOutputStream(out, BUFFER_SIZE) : null;
+        OutputStream target = new BufferedOutputStream(compress ? gzip : out, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                // Finishing the backup must not close the caller's stream
+                flush();
+                if (gzip != null) {
+                    gzip.finish();
+                }
+            }
+        };
+        switch (format) {
+            case FORMAT_BINARY:
+                return new BinaryWriter(target);
+            case FORMAT_JSON_LINES:
+                return new JsonLinesWriter(target);
+            default:
+                throw new IllegalArgumentException("Unknown backup format: " + format);
+        }
+    }
+
+
+    /**
+     * Returns a Reader of the backup in the stream, in whichever format it was written.
+     */
+    public static Reader newReader(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, BUFFER_SIZE);
+        buffered.mark(4);
+        int first = buffered.read();
+        int second = buffered.read();
+        buffered.reset();
+        if (first == 0x1f && second == 0x8b) {
+            // The gzip magic; the format is inside
+            buffered = new BufferedInputStream(new GZIPInputStream(buffered, BUFFER_SIZE),
+                    BUFFER_SIZE);
+        }
+
+        buffered.mark(4);
+        DataInputStream data = new DataInputStream(buffered);
+        int magic;
+        try {
+            magic = data.readInt();
+        } catch (EOFException e) {
+            // Shorter than the binary header, so an empty or tiny JSON lines backup
+            magic = 0;
+        }
+        if (magic == BINARY_MAGIC) {
+            int version = data.readInt();
+            if (version != BINARY_VERSION) {
+                throw new IOException("Unknown binary backup version " + version);
+            }
+            return new BinaryReader(data);
+        }
+        buffered.reset();
+        return new JsonLinesReader(buffered);
+    }
+
+
+    private static final class BinaryWriter implements Writer {
+        private final DataOutputStream mOut;
+
+        BinaryWriter(OutputStream out) throws IOException {
+            mOut = new DataOutputStream(out);
+            mOut.writeInt(BINARY_MAGIC);
+            mOut.writeInt(BINARY_VERSION);
+        }
+
+        @Override
+        public void write(String description, int priority) throws IOException {
+            byte[] bytes = description.getBytes(UTF_8);
+            mOut.writeInt(bytes.length);
+            mOut.write(bytes);
+            mOut.writeInt(priority);
+        }
+
+        @Override
+        public void finish() throws IOException {
+            mOut.writeInt(BINARY_END);
+            mOut.close();
+        }
+    }
+
+
+    private static final class BinaryReader implements Reader {
+        private final DataInputStream mIn;
+        // Grows to the longest description, rather than a new array per task
+        private byte[] mBuffer = new byte[256];
+        private String mDescription;
+        private int mPriority;
+
+        BinaryReader(DataInputStream in) {
+            mIn = in;
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            int length = mIn.readInt();
+            if (length == BINARY_END) {
+                return false;
+            }
+            if (length < 0 || length > MAX_DESCRIPTION_BYTES) {
+                throw new IOException("Corrupt backup, description of " + length + " bytes");
+            }
+            if (length > mBuffer.length) {
+                mBuffer = new byte[Math.max(length, mBuffer.length * 2)];
+            }
+            mIn.readFully(mBuffer, 0, length);
+            mDescription = new String(mBuffer, 0, length, UTF_8);
+            mPriority = mIn.readInt();
+            return true;
+        }
+
+        @Override
+        public String getDescription() {
+            return mDescription;
+        }
+
+        @Override
+        public int getPriority() {
+            return mPriority;
+        }
+    }
+
+
+    /**
+     * Writes every task as a JSON object on a line of its own. JsonWriter escapes line
+     * breaks in the description, so a task never spans two lines.
+     */
+    private static final class JsonLinesWriter implements Writer {
+        private final java.io.Writer mOut;
+        // Holds one line at a time, rather than a new buffer per task
+        private final StringWriter mLine = new StringWriter();
+
+        JsonLinesWriter(OutputStream out) {
+            mOut = new BufferedWriter(new OutputStreamWriter(out, UTF_8), BUFFER_SIZE);
+        }
+
+        @Override
+        public void write(String description, int priority) throws IOException {
+            mLine.getBuffer().setLength(0);
+            // A JsonWriter writes a single JSON document, so there is one per line
+            JsonWriter json = new JsonWriter(mLine);
+            json.beginObject()
+                    .name(KEY_DESCRIPTION).value(description)
+                    .name(KEY_PRIORITY).value(priority)
+                    .endObject();
+            json.flush();
+            mOut.append(mLine.getBuffer()).append('\n');
+        }
+
+        @Override
+        public void finish() throws IOException {
+            mOut.close();
+        }
+    }
+
+
+    /**
+     * Reads JSON lines with a description string and a priority number. Other keys are
+     * ignored, so that backups written by a newer version can still be restored.
+     */
+    private static final class JsonLinesReader implements Reader {
+        private final BufferedReader mIn;
+        private int mLineNumber;
+        private String mLine;
+        private String mDescription;
+        private int mPriority;
+
+        JsonLinesReader(InputStream in) {
+            mIn = new BufferedReader(new InputStreamReader(in, UTF_8), BUFFER_SIZE);
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            do {
+                mLine = mIn.readLine();
+                if (mLine == null) {
+                    return false;
+                }
+                mLineNumber++;
+            } while (mLine.trim().isEmpty());
+
+            mDescription = null;
+            boolean hasPriority = false;
+            boolean textAfterObject;
+            JsonReader json = new JsonReader(new StringReader(mLine));
+            try {
+                json.beginObject();
+                while (json.hasNext()) {
+                    String key = json.nextName();
+                    if (KEY_DESCRIPTION.equals(key) && json.peek() == JsonToken.STRING) {
+                        mDescription = json.nextString();
+                    } else if (KEY_PRIORITY.equals(key)) {
+                        mPriority = json.nextInt();
+                        hasPriority = true;
+                    } else {
+                        json.skipValue();
+                    }
+                }
+                json.endObject();
+                textAfterObject = json.peek() != JsonToken.END_DOCUMENT;
+            } catch (IOException e) {
+                throw error(e.getMessage());
+            } catch (IllegalStateException e) {
+                // A value of the wrong type, e.g. an array instead of the object
+                throw error(e.getMessage());
+            } catch (NumberFormatException e) {
+                throw error("expected a whole number");
+            }
+            if (textAfterObject) {
+                throw error("text after the object");
+            }
+            if (mDescription == null || !hasPriority) {
+                throw error("a task needs a description and a priority");
+            }
+            return true;
+        }
+
+        @Override
+        public String getDescription() {
+            return mDescription;
+        }
+
+        @Override
+        public int getPriority() {
+            return mPriority;
+        }
+
+        private IOException error(String problem) {
+            return new IOException("Bad backup line " + mLineNumber + ", " + problem + ": "
+                    + mLine);
+        }
+    }
+}
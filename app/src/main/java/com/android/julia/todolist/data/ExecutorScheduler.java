@@ -0,0 +1,55 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.data;
+
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * A Scheduler that runs its tasks on the threads of a ScheduledExecutorService.
+ */
+public class ExecutorScheduler implements Scheduler {
+
+    private final ScheduledExecutorService mExecutor;
+
+
+    public ExecutorScheduler(ScheduledExecutorService executor) {
+        mExecutor = executor;
+    }
+
+
+    @Override
+    public Cancellable schedule(Runnable task, long delayMillis) {
+        final ScheduledFuture<?> future =
+                mExecutor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+        return new Cancellable() {
+            @Override
+            public void cancel() {
+                future.cancel(false);
+            }
+        };
+    }
+
+
+    @Override
+    public long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+}
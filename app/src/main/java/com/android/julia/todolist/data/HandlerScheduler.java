@@ -0,0 +1,60 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.data;
+
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+
+/**
+ * A Scheduler that runs its tasks on the Looper of a Handler, e.g. on the main thread.
+ */
+public class HandlerScheduler implements Scheduler {
+
+    private final Handler mHandler;
+
+
+    public HandlerScheduler(Handler handler) {
+        mHandler = handler;
+    }
+
+
+    @Override
+    public Cancellable schedule(final Runnable task, long delayMillis) {
+        // Wrapped, so that cancelling doesn't remove other posts of the same Runnable
+        final Runnable wrapper = new Runnable() {
+            @Override
+            public void run() {
+                task.run();
+            }
+        };
+        mHandler.postDelayed(wrapper, delayMillis);
+        return new Cancellable() {
+            @Override
+            public void cancel() {
+                mHandler.removeCallbacks(wrapper);
+            }
+        };
+    }
+
+
+    @Override
+    public long now() {
+        return SystemClock.uptimeMillis();
+    }
+}
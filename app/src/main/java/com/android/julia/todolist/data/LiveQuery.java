@@ -0,0 +1,278 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.data;
+
+
+import com.android.julia.todolist.metrics.Histogram;
+import com.android.julia.todolist.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * LiveQuery runs a query, and runs it again whenever its source reports a change,
+ * for as long as anybody is subscribed to it.
+ *
+ * All subscribers share one query: it is started by the first subscriber and stopped
+ * with the last one, and later subscribers get the latest result right away.
+ * A burst of change notifications leads to a single new query once the notifications have
+ * stopped for the debounce time, or at the latest once the maximum delay has passed.
+ * Starting a query cancels the one that is still running, whose result is dropped.
+ *
+ * Queries run on the worker scheduler, results are delivered on the main scheduler.
+ * It is plain Java, so that it can be tested on the JVM.
+ *
+ * @param <T> The type of the query result
+ */
+public class LiveQuery<T> {
+
+    /**
+     * What a LiveQuery runs and watches for changes.
+     */
+    public interface Source<T> {
+        /**
+         * Runs the query. Called on the worker scheduler; should give up once the signal
+         * is canceled.
+         */
+        T query(QuerySignal signal) throws Exception;
+
+        /**
+         * Starts calling onChange, from any thread, whenever the result may have changed.
+         * Only one listener is registered at a time.
+         */
+        void observe(Runnable onChange);
+
+        void stopObserving(Runnable onChange);
+    }
+
+
+    /**
+     * Receives the results of a LiveQuery, on the main scheduler.
+     */
+    public interface Observer<T> {
+        void onResult(T result);
+        void onError(Exception e);
+    }
+
+
+    public interface Subscription {
+        void unsubscribe();
+    }
+
+
+    // From the start of a query to the delivery of its result, the time the observers wait
+    private static final Histogram sRestartToDelivery =
+            Metrics.histogram("live_query.restart_to_delivery");
+
+    private final Source<T> mSource;
+    private final Scheduler mWorker;
+    private final Scheduler mMain;
+    private final long mDebounceMillis;
+    private final long mMaxDelayMillis;
+
+    // All fields below are guarded by this
+    private final List<Observer<T>> mObservers = new ArrayList<>();
+    private T mResult;
+    private boolean mHasResult;
+    // The signal of the query that is running, if any
+    private QuerySignal mInFlight;
+    // Incremented whenever a query is started or stopped, so that outdated results are dropped
+    private int mGeneration;
+    // The new query that is waiting for a burst of changes to end
+    private Scheduler.Cancellable mPendingQuery;
+    private long mFirstChangeTime;
+
+    private final Runnable mChangeListener = new Runnable() {
+        @Override
+        public void run() {
+            onSourceChanged();
+        }
+    };
+
+    private final Runnable mDebouncedQuery = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (LiveQuery.this) {
+                mPendingQuery = null;
+                if (!mObservers.isEmpty()) {
+                    startQuery();
+                }
+            }
+        }
+    };
+
+
+    /**
+     * @param debounceMillis How long the source has to be quiet after a change before
+     *                       the query runs again
+     * @param maxDelayMillis The longest a change waits for its query, however long the burst
+     */
+    public LiveQuery(Source<T> source, Scheduler worker, Scheduler main,
+                     long debounceMillis, long maxDelayMillis) {
+        mSource = source;
+        mWorker = worker;
+        mMain = main;
+        mDebounceMillis = debounceMillis;
+        mMaxDelayMillis = Math.max(debounceMillis, maxDelayMillis);
+    }
+
+
+    /**
+     * Subscribes the observer to the results. The first subscriber starts the query,
+     * later ones receive the latest result if there is one.
+     */
+    public synchronized Subscription subscribe(final Observer<T> observer) {
+        mObservers.add(observer);
+
+        if (mHasResult) {
+            final T result = mResult;
+            mMain.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (isSubscribed(observer)) {
+                        observer.onResult(result);
+                    }
+                }
+            }, 0);
+        }
+        if (mObservers.size() == 1) {
+            mSource.observe(mChangeListener);
+            // The source wasn't watched while nobody was subscribed
+            startQuery();
+        }
+
+        return new Subscription() {
+            @Override
+            public void unsubscribe() {
+                LiveQuery.this.unsubscribe(observer);
+            }
+        };
+    }
+
+
+    private synchronized void unsubscribe(Observer<T> observer) {
+        if (!mObservers.remove(observer) || !mObservers.isEmpty()) {
+            return;
+        }
+
+        // The last subscriber is gone: stop watching and querying
+        mSource.stopObserving(mChangeListener);
+        if (mPendingQuery != null) {
+            mPendingQuery.cancel();
+            mPendingQuery = null;
+        }
+        if (mInFlight != null) {
+            mInFlight.cancel();
+            mInFlight = null;
+        }
+        mGeneration++;
+    }
+
+
+    private synchronized boolean isSubscribed(Observer<T> observer) {
+        return mObservers.contains(observer);
+    }
+
+
+    // Called by the source, from any thread
+    private synchronized void onSourceChanged() {
+        if (mObservers.isEmpty()) {
+            return;
+        }
+
+        long now = mMain.now();
+        if (mPendingQuery == null) {
+            mFirstChangeTime = now;
+        } else {
+            mPendingQuery.cancel();
+        }
+        // Wait for the burst to end, but not beyond the maximum delay of its first change
+        long delay = Math.min(mDebounceMillis,
+                Math.max(0, mFirstChangeTime + mMaxDelayMillis - now));
+        mPendingQuery = mMain.schedule(mDebouncedQuery, delay);
+    }
+
+
+    // Must hold the lock
+    private void startQuery() {
+        if (mInFlight != null) {
+            // Its result would be outdated by the time it arrives
+            mInFlight.cancel();
+        }
+        final QuerySignal signal = new QuerySignal();
+        final int generation = ++mGeneration;
+        final long start = Metrics.start();
+        mInFlight = signal;
+
+        mWorker.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (signal.isCanceled()) {
+                    return;
+                }
+                T result = null;
+                Exception error = null;
+                try {
+                    result = mSource.query(signal);
+                } catch (Exception e) {
+                    error = e;
+                }
+
+                final T finalResult = result;
+                final Exception finalError = error;
+                mMain.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (deliver(generation, signal, finalResult, finalError)) {
+                            sRestartToDelivery.stop(start);
+                        }
+                    }
+                }, 0);
+            }
+        }, 0);
+    }
+
+
+    // Runs on the main scheduler once a query has finished; returns false if it was outdated
+    private boolean deliver(int generation, QuerySignal signal, T result, Exception error) {
+        List<Observer<T>> observers;
+        synchronized (this) {
+            if (generation != mGeneration || signal.isCanceled()) {
+                return false; // a newer query is running, or nobody is subscribed anymore
+            }
+            mInFlight = null;
+            if (error == null) {
+                mResult = result;
+                mHasResult = true;
+            }
+            observers = new ArrayList<>(mObservers);
+        }
+
+        for (Observer<T> observer : observers) {
+            if (!isSubscribed(observer)) {
+                continue; // unsubscribed by an earlier observer
+            }
+            if (error == null) {
+                observer.onResult(result);
+            } else {
+                observer.onError(error);
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.data;
+
+
+/**
+ * Tells a running query that its result isn't wanted anymore.
+ *
+ * A query can poll isCanceled(), or forward the cancellation to whatever it is waiting on
+ * through setOnCancelListener(), e.g. to the CancellationSignal of a ContentResolver query.
+ */
+public final class QuerySignal {
+
+    private boolean mCanceled;
+    private Runnable mOnCancelListener;
+
+
+    public synchronized boolean isCanceled() {
+        return mCanceled;
+    }
+
+
+    public void cancel() {
+        Runnable listener;
+        synchronized (this) {
+            if (mCanceled) {
+                return;
+            }
+            mCanceled = true;
+            listener = mOnCancelListener;
+        }
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+
+    /**
+     * Sets the listener to run when the signal is canceled. It runs right away
+     * if the signal has been canceled already.
+     */
+    public void setOnCancelListener(Runnable listener) {
+        synchronized (this) {
+            if (!mCanceled) {
+                mOnCancelListener = listener;
+                return;
+            }
+        }
+        listener.run();
+    }
+}
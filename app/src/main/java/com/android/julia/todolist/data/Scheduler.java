@@ -0,0 +1,43 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.data;
+
+
+/**
+ * Runs tasks, now or after a delay, on a thread of its own choosing.
+ *
+ * LiveQuery only depends on this interface, so that tests can run it on a scheduler
+ * whose clock they control.
+ */
+public interface Scheduler {
+
+    /**
+     * A scheduled task that hasn't run yet can be cancelled through this.
+     */
+    interface Cancellable {
+        void cancel();
+    }
+
+
+    Cancellable schedule(Runnable task, long delayMillis);
+
+
+    /**
+     * Returns the current time of the scheduler's clock, in milliseconds.
+     */
+    long now();
+}
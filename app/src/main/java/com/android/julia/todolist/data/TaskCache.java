@@ -0,0 +1,488 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.data;
+
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.SparseArray;
+
+import com.android.julia.todolist.data.TaskContract.TaskEntry;
+import com.android.julia.todolist.metrics.Counter;
+import com.android.julia.todolist.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+
+/**
+ * TaskCache is a process-wide, in-memory copy of the tasks table.
+ *
+ * The tasks only change through TaskContentProvider, which writes every insert, update
+ * and delete through to this cache as well, so the queries of the task list
+ * can be answered from memory without touching SQLite. The changes of a transaction are
+ * collected in a Changes and only committed to the cache once SQLite committed them, in the
+ * order SQLite did.
+ *
+ * The tasks are kept by _id, and in a second view ordered by (priority, _id).
+ *
+ * Besides, the last few tasks that were queried one at a time are kept with all their
+ * columns, so that opening the same task again doesn't read it from SQLite.
+ */
+public class TaskCache {
+
+    // Tables with more tasks than this are not cached, they are read from SQLite instead
+    static final int MAX_ENTRIES = 20000;
+
+    // Number of single tasks kept with all their columns
+    static final int MAX_RECENT_ROWS = 16;
+
+    // Queries answered from memory, and the ones that had to go to SQLite
+    private static final Counter sHits = Metrics.counter("cache.hits");
+    private static final Counter sMisses = Metrics.counter("cache.misses");
+    private static final Counter sRowsScanned = Metrics.counter("cache.rows_scanned");
+    private static final Counter sRowHits = Metrics.counter("cache.row_hits");
+    private static final Counter sRowMisses = Metrics.counter("cache.row_misses");
+
+    // The columns the cache keeps, in table order. A null projection asks for the version
+    // and sync id as well, so it is left to SQLite.
+    private static final String[] CACHED_COLUMNS = {
+            TaskEntry._ID,
+            TaskEntry.COLUMN_DESCRIPTION,
+            TaskEntry.COLUMN_PRIORITY
+    };
+
+    // Column index of TaskEntry.COLUMN_LIST_DESCRIPTION in a resolved projection
+    private static final int LIST_DESCRIPTION = -2;
+
+    private static final Comparator<Entry> PRIORITY_ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            if (a.priority != b.priority) {
+                return a.priority < b.priority ? -1 : 1;
+            }
+            return a.id < b.id ? -1 : (a.id == b.id ? 0 : 1);
+        }
+    };
+
+    private static TaskCache sInstance;
+
+    /**
+     * All the columns of a single task, in table order.
+     */
+    static final class Row {
+        final String[] columns;
+        final Object[] values;
+
+        Row(String[] columns, Object[] values) {
+            this.columns = columns;
+            this.values = values;
+        }
+    }
+
+    /**
+     * The changes of one transaction, to write through to the cache once it is committed.
+     */
+    static final class Changes {
+        private static final int INSERT = 0;
+        private static final int UPDATE = 1;
+        private static final int DELETE = 2;
+
+        private final ArrayList<Change> mChanges = new ArrayList<>();
+
+        void insert(long id, ContentValues values) {
+            mChanges.add(new Change(INSERT, id, values));
+        }
+
+        void update(long id, ContentValues values) {
+            mChanges.add(new Change(UPDATE, id, values));
+        }
+
+        void delete(long id) {
+            mChanges.add(new Change(DELETE, id, null));
+        }
+    }
+
+    private static final class Change {
+        final int type;
+        final long id;
+        final ContentValues values;
+
+        Change(int type, long id, ContentValues values) {
+            this.type = type;
+            this.id = id;
+            this.values = values;
+        }
+    }
+
+    // A single cached task
+    private static final class Entry {
+        final int id;
+        final String description;
+        final int priority;
+
+        Entry(int id, String description, int priority) {
+            this.id = id;
+            this.description = description;
+            this.priority = priority;
+        }
+    }
+
+    private final SparseArray<Entry> mById = new SparseArray<>();
+    private final TreeSet<Entry> mByPriority = new TreeSet<>(PRIORITY_ORDER);
+    // False until the whole table has been read, and again after an invalidation
+    private boolean mLoaded;
+    // True once the table was found too big to cache, until tasks are deleted
+    private boolean mTooLarge;
+
+    // The recently queried single tasks by id, least recently used first
+    private final Map<Integer, Row> mRecentRows =
+            new LinkedHashMap<Integer, Row>(MAX_RECENT_ROWS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, Row> eldest) {
+                    return size() > MAX_RECENT_ROWS;
+                }
+            };
+    // Incremented whenever the rows are dropped, so that a row read before isn't kept
+    private long mRowGeneration;
+    // Incremented by every commit, so that a table read before it isn't taken as loaded
+    private long mWriteGeneration;
+
+
+    private TaskCache() {
+    }
+
+
+    public static synchronized TaskCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new TaskCache();
+        }
+        return sInstance;
+    }
+
+
+    /**
+     * Reads the whole tasks table into memory, unless it is already loaded
+     * or has more than MAX_ENTRIES tasks.
+     *
+     * The table is read on a connection of its own, which may still see the tasks as they
+     * were before a transaction that is being committed. So if a change is committed while
+     * the table is read, what was read isn't kept, and the next query reads it again.
+     */
+    void load(TaskStatements statements) {
+        long generation;
+        synchronized (this) {
+            if (mLoaded || mTooLarge) {
+                return;
+            }
+            generation = mWriteGeneration;
+        }
+
+        boolean tooLarge = statements.count() > MAX_ENTRIES;
+        ArrayList<Entry> entries = new ArrayList<>();
+        if (!tooLarge) {
+            Cursor cursor = statements.getDatabase().query(TaskEntry.TABLE_NAME, CACHED_COLUMNS,
+                    null, null, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    entries.add(new Entry(cursor.getInt(0), cursor.getString(1),
+                            cursor.getInt(2)));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        synchronized (this) {
+            if (mLoaded || generation != mWriteGeneration) {
+                return;
+            }
+            if (tooLarge) {
+                mTooLarge = true;
+                return;
+            }
+            clear();
+            for (Entry entry : entries) {
+                add(entry);
+            }
+            mLoaded = true;
+        }
+    }
+
+
+    /**
+     * Answers a query on the tasks directory from memory.
+     *
+     * @param projection The columns to return
+     * @param byPriority True to sort by (priority, _id), false to sort by _id
+     * @param limit      The maximum number of tasks to return, or -1 for no limit
+     * @param offset     The number of tasks to skip
+     * @param after      If not null, only the tasks that sort after the (priority, _id) key
+     *                   in this array are returned
+     * @return A Cursor over the matching tasks, or null if the cache can't answer the query
+     */
+    synchronized Cursor query(String[] projection, boolean byPriority, int limit, int offset,
+                              int[] after) {
+        int[] columns = resolveColumns(projection);
+        if (!mLoaded || columns == null) {
+            sMisses.add(1);
+            return null;
+        }
+
+        MatrixCursor cursor = new MatrixCursor(columnNames(projection, columns),
+                limit >= 0 ? Math.min(limit, mById.size()) : mById.size());
+
+        // An offset into the priority order is walked over entry by entry
+        int skipped = 0;
+        if (byPriority) {
+            NavigableSet<Entry> entries = mByPriority;
+            if (after != null) {
+                entries = mByPriority.tailSet(new Entry(after[1], null, after[0]), false);
+            }
+            Iterator<Entry> iterator = entries.iterator();
+            for (; skipped < offset && iterator.hasNext(); skipped++) {
+                iterator.next();
+            }
+            while (iterator.hasNext() && (limit < 0 || cursor.getCount() < limit)) {
+                addRow(cursor, columns, iterator.next());
+            }
+        } else {
+            for (int i = offset; i < mById.size() && (limit < 0 || cursor.getCount() < limit);
+                 i++) {
+                addRow(cursor, columns, mById.valueAt(i));
+            }
+        }
+
+        sRowsScanned.add(skipped + cursor.getCount());
+        sHits.add(1);
+        return cursor;
+    }
+
+
+    /**
+     * Returns the recently queried task with the given id, or null if it isn't kept.
+     */
+    synchronized Row getRow(long id) {
+        Row row = mRecentRows.get((int) id);
+        (row != null ? sRowHits : sRowMisses).add(1);
+        return row;
+    }
+
+
+    /**
+     * Returns the current generation of the rows. Read it before a task is queried,
+     * and pass it to putRow() with the result.
+     */
+    synchronized long getRowGeneration() {
+        return mRowGeneration;
+    }
+
+
+    /**
+     * Keeps a task that was queried on its own, unless a task changed since the query
+     * started, which may have left the row outdated.
+     */
+    synchronized void putRow(long id, Row row, long generation) {
+        if (generation == mRowGeneration) {
+            mRecentRows.put((int) id, row);
+        }
+    }
+
+
+    /**
+     * Drops the recently queried tasks. Called once a change to the tasks is committed:
+     * until then, a query on another connection still reads the tasks as they were.
+     */
+    synchronized void forgetRows() {
+        mRecentRows.clear();
+        mRowGeneration++;
+    }
+
+
+    /**
+     * Writes the changes of a transaction through to the cache. Call it after the
+     * transaction was committed, and before the next transaction is.
+     */
+    synchronized void commit(Changes changes) {
+        mWriteGeneration++;
+        for (Change change : changes.mChanges) {
+            switch (change.type) {
+                case Changes.INSERT:
+                    insert(change.id, change.values);
+                    break;
+                case Changes.UPDATE:
+                    update(change.id, change.values);
+                    break;
+                default:
+                    delete(change.id);
+                    break;
+            }
+        }
+    }
+
+
+    // Writes a newly inserted task through to the cache
+    private void insert(long id, ContentValues values) {
+        if (!mLoaded) {
+            return;
+        }
+        if (mById.size() >= MAX_ENTRIES) {
+            // The table has outgrown the cache
+            invalidate();
+            mTooLarge = true;
+            return;
+        }
+        add(new Entry((int) id,
+                values.getAsString(TaskEntry.COLUMN_DESCRIPTION),
+                values.getAsInteger(TaskEntry.COLUMN_PRIORITY)));
+    }
+
+
+    // Writes an updated task through to the cache. Only the columns in values change.
+    private void update(long id, ContentValues values) {
+        if (!mLoaded) {
+            return;
+        }
+        Entry old = mById.get((int) id);
+        if (old == null) {
+            return;
+        }
+        String description = values.containsKey(TaskEntry.COLUMN_DESCRIPTION)
+                ? values.getAsString(TaskEntry.COLUMN_DESCRIPTION) : old.description;
+        int priority = values.containsKey(TaskEntry.COLUMN_PRIORITY)
+                ? values.getAsInteger(TaskEntry.COLUMN_PRIORITY) : old.priority;
+        add(new Entry(old.id, description, priority));
+    }
+
+
+    // Removes a deleted task from the cache
+    private void delete(long id) {
+        // The table may be small enough to cache now
+        mTooLarge = false;
+        Entry old = mById.get((int) id);
+        if (old != null) {
+            mById.remove(old.id);
+            mByPriority.remove(old);
+        }
+    }
+
+
+    /**
+     * Drops the cached tasks, when the database is replaced. The table is read again
+     * on the next query.
+     */
+    synchronized void invalidate() {
+        mWriteGeneration++;
+        forgetRows();
+        clear();
+        mLoaded = false;
+        mTooLarge = false;
+    }
+
+
+    private void add(Entry entry) {
+        Entry old = mById.get(entry.id);
+        if (old != null) {
+            mByPriority.remove(old);
+        }
+        mById.put(entry.id, entry);
+        mByPriority.add(entry);
+    }
+
+
+    private void clear() {
+        mById.clear();
+        mByPriority.clear();
+    }
+
+
+    // Maps every column of the projection to its index in CACHED_COLUMNS, or to
+    // LIST_DESCRIPTION, or returns null if a column isn't one the cache holds
+    private static int[] resolveColumns(String[] projection) {
+        if (projection == null) {
+            return null; // every column of the table
+        }
+        int[] columns = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            columns[i] = -1;
+            if (TaskEntry.COLUMN_LIST_DESCRIPTION.equals(projection[i])) {
+                columns[i] = LIST_DESCRIPTION;
+                continue;
+            }
+            for (int j = 0; j < CACHED_COLUMNS.length; j++) {
+                if (CACHED_COLUMNS[j].equals(projection[i])) {
+                    columns[i] = j;
+                    break;
+                }
+            }
+            if (columns[i] == -1) {
+                return null;
+            }
+        }
+        return columns;
+    }
+
+
+    // The names of the projected columns in a Cursor, as SQLite would return them
+    private static String[] columnNames(String[] projection, int[] columns) {
+        String[] names = projection.clone();
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i] == LIST_DESCRIPTION) {
+                names[i] = TaskEntry.COLUMN_DESCRIPTION;
+            }
+        }
+        return names;
+    }
+
+
+    private static void addRow(MatrixCursor cursor, int[] columns, Entry entry) {
+        MatrixCursor.RowBuilder row = cursor.newRow();
+        for (int column : columns) {
+            switch (column) {
+                case 0:
+                    row.add(entry.id);
+                    break;
+                case 1:
+                    row.add(entry.description);
+                    break;
+                case LIST_DESCRIPTION:
+                    row.add(listDescription(entry.description));
+                    break;
+                default:
+                    row.add(entry.priority);
+                    break;
+            }
+        }
+    }
+
+
+    // Cuts the description like substr() does, which counts characters rather than chars
+    static String listDescription(String description) {
+        int length = TaskEntry.LIST_DESCRIPTION_LENGTH;
+        if (description.length() <= length
+                || description.codePointCount(0, description.length()) <= length) {
+            return description;
+        }
+        return description.substring(0, description.offsetByCodePoints(0, length));
+    }
+}
@@ -18,15 +18,33 @@ package com.android.julia.todolist.data;
 
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.CancellationSignal;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import com.android.julia.todolist.data.TaskContract.TaskEntry;
+import com.android.julia.todolist.metrics.Counter;
+import com.android.julia.todolist.metrics.Histogram;
+import com.android.julia.todolist.metrics.Metrics;
+import com.android.julia.todolist.metrics.StartupTimer;
+import com.android.julia.todolist.metrics.Tracer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+
 import static com.android.julia.todolist.data.TaskContract.TaskEntry.TABLE_NAME;
 
 @SuppressWarnings("ConstantConditions")
@@ -38,13 +56,57 @@ public class TaskContentProvider extends ContentProvider {
     // and related ints (101, 102, ..) for items in that directory.
     public static final int TASKS = 100;
     public static final int TASK_WITH_ID = 101;
+    public static final int TASKS_SEARCH = 102;
 
     // CDeclare a static variable for the Uri matcher that you construct
     private static final UriMatcher sUriMatcher = buildUriMatcher();
 
+    // The number of matches of a full-text query in a row. offsets() lists four numbers
+    // for every match, separated by spaces, so counting the spaces counts the matches.
+    private static final String SEARCH_RANK = "(length(offsets(" + TaskDbHelper.FTS_TABLE_NAME +
+            ")) - length(replace(offsets(" + TaskDbHelper.FTS_TABLE_NAME + "), ' ', '')) + 1) / 4";
+
+    // The tasks that sort after a (priority, _id) key, bound to priority, priority, _id.
+    // The leading priority >= ? lets SQLite seek to the key in the (priority, _id) index,
+    // where the plain OR of the two cases makes it scan the index from its start.
+    static final String KEYSET_SELECTION = TaskEntry.COLUMN_PRIORITY + " >= ? AND (" +
+            TaskEntry.COLUMN_PRIORITY + " > ? OR " + TaskEntry._ID + " > ?)";
+
+    // Latency of every operation, by uri match
+    private static final Histogram sQueryTasks = Metrics.histogram("provider.query.tasks");
+    private static final Histogram sQuerySearch = Metrics.histogram("provider.query.search");
+    private static final Histogram sQueryFiltered =
+            Metrics.histogram("provider.query.filtered");
+    private static final Histogram sQueryTaskWithId =
+            Metrics.histogram("provider.query.task_with_id");
+    private static final Histogram sInsertTasks = Metrics.histogram("provider.insert.tasks");
+    private static final Histogram sBulkInsertTasks =
+            Metrics.histogram("provider.bulk_insert.tasks");
+    private static final Histogram sUpdateTasks = Metrics.histogram("provider.update.tasks");
+    private static final Histogram sUpdateTaskWithId =
+            Metrics.histogram("provider.update.task_with_id");
+    private static final Histogram sDeleteTasks = Metrics.histogram("provider.delete.tasks");
+    private static final Histogram sDeleteTaskWithId =
+            Metrics.histogram("provider.delete.task_with_id");
+    private static final Histogram sApplyBatch = Metrics.histogram("provider.apply_batch");
+    private static final Counter sRowsReturned = Metrics.counter("provider.rows_returned");
+    private static final Counter sRowsWritten = Metrics.counter("provider.rows_written");
+
     // Define a static buildUriMatcher method that associates URI's with their int match
     // Member variable for a TaskDbHelper that's initialized in the onCreate() method
     private TaskDbHelper mTaskDbHelper;
+    // In-memory copy of the tasks table that every write goes through to
+    private TaskCache mTaskCache;
+    // Compiled statements of the frequent operations, for the current database
+    private TaskStatements mStatements;
+
+    // Held from the start of a write until its changes are in the cache, so that the cache
+    // gets the commits in the order SQLite made them
+    private final Object mWriteLock = new Object();
+    // The changes of the batch that applyBatch() runs on the current thread, if any. The
+    // single-row operations it delegates to add their changes to it, and don't send their
+    // own change notifications.
+    private final ThreadLocal<TaskCache.Changes> mBatchChanges = new ThreadLocal<>();
 
 
     /*
@@ -63,6 +125,8 @@ public class TaskContentProvider extends ContentProvider {
          */
         uriMatcher.addURI(TaskContract.AUTHORITY, TaskContract.PATH_TASKS, TASKS);
         uriMatcher.addURI(TaskContract.AUTHORITY, TaskContract.PATH_TASKS + "/#", TASK_WITH_ID);
+        uriMatcher.addURI(TaskContract.AUTHORITY,
+                TaskContract.PATH_TASKS + "/" + TaskContract.PATH_SEARCH, TASKS_SEARCH);
 
         return uriMatcher;
     }
@@ -76,7 +140,11 @@ public class TaskContentProvider extends ContentProvider {
      */
     @Override
     public boolean onCreate() {
+        StartupTimer.mark(StartupTimer.PROVIDER_CREATE);
+        // The database itself is only opened by the first query or write, off the main thread
         mTaskDbHelper = TaskDbHelper.getInstance(getContext());
+        mTaskCache = TaskCache.getInstance();
+        StartupTimer.mark(StartupTimer.PROVIDER_CREATED);
         return true;
     }
 
@@ -86,7 +154,34 @@ public class TaskContentProvider extends ContentProvider {
     @Override
     public Cursor query(@NonNull Uri uri, String[] projection, String selection,
                         String[] selectionArgs, String sortOrder) {
+        return query(uri, projection, selection, selectionArgs, sortOrder, null);
+    }
+
+
+    /**
+     * Same as the query above, but a running SQLite query is aborted
+     * once the CancellationSignal is cancelled.
+     */
+    @Nullable
+    @Override
+    public Cursor query(@NonNull Uri uri, String[] projection, String selection,
+                        String[] selectionArgs, String sortOrder,
+                        CancellationSignal cancellationSignal) {
+        Tracer.beginSection("TaskContentProvider.query");
+        try {
+            return doQuery(uri, projection, selection, selectionArgs, sortOrder,
+                    cancellationSignal);
+        } finally {
+            Tracer.endSection();
+        }
+    }
+
 
+    private Cursor doQuery(Uri uri, String[] projection, String selection,
+                           String[] selectionArgs, String sortOrder,
+                           CancellationSignal cancellationSignal) {
+
+        long start = Metrics.start();
         // Get access to underlying database (read-only for query)
         final SQLiteDatabase db = mTaskDbHelper.getReadableDatabase();
 
@@ -98,14 +193,75 @@ public class TaskContentProvider extends ContentProvider {
         switch (match) {
             // Query for the tasks directory
             case TASKS:
-                retCursor =  db.query(TABLE_NAME,
+                // Filters and sort orders of TaskEntry.QueryBuilder are read from an index
+                if (TaskSelection.hasParameters(uri)) {
+                    retCursor = queryFiltered(db, uri, projection, selection, selectionArgs,
+                            cancellationSignal);
+                    retCursor.setNotificationUri(getContext().getContentResolver(), uri);
+                    countRows(retCursor);
+                    sQueryFiltered.stop(start);
+                    return retCursor;
+                }
+
+                // Narrow the query down to a single page if the caller asked for one
+                String afterPriority =
+                        uri.getQueryParameter(TaskEntry.QUERY_PARAMETER_AFTER_PRIORITY);
+                String afterId = uri.getQueryParameter(TaskEntry.QUERY_PARAMETER_AFTER_ID);
+                boolean keyset = afterPriority != null && afterId != null;
+                if (keyset) {
+                    // Keyset paging only makes sense in the order of the key
+                    sortOrder = TaskEntry.SORT_ORDER_PRIORITY;
+                }
+
+                // Queries on the whole table, in an order the cache keeps, are answered from
+                // memory. Not inside a batch, which may still be rolled back.
+                if (selection == null && isCachedOrder(sortOrder) && !db.inTransaction()) {
+                    mTaskCache.load(getStatements(db));
+                    retCursor = mTaskCache.query(projection,
+                            sortOrder != null,
+                            getIntQueryParameter(uri, TaskEntry.QUERY_PARAMETER_LIMIT, -1),
+                            getIntQueryParameter(uri, TaskEntry.QUERY_PARAMETER_OFFSET, 0),
+                            keyset ? new int[]{parseInt(afterPriority), parseInt(afterId)} : null);
+                    if (retCursor != null) {
+                        break;
+                    }
+                }
+
+                if (keyset) {
+                    selection = appendSelection(selection, KEYSET_SELECTION);
+                    selectionArgs = appendSelectionArgs(selectionArgs, new String[]{
+                            afterPriority, afterPriority, afterId});
+                }
+
+                retCursor =  db.query(false,
+                        TABLE_NAME,
                         projection,
                         selection,
                         selectionArgs,
                         null,
                         null,
-                        sortOrder);
+                        sortOrder,
+                        buildLimit(uri),
+                        cancellationSignal);
                 break;
+            // A single task, found by its _id
+            case TASK_WITH_ID:
+                retCursor = queryTask(db, ContentUris.parseId(uri), projection, selection,
+                        selectionArgs, cancellationSignal);
+                retCursor.setNotificationUri(getContext().getContentResolver(), uri);
+                countRows(retCursor);
+                sQueryTaskWithId.stop(start);
+                return retCursor;
+            // Full-text search of the task descriptions
+            case TASKS_SEARCH:
+                retCursor = search(db, uri, projection, selection, selectionArgs,
+                        cancellationSignal);
+                // Search results change with any task, not only with the search uri
+                retCursor.setNotificationUri(getContext().getContentResolver(),
+                        TaskEntry.CONTENT_URI);
+                countRows(retCursor);
+                sQuerySearch.stop(start);
+                return retCursor;
             // Default exception
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -113,12 +269,266 @@ public class TaskContentProvider extends ContentProvider {
 
         // Set a notification URI on the Cursor and return that Cursor
         retCursor.setNotificationUri(getContext().getContentResolver(), uri);
+        countRows(retCursor);
+        sQueryTasks.stop(start);
 
         // Return the desired Cursor
         return retCursor;
     }
 
 
+    /**
+     * Counts the rows of a query while metrics are enabled. A SQLite query only runs once
+     * its Cursor is first read, so counting its rows also puts its run into the timing.
+     */
+    private static void countRows(Cursor cursor) {
+        if (Metrics.isEnabled()) {
+            sRowsReturned.add(cursor.getCount());
+        }
+    }
+
+
+    /**
+     * Queries the tasks with the filter and sort parameters of the uri. The caller's selection
+     * is added to the filters, but the sort order of the uri replaces the caller's.
+     */
+    private static Cursor queryFiltered(SQLiteDatabase db, Uri uri, String[] projection,
+                                        String selection, String[] selectionArgs,
+                                        CancellationSignal cancellationSignal) {
+        if (uri.getQueryParameter(TaskEntry.QUERY_PARAMETER_AFTER_ID) != null) {
+            throw new IllegalArgumentException("Filtered tasks are paged by offset: " + uri);
+        }
+        TaskSelection taskSelection = TaskSelection.fromUri(uri);
+        return db.rawQuery(taskSelection.buildQuery(projection, selection, buildLimit(uri)),
+                taskSelection.getSelectionArgs(selectionArgs), cancellationSignal);
+    }
+
+
+    /**
+     * Queries a single task through its primary key. A task queried with all its columns
+     * is kept among the recent rows of the cache, so that opening it again doesn't read it
+     * from SQLite. A selection, or a projection with other than table columns, is left
+     * to SQLite, and so is a query inside a batch, which may still be rolled back.
+     */
+    private Cursor queryTask(SQLiteDatabase db, long id, String[] projection, String selection,
+                             String[] selectionArgs, CancellationSignal cancellationSignal) {
+        String idSelection = TaskEntry._ID + " = ?";
+        String[] idArgs = new String[]{Long.toString(id)};
+
+        if (selection == null && !db.inTransaction()) {
+            TaskCache.Row row = mTaskCache.getRow(id);
+            if (row == null) {
+                long generation = mTaskCache.getRowGeneration();
+                Cursor cursor = db.query(false, TABLE_NAME, null, idSelection, idArgs,
+                        null, null, null, null, cancellationSignal);
+                try {
+                    if (!cursor.moveToFirst()) {
+                        return new MatrixCursor(
+                                projection != null ? projection : cursor.getColumnNames(), 0);
+                    }
+                    row = readRow(cursor);
+                } finally {
+                    cursor.close();
+                }
+                mTaskCache.putRow(id, row, generation);
+            }
+
+            Cursor cursor = projectRow(row, projection);
+            if (cursor != null) {
+                return cursor;
+            }
+        }
+
+        return db.query(false, TABLE_NAME, projection, appendSelection(selection, idSelection),
+                appendSelectionArgs(selectionArgs, idArgs), null, null, null, null,
+                cancellationSignal);
+    }
+
+
+    // Copies every column of the current row of the cursor
+    private static TaskCache.Row readRow(Cursor cursor) {
+        String[] columns = cursor.getColumnNames();
+        return new TaskCache.Row(columns, readValues(cursor, columns.length));
+    }
+
+
+    // Copies the first count columns of the current row of the cursor
+    private static Object[] readValues(Cursor cursor, int count) {
+        Object[] values = new Object[count];
+        for (int i = 0; i < count; i++) {
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    values[i] = null;
+                    break;
+                case Cursor.FIELD_TYPE_INTEGER:
+                    values[i] = cursor.getLong(i);
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    values[i] = cursor.getDouble(i);
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    values[i] = cursor.getBlob(i);
+                    break;
+                default:
+                    values[i] = cursor.getString(i);
+                    break;
+            }
+        }
+        return values;
+    }
+
+
+    // Returns a Cursor over the projected columns of the row, or null if the row lacks one
+    private static Cursor projectRow(TaskCache.Row row, String[] projection) {
+        if (projection == null) {
+            MatrixCursor cursor = new MatrixCursor(row.columns, 1);
+            cursor.addRow(row.values);
+            return cursor;
+        }
+        Object[] values = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            int index = Arrays.asList(row.columns).indexOf(projection[i]);
+            if (index < 0) {
+                return null;
+            }
+            values[i] = row.values[index];
+        }
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        cursor.addRow(values);
+        return cursor;
+    }
+
+
+    /**
+     * Searches the task descriptions through the full-text index.
+     *
+     * Every word of the search text must match the start of a word of a description.
+     * Tasks where the words match more often come first, then the usual (priority, _id)
+     * order. SQLite ranks the matches and cuts the page the uri asks for, so only the
+     * rows of the page are read into the cursor.
+     */
+    private static Cursor search(SQLiteDatabase db, Uri uri, String[] projection,
+                                 String selection, String[] selectionArgs,
+                                 CancellationSignal cancellationSignal) {
+        String[] columns = projection != null ? projection : new String[]{
+                TaskEntry._ID, TaskEntry.COLUMN_DESCRIPTION, TaskEntry.COLUMN_PRIORITY};
+
+        String match = buildMatchExpression(
+                uri.getQueryParameter(TaskEntry.QUERY_PARAMETER_SEARCH));
+        if (match == null) {
+            // Nothing to search for
+            return new MatrixCursor(columns, 0);
+        }
+
+        StringBuilder sql = new StringBuilder("SELECT ");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i > 0 ? ", " : "").append(columns[i]);
+        }
+        sql.append(" FROM ").append(TABLE_NAME)
+                .append(" JOIN (SELECT docid, ").append(SEARCH_RANK).append(" AS rank FROM ")
+                .append(TaskDbHelper.FTS_TABLE_NAME).append(" WHERE ")
+                .append(TaskDbHelper.FTS_TABLE_NAME)
+                .append(" MATCH ?) AS hits ON ").append(TaskEntry._ID).append(" = hits.docid");
+        if (selection != null && !selection.isEmpty()) {
+            sql.append(" WHERE ").append(selection);
+        }
+        // With a LIMIT, SQLite's sort only keeps the rows up to the end of the page
+        sql.append(" ORDER BY hits.rank DESC, ").append(TaskEntry.SORT_ORDER_PRIORITY);
+        String limit = buildLimit(uri);
+        if (limit != null) {
+            sql.append(" LIMIT ").append(limit);
+        }
+
+        return db.rawQuery(sql.toString(),
+                appendSelectionArgs(new String[]{match}, selectionArgs), cancellationSignal);
+    }
+
+
+    /**
+     * Turns the search text into a full-text MATCH expression, where every word is a prefix
+     * query and all of them have to match. Returns null if the text has no words.
+     */
+    private static String buildMatchExpression(String text) {
+        if (text == null) {
+            return null;
+        }
+        StringBuilder match = new StringBuilder();
+        // Anything that isn't a letter or a digit separates words, just like
+        // in the full-text tokenizer, which also keeps quotes and operators out
+        for (String word : text.split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                if (match.length() > 0) {
+                    match.append(' ');
+                }
+                match.append(word.toLowerCase(Locale.ROOT)).append('*');
+            }
+        }
+        return match.length() > 0 ? match.toString() : null;
+    }
+
+
+    /**
+     * Builds the LIMIT clause for the limit and offset query parameters of the uri,
+     * or returns null if the uri doesn't ask for a page.
+     */
+    private static String buildLimit(Uri uri) {
+        int limit = getIntQueryParameter(uri, TaskEntry.QUERY_PARAMETER_LIMIT, -1);
+        if (limit < 0) {
+            return null;
+        }
+        int offset = getIntQueryParameter(uri, TaskEntry.QUERY_PARAMETER_OFFSET, 0);
+        return limit + " OFFSET " + offset;
+    }
+
+
+    // Returns true if the cache keeps the tasks in the given sort order
+    private static boolean isCachedOrder(String sortOrder) {
+        return sortOrder == null
+                || sortOrder.equals(TaskEntry.COLUMN_PRIORITY)
+                || sortOrder.equals(TaskEntry.SORT_ORDER_PRIORITY);
+    }
+
+
+    private static int getIntQueryParameter(Uri uri, String name, int defaultValue) {
+        String value = uri.getQueryParameter(name);
+        return value == null ? defaultValue : parseInt(value);
+    }
+
+
+    // Checks that a query parameter is a number before it is used in a query
+    private static int parseInt(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + value, e);
+        }
+    }
+
+
+    // Combines the caller's selection with an extra condition
+    private static String appendSelection(String selection, String condition) {
+        if (selection == null || selection.isEmpty()) {
+            return condition;
+        }
+        return "(" + selection + ") AND " + condition;
+    }
+
+
+    // Combines the caller's selection arguments with the ones of an extra condition
+    private static String[] appendSelectionArgs(String[] selectionArgs, String[] newArgs) {
+        if (selectionArgs == null) {
+            return newArgs;
+        }
+        if (newArgs == null) {
+            return selectionArgs;
+        }
+        String[] result = new String[selectionArgs.length + newArgs.length];
+        System.arraycopy(selectionArgs, 0, result, 0, selectionArgs.length);
+        System.arraycopy(newArgs, 0, result, selectionArgs.length, newArgs.length);
+        return result;
+    }
+
+
     /** getType() handles requests for the MIME type of data
      * We are working with two types of data:
      * 1) a directory and 2) a single row of data.
@@ -134,6 +544,7 @@ public class TaskContentProvider extends ContentProvider {
 
         switch (match) {
             case TASKS:
+            case TASKS_SEARCH:
                 // directory
                 return TaskContract.TaskEntry.CONTENT_TYPE;
             case TASK_WITH_ID:
@@ -149,6 +560,19 @@ public class TaskContentProvider extends ContentProvider {
     @Nullable
     @Override
     public Uri insert(@NonNull Uri uri, ContentValues values) {
+        Tracer.beginSection("TaskContentProvider.insert");
+        try {
+            synchronized (mWriteLock) {
+                return doInsert(uri, values);
+            }
+        } finally {
+            Tracer.endSection();
+        }
+    }
+
+
+    private Uri doInsert(Uri uri, ContentValues values) {
+        long start = Metrics.start();
         // Get access to the task database (to write new data to)
         final SQLiteDatabase db = mTaskDbHelper.getWritableDatabase();
 
@@ -159,8 +583,20 @@ public class TaskContentProvider extends ContentProvider {
         switch (match) {
             case TASKS:
                 // Insert new values into the database
-                // Inserting values into tasks table
-                long id = db.insert(TABLE_NAME, null, values);
+                // Inserting values into tasks table, together with its change log entry
+                long id;
+                TaskCache.Changes changes = beginChanges();
+                db.beginTransaction();
+                try {
+                    id = insertTask(db, values, isSyncAdapter(uri));
+                    if (id > 0) {
+                        changes.insert(id, values);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                commitChanges(changes);
                 if ( id > 0 ) {
                     returnUri = ContentUris.withAppendedId(TaskContract.TaskEntry.CONTENT_URI, id);
                 } else {
@@ -173,8 +609,11 @@ public class TaskContentProvider extends ContentProvider {
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
 
-        // Notify the resolver if the uri has been changed, and return the newly inserted URI
-        getContext().getContentResolver().notifyChange(uri, null);
+        // Notify the resolver of the newly inserted row (observers of the
+        // tasks directory hear about it too), and return the newly inserted URI
+        notifyChange(returnUri);
+        sRowsWritten.add(1);
+        sInsertTasks.stop(start);
 
         // Return constructed uri (this points to the newly inserted row of data)
         return returnUri;
@@ -183,32 +622,63 @@ public class TaskContentProvider extends ContentProvider {
     // Implement delete to delete a single row of data
     @Override
     public int delete(@NonNull Uri uri, String selection, String[] selectionArgs) {
+        Tracer.beginSection("TaskContentProvider.delete");
+        try {
+            synchronized (mWriteLock) {
+                return doDelete(uri, selection, selectionArgs);
+            }
+        } finally {
+            Tracer.endSection();
+        }
+    }
+
+
+    private int doDelete(Uri uri, String selection, String[] selectionArgs) {
+        long start = Metrics.start();
 
         // Get access to the database and write URI matching code to recognize a single item
         final SQLiteDatabase db = mTaskDbHelper.getWritableDatabase();
 
         int match = sUriMatcher.match(uri);
+        if (match != TASKS && match != TASK_WITH_ID) {
+            throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+        // A single item is recognized by the ID included in the URI path
+        long taskId = match == TASK_WITH_ID ? ContentUris.parseId(uri) : -1;
+        boolean fromSyncAdapter = isSyncAdapter(uri);
         // Keep track of the number of deleted tasks
-        int tasksDeleted; // starts as 0
+        int tasksDeleted = 0;
+        TaskCache.Changes changes = beginChanges();
 
-        // Write the code to delete a single row of data
-        switch (match) {
-            // Handle the single item case, recognized by the ID included in the URI path
-            case TASK_WITH_ID:
-                // Get the task ID from the URI path
-                String id = uri.getPathSegments().get(1);
-                // Use selections/selectionArgs to filter for this ID
-                tasksDeleted = db.delete(TABLE_NAME, "_id=?", new String[]{id});
-                break;
-            default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        // Every deletion is logged in the same transaction, before the task is gone
+        db.beginTransaction();
+        try {
+            TaskStatements statements = getStatements(db);
+            for (long id : selectIds(db, taskId, selection, selectionArgs)) {
+                if (fromSyncAdapter) {
+                    forgetChange(db, id);
+                } else {
+                    statements.logChange(id, true);
+                }
+                // Bind this ID into the precompiled delete statement
+                if (statements.delete(id) != 0) {
+                    changes.delete(id);
+                    tasksDeleted++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
+        commitChanges(changes);
 
         // Notify the resolver of a change and return the number of items deleted
         if (tasksDeleted != 0) {
             // A task was deleted, set notification
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
+        sRowsWritten.add(tasksDeleted);
+        (taskId == -1 ? sDeleteTasks : sDeleteTaskWithId).stop(start);
 
         // Return the number of tasks deleted
         return tasksDeleted;
@@ -219,30 +689,356 @@ public class TaskContentProvider extends ContentProvider {
     @Override
     public int update(@NonNull Uri uri, ContentValues values, String selection,
                       String[] selectionArgs) {
+        Tracer.beginSection("TaskContentProvider.update");
+        try {
+            synchronized (mWriteLock) {
+                return doUpdate(uri, values, selection, selectionArgs);
+            }
+        } finally {
+            Tracer.endSection();
+        }
+    }
+
+
+    private int doUpdate(Uri uri, ContentValues values, String selection,
+                         String[] selectionArgs) {
+
+        long start = Metrics.start();
+        final SQLiteDatabase db = mTaskDbHelper.getWritableDatabase();
 
-        // Keep track of if an update occurs
-        int tasksUpdated;
         // match code
         int match = sUriMatcher.match(uri);
+        if (match != TASKS && match != TASK_WITH_ID) {
+            throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+        long taskId = match == TASK_WITH_ID ? ContentUris.parseId(uri) : -1;
+        boolean fromSyncAdapter = isSyncAdapter(uri);
+        // Keep track of if an update occurs
+        int tasksUpdated;
+        TaskCache.Changes changes = beginChanges();
 
-        switch (match) {
-            case TASK_WITH_ID:
-                // Update a single task by getting the id
-                String id = uri.getPathSegments().get(1);
-                // Using selections
-                tasksUpdated = mTaskDbHelper.getWritableDatabase()
-                        .update(TABLE_NAME, values, "_id=" + id, null);
-                break;
-            default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        db.beginTransaction();
+        try {
+            if (taskId != -1 && selection == null && !fromSyncAdapter
+                    && TaskStatements.canBind(values)) {
+                // A full edit goes through the precompiled update statement
+                TaskStatements statements = getStatements(db);
+                tasksUpdated = statements.update(taskId, values);
+                if (tasksUpdated != 0) {
+                    statements.logChange(taskId, false);
+                    changes.update(taskId, values);
+                }
+            } else {
+                tasksUpdated = updateTasks(db, selectIds(db, taskId, selection, selectionArgs),
+                        values, fromSyncAdapter, changes);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
+        commitChanges(changes);
 
         if (tasksUpdated != 0) {
             // Set notifications if a task was updated
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
+        sRowsWritten.add(tasksUpdated);
+        (taskId == -1 ? sUpdateTasks : sUpdateTaskWithId).stop(start);
 
         // Return number of tasks updated
         return tasksUpdated;
     }
+
+
+    /**
+     * Updates the given tasks with the same values, one compiled statement for all of them.
+     * A local update increments the version of every task and logs it as changed;
+     * the sync engine sets the version itself.
+     *
+     * @return The number of tasks updated
+     */
+    private int updateTasks(SQLiteDatabase db, long[] ids, ContentValues values,
+                            boolean fromSyncAdapter, TaskCache.Changes changes) {
+        if (ids.length == 0) {
+            return 0;
+        }
+
+        StringBuilder sql = new StringBuilder("UPDATE ").append(TABLE_NAME).append(" SET ");
+        Object[] args = new Object[values.size()];
+        int count = 0;
+        for (String column : values.keySet()) {
+            if (count > 0) {
+                sql.append(", ");
+            }
+            sql.append(column).append(" = ?");
+            args[count++] = values.get(column);
+        }
+        if (!fromSyncAdapter && !values.containsKey(TaskEntry.COLUMN_VERSION)) {
+            if (count > 0) {
+                sql.append(", ");
+            }
+            sql.append(TaskEntry.COLUMN_VERSION).append(" = ")
+                    .append(TaskEntry.COLUMN_VERSION).append(" + 1");
+        } else if (count == 0) {
+            return 0;
+        }
+        sql.append(" WHERE ").append(TaskEntry._ID).append(" = ?");
+
+        TaskStatements statements = getStatements(db);
+        int tasksUpdated = 0;
+        SQLiteStatement update = db.compileStatement(sql.toString());
+        try {
+            for (long id : ids) {
+                for (int i = 0; i < count; i++) {
+                    DatabaseUtils.bindObjectToProgram(update, i + 1, args[i]);
+                }
+                update.bindLong(count + 1, id);
+                if (update.executeUpdateDelete() != 0) {
+                    if (fromSyncAdapter) {
+                        forgetChange(db, id);
+                    } else {
+                        statements.logChange(id, false);
+                    }
+                    changes.update(id, values);
+                    tasksUpdated++;
+                }
+            }
+        } finally {
+            update.close();
+        }
+        return tasksUpdated;
+    }
+
+
+    /**
+     * Drops the logged local change of a task that the sync engine has just written.
+     * The server already has the newer task, so the change it replaced isn't sent.
+     */
+    private static void forgetChange(SQLiteDatabase db, long id) {
+        db.delete(TaskDbHelper.CHANGES_TABLE_NAME, TaskDbHelper.CHANGES_COLUMN_TASK_ID + " = ?",
+                new String[]{Long.toString(id)});
+    }
+
+
+    /**
+     * Returns the ids of the tasks that match the selection, or of the single task
+     * if taskId isn't -1 (and it matches the selection).
+     */
+    private static long[] selectIds(SQLiteDatabase db, long taskId, String selection,
+                                    String[] selectionArgs) {
+        if (taskId != -1) {
+            if (selection == null) {
+                // The statements find out whether the task exists
+                return new long[]{taskId};
+            }
+            selection = appendSelection(selection, TaskEntry._ID + " = ?");
+            selectionArgs = appendSelectionArgs(selectionArgs,
+                    new String[]{Long.toString(taskId)});
+        }
+
+        Cursor cursor = db.query(TABLE_NAME, new String[]{TaskEntry._ID},
+                selection, selectionArgs, null, null, null);
+        try {
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+
+    // Returns true if the uri marks a write of the sync engine
+    private static boolean isSyncAdapter(Uri uri) {
+        return Boolean.parseBoolean(
+                uri.getQueryParameter(TaskEntry.QUERY_PARAMETER_CALLER_IS_SYNC_ADAPTER));
+    }
+
+
+    /**
+     * Inserts all the given rows into the tasks directory inside a single transaction,
+     * so the whole import costs one commit and one change notification
+     * instead of one of each per row.
+     *
+     * @return The number of rows inserted
+     */
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        Tracer.beginSection("TaskContentProvider.bulkInsert");
+        try {
+            synchronized (mWriteLock) {
+                return doBulkInsert(uri, values);
+            }
+        } finally {
+            Tracer.endSection();
+        }
+    }
+
+
+    private int doBulkInsert(Uri uri, ContentValues[] values) {
+        if (sUriMatcher.match(uri) != TASKS) {
+            throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+
+        long start = Metrics.start();
+        final SQLiteDatabase db = mTaskDbHelper.getWritableDatabase();
+        boolean fromSyncAdapter = isSyncAdapter(uri);
+        int tasksInserted = 0;
+        TaskCache.Changes changes = beginChanges();
+
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                long id = insertTask(db, value, fromSyncAdapter);
+                if (id > 0) {
+                    changes.insert(id, value);
+                    tasksInserted++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        commitChanges(changes);
+
+        if (tasksInserted != 0) {
+            notifyChange(uri);
+        }
+        sRowsWritten.add(tasksInserted);
+        sBulkInsertTasks.stop(start);
+        return tasksInserted;
+    }
+
+
+    /**
+     * Applies all the operations inside a single transaction. Either every operation
+     * is committed or none of them is, and observers of the tasks directory
+     * are notified once for the whole batch.
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(
+            @NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        Tracer.beginSection("TaskContentProvider.applyBatch");
+        try {
+            synchronized (mWriteLock) {
+                return doApplyBatch(operations);
+            }
+        } finally {
+            Tracer.endSection();
+        }
+    }
+
+
+    private ContentProviderResult[] doApplyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+
+        long start = Metrics.start();
+        final SQLiteDatabase db = mTaskDbHelper.getWritableDatabase();
+        ContentProviderResult[] results;
+        TaskCache.Changes changes = new TaskCache.Changes();
+
+        mBatchChanges.set(changes);
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mBatchChanges.remove();
+        }
+        mTaskCache.commit(changes);
+
+        if (!operations.isEmpty()) {
+            mTaskCache.forgetRows();
+            getContext().getContentResolver()
+                    .notifyChange(TaskContract.TaskEntry.CONTENT_URI, null);
+        }
+        // The operations themselves are counted by the single-row methods
+        sApplyBatch.stop(start);
+        return results;
+    }
+
+
+    /**
+     * Inserts a task through the precompiled insert statement if the values fit it,
+     * or through the generic insert otherwise. A local task gets a new sync id and
+     * is logged as changed; a task of the sync engine brings its sync id and version along.
+     *
+     * @return The id of the new task, or -1 if it couldn't be inserted
+     */
+    private long insertTask(SQLiteDatabase db, ContentValues values, boolean fromSyncAdapter) {
+        if (fromSyncAdapter) {
+            return db.insert(TABLE_NAME, null, values);
+        }
+
+        TaskStatements statements = getStatements(db);
+        String syncId = TaskEntry.newSyncId();
+        long id;
+        if (TaskStatements.canBind(values)) {
+            id = statements.insert(values, syncId);
+        } else {
+            ContentValues withSyncId = new ContentValues(values);
+            withSyncId.put(TaskEntry.COLUMN_SYNC_ID, syncId);
+            id = db.insert(TABLE_NAME, null, withSyncId);
+        }
+        if (id > 0) {
+            statements.logChange(id, false);
+        }
+        return id;
+    }
+
+
+    /**
+     * Returns the compiled statements for the given database, compiling them
+     * the first time, or again if the database was reopened.
+     */
+    private synchronized TaskStatements getStatements(SQLiteDatabase db) {
+        if (mStatements == null || mStatements.getDatabase() != db) {
+            if (mStatements != null) {
+                mStatements.close();
+            }
+            mStatements = new TaskStatements(db);
+        }
+        return mStatements;
+    }
+
+
+    /**
+     * Returns the changes to write through to the cache: those of the batch running on this
+     * thread, or new ones.
+     */
+    private TaskCache.Changes beginChanges() {
+        TaskCache.Changes changes = mBatchChanges.get();
+        return changes != null ? changes : new TaskCache.Changes();
+    }
+
+
+    /**
+     * Writes committed changes through to the cache, unless they belong to a batch, which
+     * writes them once it is committed as a whole. Not called after a rollback, which leaves
+     * the tasks, and so the cache, as they were.
+     */
+    private void commitChanges(TaskCache.Changes changes) {
+        if (changes != mBatchChanges.get()) {
+            mTaskCache.commit(changes);
+        }
+    }
+
+
+    /**
+     * Notifies observers of the given uri, unless the change is part of a batch
+     * that will send a single notification once it is committed.
+     */
+    private void notifyChange(Uri uri) {
+        if (mBatchChanges.get() != null) {
+            return;
+        }
+        // The recently queried tasks may be outdated by the committed change
+        mTaskCache.forgetRows();
+        getContext().getContentResolver().notifyChange(uri, null);
+    }
 }
@@ -21,6 +21,10 @@ import android.content.ContentResolver;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
 
 public class TaskContract {
 
@@ -29,6 +33,8 @@ public class TaskContract {
     // Define the possible paths for accessing data in this contract
     // This is the path for the "tasks" directory
     static final String PATH_TASKS = "tasks";
+    // This is the path for searching the tasks directory
+    static final String PATH_SEARCH = "search";
     // The base content URI = "content://" + <authority>
     private static final Uri BASE_CONTENT_URI = Uri.parse("content://" + AUTHORITY);
 
@@ -39,6 +45,11 @@ public class TaskContract {
         public static final Uri CONTENT_URI =
                 BASE_CONTENT_URI.buildUpon().appendPath(PATH_TASKS).build();
 
+        // Search content URI = content URI + search path; takes the search text
+        // in the QUERY_PARAMETER_SEARCH query parameter
+        public static final Uri CONTENT_SEARCH_URI =
+                CONTENT_URI.buildUpon().appendPath(PATH_SEARCH).build();
+
 
         // Task table and column names
         public static final String TABLE_NAME = "tasks";
@@ -47,6 +58,203 @@ public class TaskContract {
         // "_ID" column in addition to the two below
         public static final String COLUMN_DESCRIPTION = "description";
         public static final String COLUMN_PRIORITY = "priority";
+        // Incremented on every local change, the higher version wins a sync conflict
+        public static final String COLUMN_VERSION = "version";
+        // Identifies the task across devices, as the _id of a task differs between them
+        public static final String COLUMN_SYNC_ID = "sync_id";
+
+        // Sort order used by the task list; it is backed by the (priority, _id) index
+        public static final String SORT_ORDER_PRIORITY = COLUMN_PRIORITY + ", " + _ID;
+
+        // The task list only shows the start of a description, at most this many characters
+        public static final int LIST_DESCRIPTION_LENGTH = 100;
+        // The start of the description, returned under the name of the description column
+        public static final String COLUMN_LIST_DESCRIPTION = "substr(" + COLUMN_DESCRIPTION +
+                ", 1, " + LIST_DESCRIPTION_LENGTH + ") AS " + COLUMN_DESCRIPTION;
+
+        // Projection of the task list. It leaves out every column the list doesn't show and
+        // most of a long description, so that a CursorWindow holds more rows; the full task
+        // is queried on its own when it is opened.
+        public static final String[] LIST_PROJECTION = {
+                _ID,
+                COLUMN_PRIORITY,
+                COLUMN_LIST_DESCRIPTION
+        };
+
+
+        /*
+         Query parameters accepted on CONTENT_URI for fetching the tasks a page at a time.
+         A page is either addressed by offset, or (cheaper for deep pages) by the
+         (priority, _id) key of the last task of the previous page.
+         */
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+        public static final String QUERY_PARAMETER_OFFSET = "offset";
+        public static final String QUERY_PARAMETER_AFTER_PRIORITY = "after_priority";
+        public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+
+        // Query parameter with the text to search task descriptions for
+        public static final String QUERY_PARAMETER_SEARCH = "q";
+
+        /*
+         Filter and sort parameters accepted on CONTENT_URI, best written with QueryBuilder.
+         The priority and sort parameters can be repeated.
+         */
+        public static final String QUERY_PARAMETER_PRIORITY = "priority";
+        public static final String QUERY_PARAMETER_MIN_ID = "min_id";
+        public static final String QUERY_PARAMETER_MAX_ID = "max_id";
+        public static final String QUERY_PARAMETER_PREFIX = "prefix";
+        public static final String QUERY_PARAMETER_SORT = "sort";
+        public static final String QUERY_PARAMETER_DESCENDING = "desc";
+
+        // Query parameter that marks a write as coming from the sync engine. Such writes
+        // set the version themselves and aren't logged as changes to send to the server.
+        public static final String QUERY_PARAMETER_CALLER_IS_SYNC_ADAPTER = "caller_is_syncadapter";
+
+
+        /**
+         * Returns the given uri marked as written by the sync engine.
+         */
+        public static Uri asSyncAdapter(Uri uri) {
+            return uri.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_CALLER_IS_SYNC_ADAPTER, "true")
+                    .build();
+        }
+
+
+        /**
+         * Builds a uri that searches the task descriptions for the given text.
+         * Every word of the text must match the start of a word in the description,
+         * and the best matches come first.
+         */
+        public static Uri buildSearchUri(String text) {
+            return CONTENT_SEARCH_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SEARCH, text)
+                    .build();
+        }
+
+
+        /**
+         * Builds a uri for a page of at most limit tasks, starting at the given offset
+         * in priority order.
+         */
+        public static Uri buildPageUri(int limit, int offset) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, Integer.toString(limit))
+                    .appendQueryParameter(QUERY_PARAMETER_OFFSET, Integer.toString(offset))
+                    .build();
+        }
+
+
+        /**
+         * Builds a uri for a page of at most limit tasks that sort after the task
+         * with the given priority and id.
+         */
+        public static Uri buildPageUri(int limit, int afterPriority, int afterId) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, Integer.toString(limit))
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_PRIORITY,
+                            Integer.toString(afterPriority))
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_ID, Integer.toString(afterId))
+                    .build();
+        }
+
+
+        /**
+         * Returns a new sync id: a random UUID, in its canonical lowercase form.
+         */
+        public static String newSyncId() {
+            return UUID.randomUUID().toString();
+        }
+
+
+        /**
+         * Builds a uri that filters and sorts the tasks in the provider, where the query
+         * can be answered from an index:
+         *
+         *     Uri uri = new TaskEntry.QueryBuilder()
+         *             .priorities(1, 2)
+         *             .descriptionPrefix("Buy")
+         *             .orderBy(TaskEntry.COLUMN_PRIORITY)
+         *             .orderBy(TaskEntry.COLUMN_DESCRIPTION)
+         *             .build();
+         *
+         * All the filters must match. The sort keys must start one of the sort orders
+         * (priority, _id), (priority, description, _id), (description, priority, _id)
+         * or (_id), which is then sorted by in full, in a single direction.
+         * Without any sort key the tasks are sorted by priority.
+         */
+        public static final class QueryBuilder {
+
+            private final List<String> mSortKeys = new ArrayList<>();
+            private final Uri.Builder mBuilder = CONTENT_URI.buildUpon();
+
+            /**
+             * Only keeps the tasks with one of the given priorities.
+             */
+            public QueryBuilder priorities(int... priorities) {
+                if (priorities.length == 0) {
+                    throw new IllegalArgumentException("No priorities");
+                }
+                for (int priority : priorities) {
+                    mBuilder.appendQueryParameter(QUERY_PARAMETER_PRIORITY,
+                            Integer.toString(priority));
+                }
+                return this;
+            }
+
+            /**
+             * Only keeps the tasks with an _id from minId to maxId, both included.
+             */
+            public QueryBuilder idRange(long minId, long maxId) {
+                mBuilder.appendQueryParameter(QUERY_PARAMETER_MIN_ID, Long.toString(minId))
+                        .appendQueryParameter(QUERY_PARAMETER_MAX_ID, Long.toString(maxId));
+                return this;
+            }
+
+            /**
+             * Only keeps the tasks whose description starts with prefix, case-sensitively.
+             */
+            public QueryBuilder descriptionPrefix(String prefix) {
+                mBuilder.appendQueryParameter(QUERY_PARAMETER_PREFIX, prefix);
+                return this;
+            }
+
+            /**
+             * Adds a sort key, one of COLUMN_PRIORITY, COLUMN_DESCRIPTION and _ID.
+             */
+            public QueryBuilder orderBy(String column) {
+                mSortKeys.add(column);
+                mBuilder.appendQueryParameter(QUERY_PARAMETER_SORT, column);
+                return this;
+            }
+
+            /**
+             * Sorts by every key in descending order.
+             */
+            public QueryBuilder descending() {
+                mBuilder.appendQueryParameter(QUERY_PARAMETER_DESCENDING, "true");
+                return this;
+            }
+
+            /**
+             * Only returns a page of at most limit tasks, starting at the given offset.
+             */
+            public QueryBuilder page(int limit, int offset) {
+                mBuilder.appendQueryParameter(QUERY_PARAMETER_LIMIT, Integer.toString(limit))
+                        .appendQueryParameter(QUERY_PARAMETER_OFFSET, Integer.toString(offset));
+                return this;
+            }
+
+            /**
+             * @throws IllegalArgumentException if the sort keys aren't a supported sort order
+             */
+            public Uri build() {
+                if (!mSortKeys.isEmpty()) {
+                    TaskSelection.findSortOrder(mSortKeys);
+                }
+                return mBuilder.build();
+            }
+        }
 
 
         /*
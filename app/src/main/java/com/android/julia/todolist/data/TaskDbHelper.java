@@ -18,26 +18,85 @@ package com.android.julia.todolist.data;
 
 
 import android.content.Context;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import com.android.julia.todolist.BuildConfig;
 
 
 public class TaskDbHelper extends SQLiteOpenHelper {
 
+    private static final String TAG = TaskDbHelper.class.getSimpleName();
+
     // The name of the database
     private static final String DATABASE_NAME = "tasksDb.db";
 
     // If you change the database schema, you must increment the database version
-    private static final int VERSION = 1;
+    // and add a step for it to TaskMigrations
+    // Version 2: added the (priority, _id) index
+    // Version 3: added the full-text search table
+    // Version 4: added the version and sync_id columns, the change log and the sync state
+    // Version 5: added the (priority, description) and (description, priority) indexes
+    private static final int VERSION = 5;
+
+    // Index that lets the priority ordered task list be read without sorting
+    static final String INDEX_PRIORITY = "tasks_priority_id_index";
+
+    // Indexes for the other sort orders of TaskSelection. Together with the _id that every
+    // index holds, they cover the columns of the task list.
+    static final String INDEX_PRIORITY_DESCRIPTION = "tasks_priority_description_index";
+    static final String INDEX_DESCRIPTION = "tasks_description_priority_index";
+
+    // Full-text index of the task descriptions. It stores no text of its own, its rows
+    // point at the tasks table by docid = _id and are kept in sync by triggers.
+    static final String FTS_TABLE_NAME = "tasks_fts";
+
+    // Unique index that finds a task by its sync_id
+    static final String INDEX_SYNC_ID = "tasks_sync_id_index";
+
+    // Log of the local changes that haven't been sent to the sync server yet. The sequence
+    // number only grows, and a task has at most one entry, the one of its latest change.
+    static final String CHANGES_TABLE_NAME = "task_changes";
+    static final String CHANGES_COLUMN_SEQUENCE = "seq";
+    static final String CHANGES_COLUMN_TASK_ID = "task_id";
+    // For deleted tasks, which can't be looked up in the tasks table anymore
+    static final String CHANGES_COLUMN_SYNC_ID = "sync_id";
+    static final String CHANGES_COLUMN_VERSION = "version";
+    static final String CHANGES_COLUMN_DELETED = "deleted";
+
+    // Key-value table with the progress of the sync
+    static final String SYNC_STATE_TABLE_NAME = "sync_state";
+
+    /*
+     The synchronous pragma of the database connections. With write-ahead logging NORMAL
+     only syncs at checkpoints, and can only lose the last commits on a power failure, never
+     corrupt the database. FULL also syncs on every commit, OFF never syncs. Release builds
+     use NORMAL, a debug build can be made with another: -PsqliteSynchronous=FULL
+     */
+    private static final String SYNCHRONOUS_MODE = BuildConfig.SQLITE_SYNCHRONOUS;
 
     private static TaskDbHelper sInstance;
+    private static TaskMigrations.Listener sMigrationListener;
+
+    // The journal mode reported by the database when it was opened
+    private volatile String mJournalMode;
 
     /**
      * Constructor should be private to prevent direct instantiation.
      * Make a call to the static method "getInstance()" instead.
      */
     private TaskDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    private TaskDbHelper(Context context, String name) {
+        super(context, name, null, VERSION);
+        // Readers use their own connections from the pool and don't wait for a writer
+        // to commit, and a writer doesn't wait for the readers either
+        setWriteAheadLoggingEnabled(true);
     }
 
     public static synchronized TaskDbHelper getInstance(Context context) {
@@ -50,6 +109,66 @@ public class TaskDbHelper extends SQLiteOpenHelper {
         return sInstance;
     }
 
+    /**
+     * Returns a helper of its own for the database with the given name.
+     * Only for tests and benchmarks of the schema.
+     */
+    @VisibleForTesting
+    public static TaskDbHelper newInstanceForTesting(Context context, String name) {
+        return new TaskDbHelper(context.getApplicationContext(), name);
+    }
+
+    /**
+     * Sets a listener that is told how long every step of a database upgrade takes.
+     */
+    @VisibleForTesting
+    public static synchronized void setMigrationListener(TaskMigrations.Listener listener) {
+        sMigrationListener = listener;
+    }
+
+    /**
+     * Closes and forgets the shared instance, so that the next getInstance() opens the
+     * database of a new Context. Only for JVM tests, where every test has its own Context.
+     */
+    @VisibleForTesting
+    public static synchronized void resetInstance() {
+        if (sInstance != null) {
+            sInstance.close();
+            sInstance = null;
+        }
+        TaskCache.getInstance().invalidate();
+    }
+
+    /*
+     * Called when the database is opened, before it is created or upgraded.
+     * This configures the primary connection, which is the one all the writes go through.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        db.execSQL("PRAGMA synchronous = " + SYNCHRONOUS_MODE);
+    }
+
+    /*
+     * Checks that the database actually runs in write-ahead logging mode.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        mJournalMode = DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode", null);
+        if ("wal".equalsIgnoreCase(mJournalMode)) {
+            Log.i(TAG, "Database opened, journal_mode=" + mJournalMode +
+                    ", synchronous=" + SYNCHRONOUS_MODE);
+        } else {
+            Log.w(TAG, "Write-ahead logging is not active, journal_mode=" + mJournalMode);
+        }
+    }
+
+    /**
+     * Returns the journal mode of the open database, or null if it hasn't been opened yet.
+     */
+    public String getJournalMode() {
+        return mJournalMode;
+    }
+
     /*
      * These is where we need to write create table statements.
      */
@@ -59,23 +178,100 @@ public class TaskDbHelper extends SQLiteOpenHelper {
         final String CREATE_TABLE = "CREATE TABLE " + TaskContract.TaskEntry.TABLE_NAME + "(" +
                 TaskContract.TaskEntry._ID                + " INTEGER PRIMARY KEY, " +
                 TaskContract.TaskEntry.COLUMN_DESCRIPTION + " TEXT NOT NULL, " +
-                TaskContract.TaskEntry.COLUMN_PRIORITY    + " INTEGER NOT NULL);";
+                TaskContract.TaskEntry.COLUMN_PRIORITY    + " INTEGER NOT NULL, " +
+                TaskContract.TaskEntry.COLUMN_VERSION     + " INTEGER NOT NULL DEFAULT 1, " +
+                TaskContract.TaskEntry.COLUMN_SYNC_ID     + " TEXT);";
 
         db.execSQL(CREATE_TABLE);
+        createPriorityIndex(db);
+        createSearchTable(db);
+        createSyncTables(db);
+        createSortIndexes(db);
     }
 
     /**
-     * This method discards the old table of data and calls onCreate to recreate a new one.
+     * This method brings an existing database up to date through the steps of TaskMigrations,
+     * one version at a time, so that the tasks already stored are kept.
      * This only occurs when the version number for this database (DATABASE_VERSION) is incremented.
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion,
                           int newVersion) {
-        // SQL for upgrading the tables
-        if (oldVersion != newVersion) {
-            db.execSQL("DROP TABLE IF EXISTS " + TaskContract.TaskEntry.TABLE_NAME);
-            onCreate(db);
+        TaskMigrations.Listener listener;
+        synchronized (TaskDbHelper.class) {
+            listener = sMigrationListener;
         }
+        TaskMigrations.migrate(db, oldVersion, newVersion, listener);
+    }
+
+    static void createSearchTable(SQLiteDatabase db) {
+        final String description = TaskContract.TaskEntry.COLUMN_DESCRIPTION;
+        final String id = TaskContract.TaskEntry._ID;
+
+        db.execSQL("CREATE VIRTUAL TABLE " + FTS_TABLE_NAME + " USING fts4(" +
+                "content=\"" + TaskContract.TaskEntry.TABLE_NAME + "\", " + description + ");");
+
+        // An external content table must be told about the old text before it changes,
+        // and about the new text after it changed
+        createSearchUpdateTriggers(db);
+        db.execSQL("CREATE TRIGGER " + FTS_TABLE_NAME + "_before_delete BEFORE DELETE ON " +
+                TaskContract.TaskEntry.TABLE_NAME + " BEGIN " +
+                "DELETE FROM " + FTS_TABLE_NAME + " WHERE docid = old." + id + "; END;");
+        db.execSQL("CREATE TRIGGER " + FTS_TABLE_NAME + "_after_insert AFTER INSERT ON " +
+                TaskContract.TaskEntry.TABLE_NAME + " BEGIN " +
+                "INSERT INTO " + FTS_TABLE_NAME + "(docid, " + description + ") " +
+                "VALUES(new." + id + ", new." + description + "); END;");
+    }
+
+    /*
+     * The update triggers only fire when the description changes, so that changing
+     * the other columns doesn't index the text again.
+     */
+    static void createSearchUpdateTriggers(SQLiteDatabase db) {
+        final String description = TaskContract.TaskEntry.COLUMN_DESCRIPTION;
+        final String id = TaskContract.TaskEntry._ID;
+
+        db.execSQL("DROP TRIGGER IF EXISTS " + FTS_TABLE_NAME + "_before_update;");
+        db.execSQL("DROP TRIGGER IF EXISTS " + FTS_TABLE_NAME + "_after_update;");
+        db.execSQL("CREATE TRIGGER " + FTS_TABLE_NAME + "_before_update BEFORE UPDATE OF " +
+                description + " ON " + TaskContract.TaskEntry.TABLE_NAME + " BEGIN " +
+                "DELETE FROM " + FTS_TABLE_NAME + " WHERE docid = old." + id + "; END;");
+        db.execSQL("CREATE TRIGGER " + FTS_TABLE_NAME + "_after_update AFTER UPDATE OF " +
+                description + " ON " + TaskContract.TaskEntry.TABLE_NAME + " BEGIN " +
+                "INSERT INTO " + FTS_TABLE_NAME + "(docid, " + description + ") " +
+                "VALUES(new." + id + ", new." + description + "); END;");
+    }
+
+    static void createSyncTables(SQLiteDatabase db) {
+        db.execSQL("CREATE UNIQUE INDEX " + INDEX_SYNC_ID + " ON " +
+                TaskContract.TaskEntry.TABLE_NAME + "(" +
+                TaskContract.TaskEntry.COLUMN_SYNC_ID + ");");
+        db.execSQL("CREATE TABLE " + CHANGES_TABLE_NAME + "(" +
+                CHANGES_COLUMN_SEQUENCE + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                CHANGES_COLUMN_TASK_ID  + " INTEGER NOT NULL UNIQUE, " +
+                CHANGES_COLUMN_SYNC_ID  + " TEXT, " +
+                CHANGES_COLUMN_VERSION  + " INTEGER, " +
+                CHANGES_COLUMN_DELETED  + " INTEGER NOT NULL DEFAULT 0);");
+        db.execSQL("CREATE TABLE " + SYNC_STATE_TABLE_NAME + "(" +
+                "key TEXT PRIMARY KEY, value INTEGER NOT NULL);");
+    }
+
+    static void createPriorityIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_PRIORITY + " ON " +
+                TaskContract.TaskEntry.TABLE_NAME + "(" +
+                TaskContract.TaskEntry.COLUMN_PRIORITY + ", " +
+                TaskContract.TaskEntry._ID + ");");
+    }
+
+    static void createSortIndexes(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX " + INDEX_PRIORITY_DESCRIPTION + " ON " +
+                TaskContract.TaskEntry.TABLE_NAME + "(" +
+                TaskContract.TaskEntry.COLUMN_PRIORITY + ", " +
+                TaskContract.TaskEntry.COLUMN_DESCRIPTION + ");");
+        db.execSQL("CREATE INDEX " + INDEX_DESCRIPTION + " ON " +
+                TaskContract.TaskEntry.TABLE_NAME + "(" +
+                TaskContract.TaskEntry.COLUMN_DESCRIPTION + ", " +
+                TaskContract.TaskEntry.COLUMN_PRIORITY + ");");
     }
 
 }
\ No newline at end of file
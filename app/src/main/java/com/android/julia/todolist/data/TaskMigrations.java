@@ -0,0 +1,166 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.data;
+
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.android.julia.todolist.data.TaskContract.TaskEntry;
+
+
+/**
+ * TaskMigrations brings a tasks database of an older version up to date, one version at a
+ * time, so that the tasks already stored are kept.
+ *
+ * Every schema change is a Step that upgrades the database from the version before it to its
+ * own version. To change the schema, add a Step at the end of STEPS and increment
+ * TaskDbHelper's version to match; onCreate() has to create the same schema directly.
+ */
+public final class TaskMigrations {
+
+    private static final String TAG = TaskMigrations.class.getSimpleName();
+
+
+    /**
+     * Is told how long every step of a migration took.
+     */
+    public interface Listener {
+        void onStepMigrated(int version, String description, long nanos);
+    }
+
+
+    // Upgrades the database from version - 1 to version
+    abstract static class Step {
+        final int version;
+        final String description;
+
+        Step(int version, String description) {
+            this.version = version;
+            this.description = description;
+        }
+
+        abstract void migrate(SQLiteDatabase db);
+    }
+
+
+    // All the steps, in version order
+    static final Step[] STEPS = {
+            new Step(2, "priority index") {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    TaskDbHelper.createPriorityIndex(db);
+                }
+            },
+            new Step(3, "full-text search table") {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    TaskDbHelper.createSearchTable(db);
+                    // Index the tasks that already exist
+                    db.execSQL("INSERT INTO " + TaskDbHelper.FTS_TABLE_NAME + "(" +
+                            TaskDbHelper.FTS_TABLE_NAME + ") VALUES('rebuild');");
+                }
+            },
+            new Step(4, "sync columns and change log") {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + TaskEntry.TABLE_NAME + " ADD COLUMN " +
+                            TaskEntry.COLUMN_VERSION + " INTEGER NOT NULL DEFAULT 1;");
+                    db.execSQL("ALTER TABLE " + TaskEntry.TABLE_NAME + " ADD COLUMN " +
+                            TaskEntry.COLUMN_SYNC_ID + " TEXT;");
+                    // Before the sync ids are filled in, so that doesn't reindex the text
+                    TaskDbHelper.createSearchUpdateTriggers(db);
+                    fillSyncIds(db);
+                    TaskDbHelper.createSyncTables(db);
+                    // The existing tasks are sent to the server by the first sync
+                    db.execSQL("INSERT INTO " + TaskDbHelper.CHANGES_TABLE_NAME + "(" +
+                            TaskDbHelper.CHANGES_COLUMN_TASK_ID + ") SELECT " + TaskEntry._ID +
+                            " FROM " + TaskEntry.TABLE_NAME + " ORDER BY " + TaskEntry._ID + ";");
+                }
+            },
+            new Step(5, "sort indexes") {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    TaskDbHelper.createSortIndexes(db);
+                }
+            },
+    };
+
+
+    private TaskMigrations() {
+    }
+
+
+    // Gives every task a sync id of the same form as the one a new task gets
+    private static void fillSyncIds(SQLiteDatabase db) {
+        SQLiteStatement update = db.compileStatement("UPDATE " + TaskEntry.TABLE_NAME +
+                " SET " + TaskEntry.COLUMN_SYNC_ID + " = ? WHERE " + TaskEntry._ID + " = ?");
+        Cursor cursor = db.query(TaskEntry.TABLE_NAME, new String[]{TaskEntry._ID},
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                update.bindString(1, TaskEntry.newSyncId());
+                update.bindLong(2, cursor.getLong(0));
+                update.executeUpdateDelete();
+            }
+        } finally {
+            cursor.close();
+            update.close();
+        }
+    }
+
+
+    /**
+     * Runs the steps from oldVersion up to newVersion in order, each in a transaction
+     * of its own. SQLiteOpenHelper runs the whole upgrade in an outer transaction, so a
+     * step that fails leaves the database at oldVersion rather than half upgraded.
+     */
+    static void migrate(SQLiteDatabase db, int oldVersion, int newVersion, Listener listener) {
+        int version = oldVersion;
+        for (Step step : STEPS) {
+            if (step.version <= oldVersion || step.version > newVersion) {
+                continue;
+            }
+            if (step.version != version + 1) {
+                throw new IllegalStateException("No migration to version " + (version + 1));
+            }
+
+            long start = System.nanoTime();
+            db.beginTransaction();
+            try {
+                step.migrate(db);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            long nanos = System.nanoTime() - start;
+
+            Log.i(TAG, "Migrated to version " + step.version + " (" + step.description +
+                    ") in " + nanos / 1000000 + " ms");
+            if (listener != null) {
+                listener.onStepMigrated(step.version, step.description, nanos);
+            }
+            version = step.version;
+        }
+
+        if (version != newVersion) {
+            throw new IllegalStateException("No migration to version " + newVersion);
+        }
+    }
+}
@@ -0,0 +1,378 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.data;
+
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.VisibleForTesting;
+import android.text.TextUtils;
+
+import com.android.julia.todolist.metrics.Tracer;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+
+
+/**
+ * TaskQueries creates the LiveQueries of the task list, which deliver the tasks as a
+ * TaskSnapshot and query them again whenever the provider reports a change to the tasks
+ * directory or to any single task in it.
+ *
+ * When only single tasks changed, the list of all tasks isn't queried again: the changed
+ * tasks are queried one by one through their tasks/# uri and patched into the previous
+ * snapshot. Search results are always queried again, as a change can move any of them.
+ */
+public final class TaskQueries {
+
+    // A burst of changes is waited out for this long before the tasks are queried again
+    static final long DEBOUNCE_MS = 100;
+    static final long MAX_DELAY_MS = 500;
+    // Above this many changed tasks the whole list is queried again, rather than each task
+    static final int MAX_PATCHED_TASKS = 32;
+
+    private static Scheduler sWorker;
+    private static Scheduler sMain;
+    // Shared by everybody who displays the whole task list
+    private static LiveQuery<TaskSnapshot> sAllTasks;
+
+
+    private TaskQueries() {
+    }
+
+
+    /**
+     * Returns the query of all tasks, sorted by priority.
+     */
+    public static synchronized LiveQuery<TaskSnapshot> allTasks(Context context) {
+        if (sAllTasks == null) {
+            sAllTasks = create(context, TaskContract.TaskEntry.CONTENT_URI);
+        }
+        return sAllTasks;
+    }
+
+
+    /**
+     * Returns a query of the tasks that match the search text, best match first,
+     * or the query of all tasks if the text is empty.
+     */
+    public static synchronized LiveQuery<TaskSnapshot> search(Context context,
+                                                             String searchText) {
+        if (TextUtils.isEmpty(searchText)) {
+            return allTasks(context);
+        }
+        return create(context, TaskContract.TaskEntry.buildSearchUri(searchText));
+    }
+
+
+    /**
+     * Queries every column of a single task in the background, for when the task list's
+     * shortened description isn't enough. The task, or null if there is no task with that
+     * id, is delivered to the observer on the main thread.
+     *
+     * The provider keeps the last few tasks queried this way, so loading a task again
+     * right after is cheap.
+     */
+    public static synchronized void loadTask(Context context, final long id,
+                                             final LiveQuery.Observer<ContentValues> observer) {
+        createSchedulers();
+        final ContentResolver resolver = context.getApplicationContext().getContentResolver();
+        sWorker.schedule(new Runnable() {
+            @Override
+            public void run() {
+                ContentValues task = null;
+                Exception error = null;
+                try {
+                    Cursor cursor = resolver.query(ContentUris.withAppendedId(
+                            TaskContract.TaskEntry.CONTENT_URI, id), null, null, null, null);
+                    if (cursor == null) {
+                        throw new IllegalStateException("Failed to query task " + id);
+                    }
+                    try {
+                        if (cursor.moveToFirst()) {
+                            task = new ContentValues();
+                            DatabaseUtils.cursorRowToContentValues(cursor, task);
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+                } catch (Exception e) {
+                    error = e;
+                }
+                deliver(observer, task, error);
+            }
+        }, 0);
+    }
+
+
+    /**
+     * Finds out in the background whether there are more than count tasks, without loading
+     * them. The answer is delivered to the observer on the main thread.
+     */
+    public static synchronized void hasMoreTasksThan(Context context, final int count,
+                                                     final LiveQuery.Observer<Boolean> observer) {
+        createSchedulers();
+        final ContentResolver resolver = context.getApplicationContext().getContentResolver();
+        sWorker.schedule(new Runnable() {
+            @Override
+            public void run() {
+                Boolean moreTasks = null;
+                Exception error = null;
+                try {
+                    // The task that comes after the first count tasks, if there is one
+                    Cursor cursor = resolver.query(
+                            TaskContract.TaskEntry.buildPageUri(1, count),
+                            new String[]{TaskContract.TaskEntry._ID}, null, null,
+                            TaskContract.TaskEntry.SORT_ORDER_PRIORITY);
+                    if (cursor == null) {
+                        throw new IllegalStateException("Failed to count the tasks");
+                    }
+                    try {
+                        moreTasks = cursor.getCount() > 0;
+                    } finally {
+                        cursor.close();
+                    }
+                } catch (Exception e) {
+                    error = e;
+                }
+                deliver(observer, moreTasks, error);
+            }
+        }, 0);
+    }
+
+
+    private static <T> void deliver(final LiveQuery.Observer<T> observer, final T result,
+                                    final Exception error) {
+        sMain.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (error != null) {
+                    observer.onError(error);
+                } else {
+                    observer.onResult(result);
+                }
+            }
+        }, 0);
+    }
+
+
+    private static void createSchedulers() {
+        if (sWorker == null) {
+            // One query at a time; a stale one is cancelled rather than waited for
+            sWorker = new ExecutorScheduler(Executors.newSingleThreadScheduledExecutor());
+            sMain = new HandlerScheduler(new Handler(Looper.getMainLooper()));
+        }
+    }
+
+
+    private static LiveQuery<TaskSnapshot> create(Context context, Uri uri) {
+        createSchedulers();
+        return create(context.getApplicationContext().getContentResolver(), uri,
+                sWorker, sMain);
+    }
+
+
+    @VisibleForTesting
+    static LiveQuery<TaskSnapshot> create(ContentResolver resolver, Uri uri, Scheduler worker,
+                                          Scheduler main) {
+        return new LiveQuery<>(new TaskSource(resolver, uri), worker, main,
+                DEBOUNCE_MS, MAX_DELAY_MS);
+    }
+
+
+    /**
+     * Queries the tasks at a uri of the provider into a TaskSnapshot, or patches the tasks
+     * that changed into the previous one if the uri is the list of all tasks.
+     */
+    private static final class TaskSource implements LiveQuery.Source<TaskSnapshot> {
+        private final ContentResolver mResolver;
+        private final Uri mUri;
+        private final boolean mPatchable;
+        private ContentObserver mObserver;
+
+        // Guarded by this: the ids of the single tasks that changed since the last query,
+        // whether anything else changed, and the snapshot the last query returned
+        private final Set<Long> mChangedIds = new HashSet<>();
+        private boolean mReloadAll = true;
+        private TaskSnapshot mLast;
+
+        TaskSource(ContentResolver resolver, Uri uri) {
+            mResolver = resolver;
+            mUri = uri;
+            mPatchable = uri.equals(TaskContract.TaskEntry.CONTENT_URI);
+        }
+
+        @Override
+        public TaskSnapshot query(QuerySignal signal) {
+            // Cancelling the signal aborts the SQLite query that is running
+            final CancellationSignal cancellationSignal = new CancellationSignal();
+            signal.setOnCancelListener(new Runnable() {
+                @Override
+                public void run() {
+                    cancellationSignal.cancel();
+                }
+            });
+
+            TaskSnapshot previous;
+            Long[] changedIds;
+            synchronized (this) {
+                previous = mReloadAll ? null : mLast;
+                changedIds = mChangedIds.toArray(new Long[mChangedIds.size()]);
+                mChangedIds.clear();
+                mReloadAll = false;
+                // If this query fails, the next one can't start from the previous snapshot
+                mLast = null;
+            }
+
+            TaskSnapshot snapshot;
+            if (previous != null) {
+                Tracer.beginSection("TaskQueries.patch");
+                try {
+                    snapshot = previous;
+                    for (Long id : changedIds) {
+                        snapshot = patch(snapshot, id, cancellationSignal);
+                    }
+                } finally {
+                    Tracer.endSection();
+                }
+            } else {
+                Tracer.beginSection("TaskQueries.load");
+                try {
+                    snapshot = load(mUri, cancellationSignal);
+                } finally {
+                    Tracer.endSection();
+                }
+            }
+
+            synchronized (this) {
+                if (mPatchable) {
+                    mLast = snapshot;
+                }
+            }
+            return snapshot;
+        }
+
+        // Queries the tasks at the uri
+        private TaskSnapshot load(Uri uri, CancellationSignal cancellationSignal) {
+            Cursor cursor = mResolver.query(uri, TaskContract.TaskEntry.LIST_PROJECTION,
+                    null, null, TaskContract.TaskEntry.SORT_ORDER_PRIORITY, cancellationSignal);
+            if (cursor == null) {
+                throw new IllegalStateException("Failed to query " + uri);
+            }
+            try {
+                // The empty result of a deleted task doesn't name its columns
+                return cursor.getCount() == 0
+                        ? TaskSnapshot.EMPTY : TaskSnapshot.fromCursor(cursor);
+            } finally {
+                cursor.close();
+            }
+        }
+
+        // Replaces the task with the given id in the sorted snapshot by its current row,
+        // or removes it if it was deleted
+        private TaskSnapshot patch(TaskSnapshot snapshot, long id,
+                                   CancellationSignal cancellationSignal) {
+            int position = snapshot.indexOf((int) id);
+            if (position >= 0) {
+                snapshot = snapshot.without(position);
+            }
+            TaskSnapshot row = load(ContentUris.withAppendedId(
+                    TaskContract.TaskEntry.CONTENT_URI, id), cancellationSignal);
+            if (row.getCount() == 0) {
+                return snapshot;
+            }
+
+            // The first task that sorts after it, in (priority, _id) order
+            int priority = row.getPriority(0);
+            int insertAt = 0;
+            while (insertAt < snapshot.getCount()
+                    && (snapshot.getPriority(insertAt) < priority
+                    || (snapshot.getPriority(insertAt) == priority
+                    && snapshot.getId(insertAt) < id))) {
+                insertAt++;
+            }
+            return snapshot.with(insertAt, row, 0);
+        }
+
+        @Override
+        public synchronized void observe(final Runnable onChange) {
+            // Changes went unnoticed while the source wasn't observed
+            mReloadAll = true;
+            // Search results change with the tasks too, so CONTENT_URI is watched for both
+            mObserver = new ContentObserver(null) {
+                @Override
+                public void onChange(boolean selfChange) {
+                    onChange(selfChange, null);
+                }
+
+                @Override
+                public void onChange(boolean selfChange, Uri uri) {
+                    onTasksChanged(uri);
+                    onChange.run();
+                }
+            };
+            mResolver.registerContentObserver(
+                    TaskContract.TaskEntry.CONTENT_URI, true, mObserver);
+        }
+
+        // Remembers which task changed, if the uri is the one of a single task
+        private synchronized void onTasksChanged(Uri uri) {
+            long id = getTaskId(uri);
+            if (id >= 0 && mChangedIds.size() < MAX_PATCHED_TASKS) {
+                mChangedIds.add(id);
+            } else {
+                mReloadAll = true;
+            }
+        }
+
+        @Override
+        public synchronized void stopObserving(Runnable onChange) {
+            if (mObserver != null) {
+                mResolver.unregisterContentObserver(mObserver);
+                mObserver = null;
+            }
+        }
+    }
+
+
+    // Returns the id of a tasks/# uri, or -1 for any other uri
+    private static long getTaskId(Uri uri) {
+        if (uri == null) {
+            return -1;
+        }
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() != 2 || !TaskContract.PATH_TASKS.equals(segments.get(0))) {
+            return -1;
+        }
+        try {
+            return Math.max(-1, Long.parseLong(segments.get(1)));
+        } catch (NumberFormatException e) {
+            return -1; // tasks/search
+        }
+    }
+}
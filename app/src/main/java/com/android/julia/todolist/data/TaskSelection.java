@@ -0,0 +1,245 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.data;
+
+
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.net.Uri;
+
+import com.android.julia.todolist.data.TaskContract.TaskEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * TaskSelection turns the filter and sort parameters of a tasks uri, as written by
+ * TaskEntry.QueryBuilder, into a parameterized SQLite query.
+ *
+ * Only the sort orders in SORT_ORDERS are accepted, and each of them is read from an index
+ * that already lists the tasks in that order, named in the query with INDEXED BY. So the
+ * filters narrow down or skip entries of the index, but the rows never have to be sorted
+ * in a temporary B-tree. The (priority, description) and (description, priority) indexes
+ * also hold the _id, so the columns of the task list are read from the index alone.
+ */
+final class TaskSelection {
+
+    // The sort orders that can be asked for, with _id last so that the order is total.
+    // All the keys go in the same direction, as SQLite can only walk an index either way.
+    static final String[][] SORT_ORDERS = {
+            {TaskEntry.COLUMN_PRIORITY, TaskEntry._ID},
+            {TaskEntry.COLUMN_PRIORITY, TaskEntry.COLUMN_DESCRIPTION, TaskEntry._ID},
+            {TaskEntry.COLUMN_DESCRIPTION, TaskEntry.COLUMN_PRIORITY, TaskEntry._ID},
+            {TaskEntry._ID},
+    };
+
+    // The index that lists the tasks in each of the SORT_ORDERS; null is the table itself
+    private static final String[] SORT_INDEXES = {
+            TaskDbHelper.INDEX_PRIORITY,
+            TaskDbHelper.INDEX_PRIORITY_DESCRIPTION,
+            TaskDbHelper.INDEX_DESCRIPTION,
+            null,
+    };
+
+    private final String mSelection;
+    private final String[] mSelectionArgs;
+    private final int mSortOrder;
+    private final boolean mDescending;
+
+
+    private TaskSelection(String selection, String[] selectionArgs, int sortOrder,
+                          boolean descending) {
+        mSelection = selection;
+        mSelectionArgs = selectionArgs;
+        mSortOrder = sortOrder;
+        mDescending = descending;
+    }
+
+
+    /**
+     * Returns true if the uri has any filter or sort parameters.
+     */
+    static boolean hasParameters(Uri uri) {
+        return uri.getQueryParameter(TaskEntry.QUERY_PARAMETER_PRIORITY) != null
+                || uri.getQueryParameter(TaskEntry.QUERY_PARAMETER_MIN_ID) != null
+                || uri.getQueryParameter(TaskEntry.QUERY_PARAMETER_MAX_ID) != null
+                || uri.getQueryParameter(TaskEntry.QUERY_PARAMETER_PREFIX) != null
+                || uri.getQueryParameter(TaskEntry.QUERY_PARAMETER_SORT) != null
+                || uri.getQueryParameter(TaskEntry.QUERY_PARAMETER_DESCENDING) != null;
+    }
+
+
+    /**
+     * Reads the filter and sort parameters of the uri. Without a sort parameter,
+     * the tasks are sorted by priority.
+     *
+     * @throws IllegalArgumentException if a parameter isn't valid
+     */
+    static TaskSelection fromUri(Uri uri) {
+        StringBuilder selection = new StringBuilder();
+        List<String> args = new ArrayList<>();
+
+        List<String> priorities = uri.getQueryParameters(TaskEntry.QUERY_PARAMETER_PRIORITY);
+        if (!priorities.isEmpty()) {
+            selection.append(TaskEntry.COLUMN_PRIORITY).append(" IN (");
+            for (int i = 0; i < priorities.size(); i++) {
+                selection.append(i == 0 ? "?" : ", ?");
+                args.add(Long.toString(parseLong(priorities.get(i))));
+            }
+            selection.append(')');
+        }
+
+        String minId = uri.getQueryParameter(TaskEntry.QUERY_PARAMETER_MIN_ID);
+        if (minId != null) {
+            appendCondition(selection, TaskEntry._ID + " >= ?");
+            args.add(Long.toString(parseLong(minId)));
+        }
+        String maxId = uri.getQueryParameter(TaskEntry.QUERY_PARAMETER_MAX_ID);
+        if (maxId != null) {
+            appendCondition(selection, TaskEntry._ID + " <= ?");
+            args.add(Long.toString(parseLong(maxId)));
+        }
+
+        // A range rather than LIKE, which can't use an index of a case-sensitive column
+        String prefix = uri.getQueryParameter(TaskEntry.QUERY_PARAMETER_PREFIX);
+        if (prefix != null && !prefix.isEmpty()) {
+            appendCondition(selection, TaskEntry.COLUMN_DESCRIPTION + " >= ?");
+            args.add(prefix);
+            String end = prefixEnd(prefix);
+            if (end != null) {
+                appendCondition(selection, TaskEntry.COLUMN_DESCRIPTION + " < ?");
+                args.add(end);
+            }
+        }
+
+        List<String> sortKeys = uri.getQueryParameters(TaskEntry.QUERY_PARAMETER_SORT);
+        int sortOrder = sortKeys.isEmpty() ? 0 : findSortOrder(sortKeys);
+        boolean descending = Boolean.parseBoolean(
+                uri.getQueryParameter(TaskEntry.QUERY_PARAMETER_DESCENDING));
+
+        return new TaskSelection(selection.length() == 0 ? null : selection.toString(),
+                args.toArray(new String[args.size()]), sortOrder, descending);
+    }
+
+
+    /**
+     * Returns the index in SORT_ORDERS of the first sort order that starts with the given
+     * keys, in the same order.
+     *
+     * @throws IllegalArgumentException if there is no such sort order
+     */
+    static int findSortOrder(List<String> keys) {
+        for (int i = 0; i < SORT_ORDERS.length; i++) {
+            String[] order = SORT_ORDERS[i];
+            if (keys.size() <= order.length
+                    && keys.equals(Arrays.asList(order).subList(0, keys.size()))) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported sort order: " + keys);
+    }
+
+
+    /**
+     * Builds the query, with the caller's own selection added to the filters.
+     */
+    String buildQuery(String[] projection, String selection, String limit) {
+        String table = TaskEntry.TABLE_NAME;
+        String index = SORT_INDEXES[mSortOrder];
+        // Without an index, the table itself is in _id order
+        table += index != null ? " INDEXED BY " + index : " NOT INDEXED";
+
+        String where = mSelection;
+        if (selection != null && !selection.isEmpty()) {
+            where = where == null ? selection : mSelection + " AND (" + selection + ")";
+        }
+        return SQLiteQueryBuilder.buildQueryString(false, table, projection, where,
+                null, null, buildOrderBy(), limit);
+    }
+
+
+    /**
+     * Returns the arguments of the filters followed by the caller's selection arguments.
+     */
+    String[] getSelectionArgs(String[] selectionArgs) {
+        if (selectionArgs == null || selectionArgs.length == 0) {
+            return mSelectionArgs;
+        }
+        String[] result = new String[mSelectionArgs.length + selectionArgs.length];
+        System.arraycopy(mSelectionArgs, 0, result, 0, mSelectionArgs.length);
+        System.arraycopy(selectionArgs, 0, result, mSelectionArgs.length, selectionArgs.length);
+        return result;
+    }
+
+
+    String buildOrderBy() {
+        StringBuilder orderBy = new StringBuilder();
+        for (String key : SORT_ORDERS[mSortOrder]) {
+            if (orderBy.length() > 0) {
+                orderBy.append(", ");
+            }
+            orderBy.append(key).append(mDescending ? " DESC" : "");
+        }
+        return orderBy.toString();
+    }
+
+
+    private static void appendCondition(StringBuilder selection, String condition) {
+        if (selection.length() > 0) {
+            selection.append(" AND ");
+        }
+        selection.append(condition);
+    }
+
+
+    /**
+     * Returns the smallest string that is greater than every string starting with prefix,
+     * or null if there is none, when prefix is made of the highest code point only.
+     *
+     * SQLite compares text by its UTF-8 bytes, which sort like the code points, so it is
+     * the last code point that is incremented, not the last UTF-16 char. Surrogates aren't
+     * code points of their own, so the increment skips over them.
+     */
+    static String prefixEnd(String prefix) {
+        int end = prefix.length();
+        while (end > 0) {
+            int codePoint = prefix.codePointBefore(end);
+            int start = end - Character.charCount(codePoint);
+            if (codePoint < Character.MAX_CODE_POINT) {
+                int next = codePoint + 1;
+                if (next >= Character.MIN_SURROGATE && next <= Character.MAX_SURROGATE) {
+                    next = Character.MAX_SURROGATE + 1;
+                }
+                return new StringBuilder(start + 2).append(prefix, 0, start)
+                        .appendCodePoint(next).toString();
+            }
+            end = start;
+        }
+        return null;
+    }
+
+
+    // Checks that a query parameter is a number before it is used in a query
+    private static long parseLong(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + value, e);
+        }
+    }
+}
@@ -0,0 +1,346 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.data;
+
+
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+
+import java.util.Arrays;
+
+
+/**
+ * TaskSnapshot is an immutable, columnar copy of a list of tasks.
+ *
+ * Ids and priorities are kept in int arrays, and all descriptions share a single char
+ * pool, so a snapshot takes a handful of objects however many tasks it holds,
+ * and reading a task from it allocates nothing.
+ * Snapshots are built on a background thread and read on the main thread.
+ *
+ * Taking tasks out of a snapshot doesn't copy it: the new snapshot shares the rows of the
+ * old one, and only keeps the sorted list of the rows it hides. That list stays short,
+ * as the tasks taken out are gone from the next snapshot that is loaded.
+ */
+public final class TaskSnapshot {
+
+    public static final TaskSnapshot EMPTY = new Builder(0).build();
+
+    // Chars the description pool of a Builder starts with, when it doesn't know better
+    private static final int INITIAL_POOL_SIZE = 256;
+    private static final int[] NO_ROWS = new int[0];
+
+    // The number of tasks, which leaves out the hidden rows
+    private final int mCount;
+    private final int[] mIds;
+    private final int[] mPriorities;
+    // The description of row i is mPool[mOffsets[i]] up to mPool[mOffsets[i + 1]]
+    private final char[] mPool;
+    private final int[] mOffsets;
+    // The rows that aren't in the snapshot, in ascending order
+    private final int[] mHiddenRows;
+
+
+    private TaskSnapshot(int count, int[] ids, int[] priorities, char[] pool, int[] offsets,
+                         int[] hiddenRows) {
+        mCount = count;
+        mIds = ids;
+        mPriorities = priorities;
+        mPool = pool;
+        mOffsets = offsets;
+        mHiddenRows = hiddenRows;
+    }
+
+
+    /**
+     * Copies all the rows of the cursor, which must have the _id, description and priority
+     * columns. The cursor is left open.
+     */
+    public static TaskSnapshot fromCursor(Cursor cursor) {
+        int idIndex = cursor.getColumnIndexOrThrow(TaskContract.TaskEntry._ID);
+        int descriptionIndex =
+                cursor.getColumnIndexOrThrow(TaskContract.TaskEntry.COLUMN_DESCRIPTION);
+        int priorityIndex = cursor.getColumnIndexOrThrow(TaskContract.TaskEntry.COLUMN_PRIORITY);
+
+        Builder builder = new Builder(cursor.getCount());
+        CharArrayBuffer buffer = new CharArrayBuffer(64);
+        for (int i = 0; cursor.moveToPosition(i); i++) {
+            cursor.copyStringToBuffer(descriptionIndex, buffer);
+            builder.add(cursor.getInt(idIndex), buffer.data, 0, buffer.sizeCopied,
+                    cursor.getInt(priorityIndex));
+        }
+        return builder.build();
+    }
+
+
+    public int getCount() {
+        return mCount;
+    }
+
+
+    public int getId(int position) {
+        return mIds[toRow(position)];
+    }
+
+
+    public int getPriority(int position) {
+        return mPriorities[toRow(position)];
+    }
+
+
+    /**
+     * Returns the pool that holds the characters of all descriptions. Together with
+     * getDescriptionStart() and getDescriptionLength() it lets a description be displayed
+     * without creating a String. It must not be modified.
+     */
+    public char[] getDescriptionPool() {
+        return mPool;
+    }
+
+
+    public int getDescriptionStart(int position) {
+        return mOffsets[toRow(position)];
+    }
+
+
+    public int getDescriptionLength(int position) {
+        return rowLength(toRow(position));
+    }
+
+
+    /**
+     * Returns the description of a task as a new String.
+     */
+    public String getDescription(int position) {
+        int row = toRow(position);
+        return new String(mPool, mOffsets[row], rowLength(row));
+    }
+
+
+    /**
+     * Returns true if the task at position has the same description as the task at
+     * otherPosition in the other snapshot.
+     */
+    public boolean descriptionEquals(int position, TaskSnapshot other, int otherPosition) {
+        int row = toRow(position);
+        int otherRow = other.toRow(otherPosition);
+        int length = rowLength(row);
+        if (length != other.rowLength(otherRow)) {
+            return false;
+        }
+        int start = mOffsets[row];
+        int otherStart = other.mOffsets[otherRow];
+        for (int i = 0; i < length; i++) {
+            if (mPool[start + i] != other.mPool[otherStart + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Returns the position of the task with the given id, or -1 if it isn't in the snapshot.
+     */
+    public int indexOf(int id) {
+        int rows = mIds.length;
+        for (int row = 0, hidden = 0; row < rows; row++) {
+            if (hidden < mHiddenRows.length && mHiddenRows[hidden] == row) {
+                hidden++;
+            } else if (mIds[row] == id) {
+                return row - hidden;
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * Returns the snapshot without the task at position. It shares the rows of this one.
+     */
+    public TaskSnapshot without(int position) {
+        int row = toRow(position);
+        int at = -Arrays.binarySearch(mHiddenRows, row) - 1;
+        int[] hiddenRows = new int[mHiddenRows.length + 1];
+        System.arraycopy(mHiddenRows, 0, hiddenRows, 0, at);
+        hiddenRows[at] = row;
+        System.arraycopy(mHiddenRows, at, hiddenRows, at + 1, mHiddenRows.length - at);
+        return new TaskSnapshot(mCount - 1, mIds, mPriorities, mPool, mOffsets, hiddenRows);
+    }
+
+
+    /**
+     * Returns the snapshot without the tasks whose ids are in the sorted array ids.
+     * It shares the rows of this one.
+     */
+    public TaskSnapshot withoutIds(int[] ids) {
+        int rows = mIds.length;
+        int[] hiddenRows = null;
+        int hiddenCount = 0;
+        for (int row = 0, hidden = 0; row < rows; row++) {
+            boolean wasHidden = hidden < mHiddenRows.length && mHiddenRows[hidden] == row;
+            if (wasHidden) {
+                hidden++;
+            }
+            if (wasHidden || Arrays.binarySearch(ids, mIds[row]) >= 0) {
+                if (hiddenRows == null) {
+                    hiddenRows = new int[mHiddenRows.length + Math.min(ids.length, rows)];
+                }
+                hiddenRows[hiddenCount++] = row;
+            }
+        }
+        if (hiddenCount == mHiddenRows.length) {
+            return this; // none of the tasks is in the snapshot
+        }
+        return new TaskSnapshot(rows - hiddenCount, mIds, mPriorities, mPool, mOffsets,
+                Arrays.copyOf(hiddenRows, hiddenCount));
+    }
+
+
+    /**
+     * Returns a copy of the snapshot with the task at sourcePosition of source
+     * inserted at position.
+     */
+    public TaskSnapshot with(int position, TaskSnapshot source, int sourcePosition) {
+        Builder builder = new Builder(mCount + 1, mPool.length
+                + source.getDescriptionLength(sourcePosition));
+        for (int i = 0; i < position; i++) {
+            builder.add(this, i);
+        }
+        builder.add(source, sourcePosition);
+        for (int i = position; i < mCount; i++) {
+            builder.add(this, i);
+        }
+        return builder.build();
+    }
+
+
+    /**
+     * Returns a snapshot of the single task at position.
+     */
+    public TaskSnapshot slice(int position) {
+        return new Builder(1, getDescriptionLength(position)).add(this, position).build();
+    }
+
+
+    /**
+     * Returns the approximate number of bytes of memory the snapshot takes.
+     */
+    public long getSizeInBytes() {
+        // Array headers are about 16 bytes, chars take 2 bytes and ints 4
+        return 5 * 16 + 2L * mPool.length + 4L * (mIds.length + mPriorities.length
+                + mOffsets.length + mHiddenRows.length);
+    }
+
+
+    // Returns the row of the task at position. Every hidden row at or before the row
+    // moves it one further: the i-th hidden row has hiddenRows[i] - i tasks before it,
+    // so the rows to skip are those where that is at most position.
+    private int toRow(int position) {
+        int low = 0;
+        int high = mHiddenRows.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mHiddenRows[middle] - middle <= position) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return position + low;
+    }
+
+
+    private int rowLength(int row) {
+        return mOffsets[row + 1] - mOffsets[row];
+    }
+
+
+    /**
+     * Builds a snapshot a task at a time.
+     */
+    public static final class Builder {
+        private int mCount;
+        private int[] mIds;
+        private int[] mPriorities;
+        private int[] mOffsets;
+        private char[] mPool;
+
+        /**
+         * Creates a builder for about expectedCount tasks, whose description pool grows
+         * with the descriptions added.
+         */
+        public Builder(int expectedCount) {
+            this(expectedCount, INITIAL_POOL_SIZE);
+        }
+
+        /**
+         * Creates a builder for about expectedCount tasks, whose descriptions have about
+         * expectedChars chars together.
+         */
+        public Builder(int expectedCount, int expectedChars) {
+            int capacity = Math.max(expectedCount, 1);
+            mIds = new int[capacity];
+            mPriorities = new int[capacity];
+            mOffsets = new int[capacity + 1];
+            mPool = new char[Math.max(expectedChars, 1)];
+        }
+
+        public Builder add(int id, char[] description, int start, int length, int priority) {
+            if (mCount == mIds.length) {
+                int capacity = mCount * 2;
+                mIds = Arrays.copyOf(mIds, capacity);
+                mPriorities = Arrays.copyOf(mPriorities, capacity);
+                mOffsets = Arrays.copyOf(mOffsets, capacity + 1);
+            }
+            int offset = mOffsets[mCount];
+            if (offset + length > mPool.length) {
+                mPool = Arrays.copyOf(mPool, Math.max(mPool.length * 2, offset + length));
+            }
+            System.arraycopy(description, start, mPool, offset, length);
+
+            mIds[mCount] = id;
+            mPriorities[mCount] = priority;
+            mOffsets[mCount + 1] = offset + length;
+            mCount++;
+            return this;
+        }
+
+        public Builder add(int id, String description, int priority) {
+            char[] chars = description.toCharArray();
+            return add(id, chars, 0, chars.length, priority);
+        }
+
+        /**
+         * Adds the task at position of another snapshot.
+         */
+        public Builder add(TaskSnapshot snapshot, int position) {
+            int row = snapshot.toRow(position);
+            return add(snapshot.mIds[row], snapshot.mPool, snapshot.mOffsets[row],
+                    snapshot.rowLength(row), snapshot.mPriorities[row]);
+        }
+
+        public TaskSnapshot build() {
+            // Trim the arrays, the snapshot may be kept for a long time
+            return new TaskSnapshot(mCount,
+                    Arrays.copyOf(mIds, mCount),
+                    Arrays.copyOf(mPriorities, mCount),
+                    Arrays.copyOf(mPool, mOffsets[mCount]),
+                    Arrays.copyOf(mOffsets, mCount + 1),
+                    NO_ROWS);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.data;
+
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.android.julia.todolist.data.TaskContract.TaskEntry;
+
+
+/**
+ * TaskStatements holds the compiled statements of the provider's most frequent operations
+ * on one SQLiteDatabase, so that their SQL is parsed once and only the arguments are
+ * bound on every call.
+ *
+ * A SQLiteStatement isn't thread safe, so each statement is used under its own lock.
+ */
+class TaskStatements {
+
+    private final SQLiteDatabase mDatabase;
+
+    private final SQLiteStatement mInsert;
+    private final SQLiteStatement mUpdate;
+    private final SQLiteStatement mDelete;
+    private final SQLiteStatement mCount;
+    private final SQLiteStatement mLogChange;
+
+
+    TaskStatements(SQLiteDatabase db) {
+        mDatabase = db;
+        mInsert = db.compileStatement("INSERT INTO " + TaskEntry.TABLE_NAME + " (" +
+                TaskEntry.COLUMN_DESCRIPTION + ", " + TaskEntry.COLUMN_PRIORITY + ", " +
+                TaskEntry.COLUMN_SYNC_ID + ") VALUES (?, ?, ?)");
+        mUpdate = db.compileStatement("UPDATE " + TaskEntry.TABLE_NAME + " SET " +
+                TaskEntry.COLUMN_DESCRIPTION + " = ?, " + TaskEntry.COLUMN_PRIORITY + " = ?, " +
+                TaskEntry.COLUMN_VERSION + " = " + TaskEntry.COLUMN_VERSION + " + 1 " +
+                "WHERE " + TaskEntry._ID + " = ?");
+        mDelete = db.compileStatement("DELETE FROM " + TaskEntry.TABLE_NAME +
+                " WHERE " + TaskEntry._ID + " = ?");
+        mCount = db.compileStatement("SELECT COUNT(*) FROM " + TaskEntry.TABLE_NAME);
+        // Replacing the entry of the task moves it to the end of the log
+        mLogChange = db.compileStatement("INSERT OR REPLACE INTO " +
+                TaskDbHelper.CHANGES_TABLE_NAME + " (" +
+                TaskDbHelper.CHANGES_COLUMN_TASK_ID + ", " +
+                TaskDbHelper.CHANGES_COLUMN_SYNC_ID + ", " +
+                TaskDbHelper.CHANGES_COLUMN_VERSION + ", " +
+                TaskDbHelper.CHANGES_COLUMN_DELETED + ") SELECT " +
+                TaskEntry._ID + ", " + TaskEntry.COLUMN_SYNC_ID + ", " +
+                TaskEntry.COLUMN_VERSION + " + ?, ? FROM " + TaskEntry.TABLE_NAME +
+                " WHERE " + TaskEntry._ID + " = ?");
+    }
+
+
+    /**
+     * Returns the database the statements were compiled for.
+     */
+    SQLiteDatabase getDatabase() {
+        return mDatabase;
+    }
+
+
+    /**
+     * Returns true if values hold exactly a description and a priority, which is
+     * what the insert and update statements bind.
+     */
+    static boolean canBind(ContentValues values) {
+        return values != null
+                && values.size() == 2
+                && values.getAsString(TaskEntry.COLUMN_DESCRIPTION) != null
+                && values.getAsInteger(TaskEntry.COLUMN_PRIORITY) != null;
+    }
+
+
+    /**
+     * Inserts a task with the given sync id and returns its id. The values must pass canBind().
+     */
+    long insert(ContentValues values, String syncId) {
+        synchronized (mInsert) {
+            mInsert.bindString(1, values.getAsString(TaskEntry.COLUMN_DESCRIPTION));
+            mInsert.bindLong(2, values.getAsInteger(TaskEntry.COLUMN_PRIORITY));
+            mInsert.bindString(3, syncId);
+            return mInsert.executeInsert();
+        }
+    }
+
+
+    /**
+     * Updates the description and priority of a task, increments its version and returns
+     * the number of rows changed. The values must pass canBind().
+     */
+    int update(long id, ContentValues values) {
+        synchronized (mUpdate) {
+            mUpdate.bindString(1, values.getAsString(TaskEntry.COLUMN_DESCRIPTION));
+            mUpdate.bindLong(2, values.getAsInteger(TaskEntry.COLUMN_PRIORITY));
+            mUpdate.bindLong(3, id);
+            return mUpdate.executeUpdateDelete();
+        }
+    }
+
+
+    /**
+     * Deletes a task and returns the number of rows deleted.
+     */
+    int delete(long id) {
+        synchronized (mDelete) {
+            mDelete.bindLong(1, id);
+            return mDelete.executeUpdateDelete();
+        }
+    }
+
+
+    /**
+     * Logs a change of a task for the sync engine to send. For a deletion this has to be
+     * called before the task is deleted, and logs the task's next version.
+     */
+    void logChange(long id, boolean deleted) {
+        synchronized (mLogChange) {
+            mLogChange.bindLong(1, deleted ? 1 : 0);
+            mLogChange.bindLong(2, deleted ? 1 : 0);
+            mLogChange.bindLong(3, id);
+            mLogChange.executeInsert();
+        }
+    }
+
+
+    /**
+     * Returns the number of tasks.
+     */
+    long count() {
+        synchronized (mCount) {
+            return mCount.simpleQueryForLong();
+        }
+    }
+
+
+    void close() {
+        mInsert.close();
+        mUpdate.close();
+        mDelete.close();
+        mCount.close();
+        mLogChange.close();
+    }
+}
@@ -0,0 +1,201 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.data;
+
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.android.julia.todolist.data.TaskContract.TaskEntry;
+import com.android.julia.todolist.sync.SyncRecord;
+import com.android.julia.todolist.sync.SyncStore;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * TaskSyncStore is the SyncStore of the tasks database. The change log that
+ * TaskContentProvider writes is read straight from the database, while the records of the
+ * server are written through the provider as the sync adapter, so that the cache and the
+ * task list stay up to date and the writes aren't logged as local changes.
+ */
+public class TaskSyncStore implements SyncStore {
+
+    private static final String KEY_SERVER_CURSOR = "server_cursor";
+
+    // The change log joined with the current state of the changed tasks
+    private static final String QUERY_CHANGES = "SELECT " +
+            "c." + TaskDbHelper.CHANGES_COLUMN_SEQUENCE + ", " +
+            "c." + TaskDbHelper.CHANGES_COLUMN_DELETED + ", " +
+            "c." + TaskDbHelper.CHANGES_COLUMN_SYNC_ID + ", " +
+            "c." + TaskDbHelper.CHANGES_COLUMN_VERSION + ", " +
+            "t." + TaskEntry.COLUMN_SYNC_ID + ", " +
+            "t." + TaskEntry.COLUMN_VERSION + ", " +
+            "t." + TaskEntry.COLUMN_DESCRIPTION + ", " +
+            "t." + TaskEntry.COLUMN_PRIORITY +
+            " FROM " + TaskDbHelper.CHANGES_TABLE_NAME + " AS c LEFT JOIN " +
+            TaskEntry.TABLE_NAME + " AS t ON t." + TaskEntry._ID + " = c." +
+            TaskDbHelper.CHANGES_COLUMN_TASK_ID +
+            " ORDER BY c." + TaskDbHelper.CHANGES_COLUMN_SEQUENCE + " LIMIT ";
+
+    private final ContentResolver mResolver;
+    private final TaskDbHelper mDbHelper;
+
+
+    public TaskSyncStore(Context context) {
+        mResolver = context.getApplicationContext().getContentResolver();
+        mDbHelper = TaskDbHelper.getInstance(context);
+    }
+
+
+    @Override
+    public Changes getChanges(int limit) {
+        // Acknowledged changes are deleted, so the log starts at the first one to send
+        Cursor cursor = mDbHelper.getReadableDatabase().rawQuery(QUERY_CHANGES + limit, null);
+        try {
+            if (cursor.getCount() == 0) {
+                return null;
+            }
+            List<SyncRecord> records = new ArrayList<>(cursor.getCount());
+            long lastSequence = 0;
+            while (cursor.moveToNext()) {
+                lastSequence = cursor.getLong(0);
+                if (cursor.getInt(1) != 0) {
+                    records.add(SyncRecord.tombstone(cursor.getString(2), cursor.getLong(3)));
+                } else if (!cursor.isNull(4)) {
+                    records.add(new SyncRecord(cursor.getString(4), cursor.getLong(5),
+                            cursor.getString(6), cursor.getInt(7)));
+                }
+            }
+            return new Changes(records, lastSequence);
+        } finally {
+            cursor.close();
+        }
+    }
+
+
+    @Override
+    public void acknowledge(long sequence) {
+        // A task changed again since has a new entry with a higher sequence number
+        mDbHelper.getWritableDatabase().delete(TaskDbHelper.CHANGES_TABLE_NAME,
+                TaskDbHelper.CHANGES_COLUMN_SEQUENCE + " <= ?",
+                new String[]{Long.toString(sequence)});
+    }
+
+
+    @Override
+    public void applyRemote(List<SyncRecord> records, boolean force) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(records.size());
+        for (SyncRecord record : records) {
+            long[] local = findTask(db, record.syncId);
+            if (local == null) {
+                if (!record.deleted) {
+                    operations.add(ContentProviderOperation
+                            .newInsert(TaskEntry.asSyncAdapter(TaskEntry.CONTENT_URI))
+                            .withValues(toValues(record))
+                            .build());
+                }
+                continue;
+            }
+            if (!force && record.version <= local[1]) {
+                // The local task is as new or newer, the next push sends it
+                continue;
+            }
+
+            Uri uri = TaskEntry.asSyncAdapter(
+                    ContentUris.withAppendedId(TaskEntry.CONTENT_URI, local[0]));
+            ContentProviderOperation.Builder operation = record.deleted
+                    ? ContentProviderOperation.newDelete(uri)
+                    : ContentProviderOperation.newUpdate(uri).withValues(toValues(record));
+            if (!force) {
+                // Checked again when applied, in case the task was edited in the meantime
+                operation.withSelection(TaskEntry.COLUMN_VERSION + " < ?",
+                        new String[]{Long.toString(record.version)});
+            }
+            operations.add(operation.build());
+        }
+
+        if (operations.isEmpty()) {
+            return;
+        }
+        try {
+            mResolver.applyBatch(TaskContract.AUTHORITY, operations);
+        } catch (Exception e) {
+            throw new IOException("Failed to apply " + operations.size() + " synced tasks", e);
+        }
+    }
+
+
+    @Override
+    public long getServerCursor() {
+        Cursor cursor = mDbHelper.getReadableDatabase().query(
+                TaskDbHelper.SYNC_STATE_TABLE_NAME, new String[]{"value"}, "key = ?",
+                new String[]{KEY_SERVER_CURSOR}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+
+    @Override
+    public void setServerCursor(long cursor) {
+        ContentValues values = new ContentValues();
+        values.put("key", KEY_SERVER_CURSOR);
+        values.put("value", cursor);
+        mDbHelper.getWritableDatabase().insertWithOnConflict(TaskDbHelper.SYNC_STATE_TABLE_NAME,
+                null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+
+    // Returns the _id and version of the task with the sync id, or null if there is none
+    private static long[] findTask(SQLiteDatabase db, String syncId) {
+        Cursor cursor = db.query(TaskEntry.TABLE_NAME,
+                new String[]{TaskEntry._ID, TaskEntry.COLUMN_VERSION},
+                TaskEntry.COLUMN_SYNC_ID + " = ?", new String[]{syncId}, null, null, null);
+        try {
+            return cursor.moveToFirst()
+                    ? new long[]{cursor.getLong(0), cursor.getLong(1)} : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+
+    private static ContentValues toValues(SyncRecord record) {
+        ContentValues values = new ContentValues();
+        values.put(TaskEntry.COLUMN_SYNC_ID, record.syncId);
+        values.put(TaskEntry.COLUMN_VERSION, record.version);
+        values.put(TaskEntry.COLUMN_DESCRIPTION, record.description);
+        values.put(TaskEntry.COLUMN_PRIORITY, record.priority);
+        return values;
+    }
+}
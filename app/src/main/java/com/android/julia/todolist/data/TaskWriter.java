@@ -0,0 +1,347 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.data;
+
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import com.android.julia.todolist.data.TaskContract.TaskEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+
+/**
+ * TaskWriter takes the inserts, updates and deletes of tasks off the main thread.
+ *
+ * The writes are queued and applied in order on a single background thread. All the writes
+ * that are queued by the time the thread gets to them are applied as one batch, in one
+ * transaction, and an update of a task that is still queued is merged into the queued one.
+ * If the batch fails, its writes are applied again one at a time, so that one bad write
+ * doesn't fail the others. Callers are told on the main thread once their write has been
+ * committed, or has failed.
+ *
+ * Deletes are held back for DELETE_DELAY_MS, so that several tasks swiped away in quick
+ * succession are deleted together. Meanwhile the task lists leave the tasks out, through
+ * getHiddenTasks(), which outlives the activity that deleted them.
+ */
+public class TaskWriter {
+
+    private static final String TAG = TaskWriter.class.getSimpleName();
+
+    // How long a delete waits for more deletes to batch with
+    static final long DELETE_DELAY_MS = 500;
+
+    private static TaskWriter sInstance;
+
+
+    /**
+     * Receives the outcome of a write, on the main thread.
+     */
+    public interface Callback {
+        void onWriteFinished(boolean successful);
+    }
+
+
+    // A queued write; id is -1 for inserts
+    private static final class PendingWrite {
+        static final int INSERT = 0;
+        static final int UPDATE = 1;
+        static final int DELETE = 2;
+
+        final int type;
+        final long id;
+        final ContentValues values;
+        final List<Callback> callbacks = new ArrayList<>(1);
+
+        PendingWrite(int type, long id, ContentValues values) {
+            this.type = type;
+            this.id = id;
+            this.values = values;
+        }
+    }
+
+
+    private final ContentResolver mResolver;
+    // The background thread the writes are applied on, and the main thread
+    private final Scheduler mWorker;
+    private final Scheduler mMain;
+
+    // Writes that haven't been picked up by the background thread yet, guarded by itself
+    private final ArrayList<PendingWrite> mQueue = new ArrayList<>();
+    private boolean mFlushScheduled;
+    // The flush that waits for more deletes, cancelled when the deletes are taken along
+    // by an earlier flush
+    private Scheduler.Cancellable mDelayedFlush;
+
+    // Tasks the task lists leave out, guarded by mQueue: from their delete() until a list
+    // without them has been loaded. True once the delete has been written.
+    private final HashMap<Long, Boolean> mHiddenTasks = new HashMap<>();
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+
+    @VisibleForTesting
+    TaskWriter(ContentResolver resolver, Scheduler worker, Scheduler main) {
+        mResolver = resolver;
+        mWorker = worker;
+        mMain = main;
+    }
+
+
+    public static synchronized TaskWriter getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new TaskWriter(context.getApplicationContext().getContentResolver(),
+                    new ExecutorScheduler(Executors.newSingleThreadScheduledExecutor()),
+                    new HandlerScheduler(new Handler(Looper.getMainLooper())));
+        }
+        return sInstance;
+    }
+
+
+    /**
+     * Queues the insert of a new task.
+     *
+     * @param callback Told when the task has been inserted, may be null
+     */
+    public void insert(ContentValues values, Callback callback) {
+        enqueue(PendingWrite.INSERT, -1, new ContentValues(values), callback);
+    }
+
+
+    /**
+     * Queues an update of the task with the given id. Only the columns in values change.
+     *
+     * @param callback Told when the task has been updated, may be null
+     */
+    public void update(long id, ContentValues values, Callback callback) {
+        enqueue(PendingWrite.UPDATE, id, new ContentValues(values), callback);
+    }
+
+
+    /**
+     * Queues the delete of the task with the given id.
+     *
+     * @param callback Told when the task has been deleted, may be null
+     */
+    public void delete(long id, Callback callback) {
+        synchronized (mQueue) {
+            mHiddenTasks.put(id, false);
+        }
+        enqueue(PendingWrite.DELETE, id, null, callback);
+    }
+
+
+    /**
+     * Returns the sorted ids of the tasks that the task lists should leave out: those that
+     * are being deleted, and those that have been deleted but may still be in a list that
+     * was loaded before.
+     */
+    public int[] getHiddenTasks() {
+        synchronized (mQueue) {
+            int[] ids = new int[mHiddenTasks.size()];
+            int i = 0;
+            for (long id : mHiddenTasks.keySet()) {
+                ids[i++] = (int) id;
+            }
+            Arrays.sort(ids);
+            return ids;
+        }
+    }
+
+
+    /**
+     * Tells the writer that a list of tasks was loaded without the given hidden tasks,
+     * so those that have been deleted no longer need to be left out.
+     */
+    public void onTasksLoadedWithout(int[] ids) {
+        synchronized (mQueue) {
+            for (int id : ids) {
+                Boolean deleted = mHiddenTasks.get((long) id);
+                if (deleted != null && deleted) {
+                    mHiddenTasks.remove((long) id);
+                }
+            }
+        }
+    }
+
+
+    private void enqueue(int type, long id, ContentValues values, Callback callback) {
+        synchronized (mQueue) {
+            PendingWrite write = null;
+            if (type == PendingWrite.UPDATE) {
+                // Consecutive edits of the same task are written once, with the latest values
+                PendingWrite last = findLast(id);
+                if (last != null && last.type == PendingWrite.UPDATE) {
+                    last.values.putAll(values);
+                    write = last;
+                }
+            }
+            if (write == null) {
+                write = new PendingWrite(type, id, values);
+                mQueue.add(write);
+            }
+            if (callback != null) {
+                write.callbacks.add(callback);
+            }
+
+            if (type == PendingWrite.DELETE) {
+                if (!mFlushScheduled && mDelayedFlush == null) {
+                    mDelayedFlush = mWorker.schedule(mFlush, DELETE_DELAY_MS);
+                }
+            } else if (!mFlushScheduled) {
+                // Takes the deletes that are waiting along, so their own flush is dropped.
+                // Otherwise it would flush the deletes that come after early.
+                mFlushScheduled = true;
+                if (mDelayedFlush != null) {
+                    mDelayedFlush.cancel();
+                    mDelayedFlush = null;
+                }
+                mWorker.schedule(mFlush, 0);
+            }
+        }
+    }
+
+
+    // Returns the latest queued write of the task with the given id, or null if there is none
+    private PendingWrite findLast(long id) {
+        for (int i = mQueue.size() - 1; i >= 0; i--) {
+            if (mQueue.get(i).id == id) {
+                return mQueue.get(i);
+            }
+        }
+        return null;
+    }
+
+
+    // Runs on the background thread: applies everything queued so far as one batch
+    private void flush() {
+        final ArrayList<PendingWrite> writes;
+        synchronized (mQueue) {
+            writes = new ArrayList<>(mQueue);
+            mQueue.clear();
+            mFlushScheduled = false;
+            mDelayedFlush = null;
+        }
+        if (writes.isEmpty()) {
+            return;
+        }
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(writes.size());
+        for (PendingWrite write : writes) {
+            operations.add(toOperation(write));
+        }
+
+        final boolean[] results = new boolean[writes.size()];
+        try {
+            mResolver.applyBatch(TaskContract.AUTHORITY, operations);
+            Arrays.fill(results, true);
+        } catch (Exception e) {
+            // The whole batch was rolled back: find out which writes fail on their own
+            Log.w(TAG, "Failed to write " + writes.size() + " task changes at once.", e);
+            for (int i = 0; i < operations.size(); i++) {
+                results[i] = apply(operations.get(i));
+            }
+        }
+
+        mMain.schedule(new Runnable() {
+            @Override
+            public void run() {
+                onWritten(writes, results);
+                for (int i = 0; i < writes.size(); i++) {
+                    for (Callback callback : writes.get(i).callbacks) {
+                        callback.onWriteFinished(results[i]);
+                    }
+                }
+            }
+        }, 0);
+    }
+
+
+    // Applies a single write in a batch of its own, returns false if it failed
+    private boolean apply(ContentProviderOperation operation) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(1);
+        operations.add(operation);
+        try {
+            mResolver.applyBatch(TaskContract.AUTHORITY, operations);
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to write a task change: " + operation, e);
+            return false;
+        }
+    }
+
+
+    private static ContentProviderOperation toOperation(PendingWrite write) {
+        switch (write.type) {
+            case PendingWrite.INSERT:
+                return ContentProviderOperation.newInsert(TaskEntry.CONTENT_URI)
+                        .withValues(write.values).build();
+            case PendingWrite.UPDATE:
+                return ContentProviderOperation.newUpdate(taskUri(write.id))
+                        .withValues(write.values).build();
+            default:
+                return ContentProviderOperation.newDelete(taskUri(write.id)).build();
+        }
+    }
+
+
+    // Runs on the main thread once the writes were committed, or have failed
+    private void onWritten(List<PendingWrite> writes, boolean[] results) {
+        boolean restored = false;
+        synchronized (mQueue) {
+            for (int i = 0; i < writes.size(); i++) {
+                PendingWrite write = writes.get(i);
+                if (write.type != PendingWrite.DELETE) {
+                    continue;
+                }
+                if (results[i]) {
+                    mHiddenTasks.put(write.id, true);
+                } else if (mHiddenTasks.remove(write.id) != null) {
+                    restored = true;
+                }
+            }
+        }
+        if (restored) {
+            // Nothing changed in the database, so the task lists are told to load the tasks
+            // that failed to be deleted again
+            mResolver.notifyChange(TaskEntry.CONTENT_URI, null);
+        }
+    }
+
+
+    private static Uri taskUri(long id) {
+        return ContentUris.withAppendedId(TaskEntry.CONTENT_URI, id);
+    }
+}
@@ -0,0 +1,57 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.metrics;
+
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * A count of things, like rows, that only adds up while metrics are enabled.
+ */
+public final class Counter {
+
+    private final String mName;
+    private final AtomicLong mValue = new AtomicLong();
+
+
+    Counter(String name) {
+        mName = name;
+    }
+
+
+    public String getName() {
+        return mName;
+    }
+
+
+    public void add(long delta) {
+        if (Metrics.isEnabled()) {
+            mValue.addAndGet(delta);
+        }
+    }
+
+
+    public long get() {
+        return mValue.get();
+    }
+
+
+    void reset() {
+        mValue.set(0);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.metrics;
+
+
+import android.os.Looper;
+import android.util.Log;
+import android.view.Choreographer;
+
+
+/**
+ * FrameWatchdog logs every frame of the main thread that overran its 16 ms budget, together
+ * with the trace section that took the longest in it, so that a stutter can be pinned on
+ * loading, diffing, binding or writing the tasks.
+ *
+ * It sits between Tracer and the recorder the sections went to before, and times the
+ * outermost sections that run on the main thread. The work between two frames delays the
+ * second one, so the sections that end between frames are blamed on the frame after them.
+ *
+ * A frame callback is posted for every frame while installed, which keeps the main thread
+ * from ever going idle, so it is only installed in debug builds made with -PframeWatchdog.
+ */
+public final class FrameWatchdog implements Tracer.Recorder, Choreographer.FrameCallback {
+
+    private static final String TAG = FrameWatchdog.class.getSimpleName();
+
+    static final long FRAME_BUDGET_NANOS = 16000000;
+    // Frames come every 16.7 ms at 60 Hz, so a longer gap than this means one was dropped
+    private static final long DROPPED_FRAME_NANOS = FRAME_BUDGET_NANOS * 3 / 2;
+    // Deeper sections are passed on, but not timed
+    private static final int MAX_DEPTH = 32;
+
+    private static FrameWatchdog sInstance;
+
+    private final Tracer.Recorder mDelegate;
+    private final Thread mMainThread = Looper.getMainLooper().getThread();
+
+    // Main thread only
+    private final long[] mStartTimes = new long[MAX_DEPTH];
+    private final String[] mNames = new String[MAX_DEPTH];
+    private int mDepth;
+    private String mLongestSection;
+    private long mLongestNanos;
+    private int mSections;
+    private long mLastFrameNanos;
+
+
+    private FrameWatchdog(Tracer.Recorder delegate) {
+        mDelegate = delegate;
+    }
+
+
+    /**
+     * Starts watching the frames of the main thread. Must be called on the main thread.
+     */
+    public static synchronized void install() {
+        if (sInstance != null) {
+            return;
+        }
+        sInstance = new FrameWatchdog(Tracer.getRecorder());
+        Tracer.setRecorder(sInstance);
+        Choreographer.getInstance().postFrameCallback(sInstance);
+    }
+
+
+    @Override
+    public void beginSection(String name) {
+        mDelegate.beginSection(name);
+        if (Thread.currentThread() != mMainThread) {
+            return;
+        }
+        if (mDepth < MAX_DEPTH) {
+            mNames[mDepth] = name;
+            mStartTimes[mDepth] = System.nanoTime();
+        }
+        mDepth++;
+    }
+
+
+    @Override
+    public void endSection() {
+        mDelegate.endSection();
+        if (Thread.currentThread() != mMainThread || mDepth == 0) {
+            return;
+        }
+        mDepth--;
+        if (mDepth != 0) {
+            return; // only whole phases are blamed, not their parts
+        }
+        long nanos = System.nanoTime() - mStartTimes[0];
+        mSections++;
+        if (nanos > mLongestNanos) {
+            mLongestNanos = nanos;
+            mLongestSection = mNames[0];
+        }
+        mNames[0] = null;
+    }
+
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (mLastFrameNanos != 0) {
+            long frameNanos = frameTimeNanos - mLastFrameNanos;
+            if (mLongestSection != null && (mLongestNanos > FRAME_BUDGET_NANOS
+                    || frameNanos > DROPPED_FRAME_NANOS)) {
+                Log.w(TAG, "Frame took " + frameNanos / 1000000 + " ms, " +
+                        mLongestSection + " took " + mLongestNanos / 1000000 + " ms of it (" +
+                        mSections + " sections)");
+            }
+        }
+        mLastFrameNanos = frameTimeNanos;
+        mLongestSection = null;
+        mLongestNanos = 0;
+        mSections = 0;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+}
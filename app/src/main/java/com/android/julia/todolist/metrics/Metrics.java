@@ -0,0 +1,161 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.metrics;
+
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * Metrics is the registry of the app's latency histograms and counters.
+ *
+ * The hot paths keep their Histograms and Counters in static fields and time themselves with
+ *
+ *     long start = Metrics.start();
+ *     ...
+ *     sHistogram.stop(start);
+ *
+ * While metrics are disabled, which is the default, start() doesn't read the clock and
+ * stop() and Counter.add() return right away, so the cost is a read of a volatile boolean.
+ */
+public final class Metrics {
+
+    /**
+     * What start() returns while metrics are disabled.
+     */
+    public static final long NOT_STARTED = Long.MIN_VALUE;
+
+    private static volatile boolean sEnabled;
+
+    private static final ConcurrentMap<String, Histogram> sHistograms =
+            new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Counter> sCounters = new ConcurrentHashMap<>();
+
+
+    private Metrics() {
+    }
+
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+
+    /**
+     * Returns the current time to pass to Histogram.stop(), or NOT_STARTED if metrics
+     * are disabled.
+     */
+    public static long start() {
+        return sEnabled ? System.nanoTime() : NOT_STARTED;
+    }
+
+
+    /**
+     * Returns the histogram of the given name, creating it the first time.
+     */
+    public static Histogram histogram(String name) {
+        Histogram histogram = sHistograms.get(name);
+        if (histogram == null) {
+            Histogram created = new Histogram(name);
+            histogram = sHistograms.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+
+    /**
+     * Returns the counter of the given name, creating it the first time.
+     */
+    public static Counter counter(String name) {
+        Counter counter = sCounters.get(name);
+        if (counter == null) {
+            Counter created = new Counter(name);
+            counter = sCounters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+
+    /**
+     * Clears every histogram and counter.
+     */
+    public static void reset() {
+        for (Histogram histogram : sHistograms.values()) {
+            histogram.reset();
+        }
+        for (Counter counter : sCounters.values()) {
+            counter.reset();
+        }
+    }
+
+
+    /**
+     * Writes every histogram that recorded something, with its percentiles in milliseconds,
+     * and every counter, sorted by name.
+     */
+    public static void dump(PrintWriter writer) {
+        writer.println("Metrics are " + (sEnabled ? "enabled" : "disabled"));
+
+        Map<String, Histogram> histograms = new TreeMap<>(sHistograms);
+        writer.println();
+        writer.println(String.format(Locale.ROOT, "%-32s %8s %9s %9s %9s %9s %9s",
+                "Latency (ms)", "count", "mean", "p50", "p90", "p99", "max"));
+        for (Histogram histogram : histograms.values()) {
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            writer.println(String.format(Locale.ROOT,
+                    "%-32s %8d %9.3f %9.3f %9.3f %9.3f %9.3f",
+                    histogram.getName(), histogram.getCount(),
+                    millis(histogram.getMean()),
+                    millis(histogram.getPercentile(50)),
+                    millis(histogram.getPercentile(90)),
+                    millis(histogram.getPercentile(99)),
+                    millis(histogram.getMax())));
+        }
+
+        Map<String, Counter> counters = new TreeMap<>(sCounters);
+        writer.println();
+        writer.println(String.format(Locale.ROOT, "%-32s %8s", "Counter", "value"));
+        for (Counter counter : counters.values()) {
+            writer.println(String.format(Locale.ROOT, "%-32s %8d",
+                    counter.getName(), counter.get()));
+        }
+        writer.flush();
+    }
+
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
@@ -0,0 +1,209 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.metrics;
+
+
+import android.app.Activity;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * StartupTimer breaks the cold start of the app down into the time spent in the Application,
+ * the content provider, the framework launching the activity, the activity itself and
+ * drawing its first frame, and logs the report once the first frame is on the screen.
+ *
+ * The startup code marks where it is with mark(). Only the first time of every mark counts,
+ * so that an activity that is recreated later doesn't change the report. The phases are also
+ * recorded in the "startup.*" histograms, which the metrics screen and dumpapp show.
+ */
+public final class StartupTimer {
+
+    private static final String TAG = StartupTimer.class.getSimpleName();
+
+    // The marks, in the order a cold start passes them
+    public static final int PROCESS_START = 0; // Application.attachBaseContext()
+    public static final int PROVIDER_CREATE = 1;
+    public static final int PROVIDER_CREATED = 2;
+    public static final int APPLICATION_CREATED = 3;
+    public static final int ACTIVITY_CREATE = 4;
+    public static final int ACTIVITY_RESUMED = 5;
+    public static final int FIRST_FRAME = 6;
+    private static final int MARKS = 7;
+
+    // The phases of the report
+    public static final int PHASE_APPLICATION = 0;
+    public static final int PHASE_PROVIDER = 1;
+    public static final int PHASE_LAUNCH = 2;
+    public static final int PHASE_ACTIVITY = 3;
+    public static final int PHASE_FIRST_FRAME = 4;
+    public static final int PHASE_TOTAL = 5;
+    private static final String[] PHASE_NAMES =
+            {"application", "provider", "launch", "activity", "first_frame", "total"};
+
+    private static final long NOT_MARKED = -1;
+
+    // Main thread only
+    private static final long[] sMarks = new long[MARKS];
+    private static final List<Runnable> sAfterFirstFrame = new ArrayList<>();
+
+    static {
+        for (int i = 0; i < MARKS; i++) {
+            sMarks[i] = NOT_MARKED;
+        }
+    }
+
+
+    private StartupTimer() {
+    }
+
+
+    /**
+     * Records the time of the given mark, unless it was recorded before.
+     * Must be called on the main thread.
+     */
+    public static void mark(int mark) {
+        if (sMarks[mark] == NOT_MARKED) {
+            sMarks[mark] = System.nanoTime();
+        }
+    }
+
+
+    /**
+     * Marks FIRST_FRAME once the first frame of the activity has been drawn, then logs the
+     * report and runs what was waiting for the first frame. Call it from onCreate().
+     */
+    public static void watchFirstFrame(Activity activity) {
+        if (sMarks[FIRST_FRAME] != NOT_MARKED) {
+            return;
+        }
+        final View decorView = activity.getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnDrawListener(new ViewTreeObserver.OnDrawListener() {
+            private boolean mDrawn;
+
+            @Override
+            public void onDraw() {
+                if (mDrawn) {
+                    return;
+                }
+                mDrawn = true;
+                final ViewTreeObserver.OnDrawListener listener = this;
+                // Runs after the frame, and a listener can't be removed while it is called
+                decorView.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        decorView.getViewTreeObserver().removeOnDrawListener(listener);
+                        onFirstFrame();
+                    }
+                });
+            }
+        });
+    }
+
+
+    /**
+     * Runs the task on the main thread once the first frame has been drawn, or right away
+     * if it has been already. Must be called on the main thread.
+     */
+    public static void runAfterFirstFrame(Runnable task) {
+        if (sMarks[FIRST_FRAME] != NOT_MARKED) {
+            task.run();
+        } else {
+            sAfterFirstFrame.add(task);
+        }
+    }
+
+
+    public static boolean isFirstFrameDrawn() {
+        return sMarks[FIRST_FRAME] != NOT_MARKED;
+    }
+
+
+    /**
+     * Returns how long the given phase took, or -1 if a mark it needs is missing.
+     * Must be called on the main thread.
+     */
+    public static long getPhaseNanos(int phase) {
+        switch (phase) {
+            case PHASE_APPLICATION:
+                // The provider is created in the middle of starting the Application
+                long beforeProvider = between(PROCESS_START, PROVIDER_CREATE);
+                long afterProvider = between(PROVIDER_CREATED, APPLICATION_CREATED);
+                return beforeProvider < 0 || afterProvider < 0 ? -1
+                        : beforeProvider + afterProvider;
+            case PHASE_PROVIDER:
+                return between(PROVIDER_CREATE, PROVIDER_CREATED);
+            case PHASE_LAUNCH:
+                return between(APPLICATION_CREATED, ACTIVITY_CREATE);
+            case PHASE_ACTIVITY:
+                return between(ACTIVITY_CREATE, ACTIVITY_RESUMED);
+            case PHASE_FIRST_FRAME:
+                return between(ACTIVITY_RESUMED, FIRST_FRAME);
+            case PHASE_TOTAL:
+                return between(PROCESS_START, FIRST_FRAME);
+            default:
+                throw new IllegalArgumentException("Unknown phase: " + phase);
+        }
+    }
+
+
+    /**
+     * Returns the report of the phases, one per line in milliseconds.
+     */
+    public static String getReport() {
+        StringBuilder report = new StringBuilder("Startup:");
+        for (int phase = 0; phase < PHASE_NAMES.length; phase++) {
+            long nanos = getPhaseNanos(phase);
+            report.append(String.format(Locale.US, "\n  %-12s %s", PHASE_NAMES[phase],
+                    nanos < 0 ? "-" : String.format(Locale.US, "%.1f ms", nanos / 1e6)));
+        }
+        return report.toString();
+    }
+
+
+    private static long between(int from, int to) {
+        if (sMarks[from] == NOT_MARKED || sMarks[to] == NOT_MARKED) {
+            return -1;
+        }
+        return sMarks[to] - sMarks[from];
+    }
+
+
+    private static void onFirstFrame() {
+        if (isFirstFrameDrawn()) {
+            return;
+        }
+        mark(FIRST_FRAME);
+        Log.i(TAG, getReport());
+        for (int phase = 0; phase < PHASE_NAMES.length; phase++) {
+            long nanos = getPhaseNanos(phase);
+            if (nanos >= 0) {
+                Metrics.histogram("startup." + PHASE_NAMES[phase]).record(nanos);
+            }
+        }
+
+        for (Runnable task : sAfterFirstFrame) {
+            task.run();
+        }
+        sAfterFirstFrame.clear();
+    }
+}
@@ -0,0 +1,98 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.metrics;
+
+
+import android.support.v4.os.TraceCompat;
+
+
+/**
+ * Tracer marks the phases of the app, like loading, diffing and binding the tasks, as named
+ * trace sections. By default they go to the platform's trace, where systrace and Perfetto
+ * capture them; a unit test can record them on the JVM with a Recorder of its own.
+ *
+ * Sections nest, and must be ended on the thread that began them:
+ *
+ *     Tracer.beginSection("TaskListAdapter.bind");
+ *     try {
+ *         ...
+ *     } finally {
+ *         Tracer.endSection();
+ *     }
+ */
+public final class Tracer {
+
+    // The platform limits section names to this many characters
+    static final int MAX_NAME_LENGTH = 127;
+
+
+    /**
+     * Receives the trace sections.
+     */
+    public interface Recorder {
+        void beginSection(String name);
+
+        void endSection();
+    }
+
+
+    /**
+     * Writes the sections to the platform's trace, on API 18 and up.
+     */
+    public static final Recorder SYSTRACE = new Recorder() {
+        @Override
+        public void beginSection(String name) {
+            TraceCompat.beginSection(name.length() > MAX_NAME_LENGTH
+                    ? name.substring(0, MAX_NAME_LENGTH) : name);
+        }
+
+        @Override
+        public void endSection() {
+            TraceCompat.endSection();
+        }
+    };
+
+
+    private static volatile Recorder sRecorder = SYSTRACE;
+
+
+    private Tracer() {
+    }
+
+
+    /**
+     * Sends the sections to the given recorder, or to SYSTRACE if it is null.
+     */
+    public static void setRecorder(Recorder recorder) {
+        sRecorder = recorder != null ? recorder : SYSTRACE;
+    }
+
+
+    public static Recorder getRecorder() {
+        return sRecorder;
+    }
+
+
+    public static void beginSection(String name) {
+        sRecorder.beginSection(name);
+    }
+
+
+    public static void endSection() {
+        sRecorder.endSection();
+    }
+}
@@ -0,0 +1,150 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.sync;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * SyncCodec writes a batch of records as the gzip compressed binary payload of a sync
+ * request or response, and reads it back.
+ *
+ * The payload is a format version, the server cursor, whether the server has more records,
+ * the number of records, then every record: its sync id, version, a deleted flag and,
+ * unless it is deleted, its description and priority. Strings are UTF-8 bytes prefixed
+ * with their length.
+ */
+public final class SyncCodec {
+
+    private static final int FORMAT_VERSION = 1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+
+    /**
+     * A batch of records, with the server cursor it ends at for a pull.
+     */
+    public static final class Batch {
+        public final List<SyncRecord> records;
+        public final long cursor;
+        public final boolean hasMore;
+
+        public Batch(List<SyncRecord> records, long cursor, boolean hasMore) {
+            this.records = records;
+            this.cursor = cursor;
+            this.hasMore = hasMore;
+        }
+
+        public Batch(List<SyncRecord> records) {
+            this(records, 0, false);
+        }
+    }
+
+
+    private SyncCodec() {
+    }
+
+
+    public static byte[] encode(Batch batch) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes));
+        try {
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(batch.cursor);
+            out.writeBoolean(batch.hasMore);
+            out.writeInt(batch.records.size());
+            for (SyncRecord record : batch.records) {
+                writeString(out, record.syncId);
+                out.writeLong(record.version);
+                out.writeBoolean(record.deleted);
+                if (!record.deleted) {
+                    writeString(out, record.description);
+                    out.writeInt(record.priority);
+                }
+            }
+        } finally {
+            // Finishes the gzip stream
+            out.close();
+        }
+        return bytes.toByteArray();
+    }
+
+
+    public static Batch decode(byte[] payload) throws IOException {
+        return decode(new ByteArrayInputStream(payload));
+    }
+
+
+    public static Batch decode(InputStream payload) throws IOException {
+        DataInputStream in = new DataInputStream(new GZIPInputStream(payload));
+        try {
+            int formatVersion = in.readInt();
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IOException("Unknown sync format version " + formatVersion);
+            }
+            long cursor = in.readLong();
+            boolean hasMore = in.readBoolean();
+            int count = in.readInt();
+            if (count < 0) {
+                throw new IOException("Corrupt sync payload, " + count + " records");
+            }
+
+            List<SyncRecord> records = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String syncId = readString(in);
+                long version = in.readLong();
+                if (in.readBoolean()) {
+                    records.add(SyncRecord.tombstone(syncId, version));
+                } else {
+                    String description = readString(in);
+                    records.add(new SyncRecord(syncId, version, description, in.readInt()));
+                }
+            }
+            return new Batch(records, cursor, hasMore);
+        } finally {
+            in.close();
+        }
+    }
+
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Corrupt sync payload, string of " + length + " bytes");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
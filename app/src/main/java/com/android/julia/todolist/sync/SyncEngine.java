@@ -0,0 +1,109 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.sync;
+
+
+import java.io.IOException;
+
+
+/**
+ * SyncEngine brings the local tasks and the server's in line, exchanging only what changed
+ * since the last sync:
+ *
+ *  1. Push: the local change log is sent in batches and acknowledged batch by batch, so a
+ *     failed sync resumes where it stopped. The server keeps a change only if its version is
+ *     higher than the server's; for every change it rejects, its own state is applied locally.
+ *  2. Pull: the changes other clients made after the stored server cursor are fetched in
+ *     batches and applied where their version is higher than the local task's.
+ *
+ * sync() does network and disk I/O, so it must not be called on the main thread.
+ */
+public class SyncEngine {
+
+    static final int DEFAULT_BATCH_SIZE = 500;
+
+    private final SyncStore mStore;
+    private final SyncTransport mTransport;
+    private final int mBatchSize;
+
+
+    /**
+     * The number of records that went each way in one sync.
+     */
+    public static final class Result {
+        public int pushed;
+        public int rejected;
+        public int pulled;
+
+        @Override
+        public String toString() {
+            return "pushed " + pushed + " (" + rejected + " rejected), pulled " + pulled;
+        }
+    }
+
+
+    public SyncEngine(SyncStore store, SyncTransport transport) {
+        this(store, transport, DEFAULT_BATCH_SIZE);
+    }
+
+
+    public SyncEngine(SyncStore store, SyncTransport transport, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+        mStore = store;
+        mTransport = transport;
+        mBatchSize = batchSize;
+    }
+
+
+    public synchronized Result sync() throws IOException {
+        Result result = new Result();
+        push(result);
+        pull(result);
+        return result;
+    }
+
+
+    private void push(Result result) throws IOException {
+        SyncStore.Changes changes;
+        while ((changes = mStore.getChanges(mBatchSize)) != null) {
+            if (!changes.records.isEmpty()) {
+                SyncCodec.Batch rejected = mTransport.push(new SyncCodec.Batch(changes.records));
+                // The server's version of a task that changed on both sides wins
+                mStore.applyRemote(rejected.records, true);
+                result.pushed += changes.records.size();
+                result.rejected += rejected.records.size();
+            }
+            mStore.acknowledge(changes.lastSequence);
+        }
+    }
+
+
+    private void pull(Result result) throws IOException {
+        long cursor = mStore.getServerCursor();
+        SyncCodec.Batch batch;
+        do {
+            batch = mTransport.pull(cursor, mBatchSize);
+            mStore.applyRemote(batch.records, false);
+            // Stored after every batch, so a failed sync resumes from there
+            cursor = batch.cursor;
+            mStore.setServerCursor(cursor);
+            result.pulled += batch.records.size();
+        } while (batch.hasMore);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.sync;
+
+
+/**
+ * The state of one task as the sync engine exchanges it with the server. A task is identified
+ * by its sync id on every device, and a deleted task is sent as a tombstone, without its
+ * description and priority, so that the other devices delete it too.
+ */
+public final class SyncRecord {
+
+    public final String syncId;
+    // The higher version wins when two devices changed the same task
+    public final long version;
+    public final boolean deleted;
+    public final String description;
+    public final int priority;
+
+
+    public SyncRecord(String syncId, long version, String description, int priority) {
+        this(syncId, version, false, description, priority);
+    }
+
+
+    private SyncRecord(String syncId, long version, boolean deleted, String description,
+                       int priority) {
+        this.syncId = syncId;
+        this.version = version;
+        this.deleted = deleted;
+        this.description = description;
+        this.priority = priority;
+    }
+
+
+    /**
+     * Returns the record of a task that was deleted at the given version.
+     */
+    public static SyncRecord tombstone(String syncId, long version) {
+        return new SyncRecord(syncId, version, true, null, 0);
+    }
+
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SyncRecord)) {
+            return false;
+        }
+        SyncRecord other = (SyncRecord) o;
+        return version == other.version
+                && deleted == other.deleted
+                && priority == other.priority
+                && syncId.equals(other.syncId)
+                && (description == null
+                        ? other.description == null : description.equals(other.description));
+    }
+
+
+    @Override
+    public int hashCode() {
+        return 31 * syncId.hashCode() + (int) (version ^ (version >>> 32));
+    }
+
+
+    @Override
+    public String toString() {
+        return syncId + "@" + version + (deleted ? " deleted" : " " + priority + " " + description);
+    }
+}
@@ -0,0 +1,69 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.sync;
+
+
+import java.io.IOException;
+import java.util.List;
+
+
+/**
+ * The local side of a sync: the change log to push to the server,
+ * and the tasks the changes pulled from the server are applied to.
+ */
+public interface SyncStore {
+
+    /**
+     * Local changes in the order they were made, up to and including the change with the
+     * sequence number lastSequence.
+     */
+    final class Changes {
+        public final List<SyncRecord> records;
+        public final long lastSequence;
+
+        public Changes(List<SyncRecord> records, long lastSequence) {
+            this.records = records;
+            this.lastSequence = lastSequence;
+        }
+    }
+
+
+    /**
+     * Returns at most limit of the changes that haven't been acknowledged yet,
+     * or null if there are none.
+     */
+    Changes getChanges(int limit) throws IOException;
+
+    /**
+     * Marks the changes up to and including the given sequence number as received
+     * by the server, so they are never sent again.
+     */
+    void acknowledge(long sequence) throws IOException;
+
+    /**
+     * Applies records of the server. A record only replaces a local task of a lower version,
+     * unless force is true, which is used for the server's side of a rejected change.
+     */
+    void applyRemote(List<SyncRecord> records, boolean force) throws IOException;
+
+    /**
+     * Returns the server's cursor that the last pull ended at, or 0 before the first pull.
+     */
+    long getServerCursor() throws IOException;
+
+    void setServerCursor(long cursor) throws IOException;
+}
@@ -0,0 +1,131 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.sync;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+
+/**
+ * SyncTransport talks to the sync server over HTTP. Both directions carry SyncCodec payloads:
+ *
+ *  POST /push               the client's changes; answers with the server's side of
+ *                           every change it rejected
+ *  GET  /pull?since=&limit= the changes of other clients after the cursor
+ *
+ * Every request names the client in the X-Client-Id header, so that the server doesn't send
+ * a client's own changes back to it.
+ */
+public class SyncTransport {
+
+    static final String HEADER_CLIENT_ID = "X-Client-Id";
+    static final String CONTENT_TYPE = "application/octet-stream";
+
+    private static final int TIMEOUT_MS = 30000;
+
+    private final String mBaseUrl;
+    private final String mClientId;
+
+
+    /**
+     * @param baseUrl  The url of the server, without a trailing slash
+     * @param clientId Identifies this device to the server
+     */
+    public SyncTransport(String baseUrl, String clientId) {
+        mBaseUrl = baseUrl;
+        mClientId = clientId;
+    }
+
+
+    /**
+     * Sends changes to the server and returns the records it rejected, in the server's state.
+     */
+    public SyncCodec.Batch push(SyncCodec.Batch changes) throws IOException {
+        HttpURLConnection connection = open("/push");
+        try {
+            byte[] payload = SyncCodec.encode(changes);
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(payload.length);
+            OutputStream out = connection.getOutputStream();
+            try {
+                out.write(payload);
+            } finally {
+                out.close();
+            }
+            return readResponse(connection);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+
+    /**
+     * Fetches at most limit changes of other clients that come after the cursor.
+     */
+    public SyncCodec.Batch pull(long since, int limit) throws IOException {
+        HttpURLConnection connection = open("/pull?since=" + since + "&limit=" + limit);
+        try {
+            return readResponse(connection);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+
+    private HttpURLConnection open(String path) throws IOException {
+        HttpURLConnection connection =
+                (HttpURLConnection) new URL(mBaseUrl + path).openConnection();
+        connection.setConnectTimeout(TIMEOUT_MS);
+        connection.setReadTimeout(TIMEOUT_MS);
+        connection.setRequestProperty(HEADER_CLIENT_ID, mClientId);
+        connection.setRequestProperty("Content-Type", CONTENT_TYPE);
+        return connection;
+    }
+
+
+    private static SyncCodec.Batch readResponse(HttpURLConnection connection)
+            throws IOException {
+        int status = connection.getResponseCode();
+        if (status != HttpURLConnection.HTTP_OK) {
+            throw new IOException("Sync server answered " + status + " " +
+                    connection.getResponseMessage());
+        }
+        InputStream in = connection.getInputStream();
+        try {
+            return SyncCodec.decode(readFully(in));
+        } finally {
+            in.close();
+        }
+    }
+
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -18,14 +18,17 @@ package com.android.julia.todolist.ui;
 
 
 import android.content.ContentValues;
+import android.content.Context;
 import android.os.Bundle;
 import android.support.v7.app.AppCompatActivity;
 import android.view.View;
 import android.widget.EditText;
 import android.widget.RadioButton;
+import android.widget.Toast;
 
 import com.android.julia.todolist.R;
 import com.android.julia.todolist.data.TaskContract;
+import com.android.julia.todolist.data.TaskWriter;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
@@ -63,14 +66,24 @@ public class AddTaskActivity extends AppCompatActivity {
             return;
         }
 
-        // Insert new task data via a ContentResolver
+        // Insert new task data via the TaskWriter, off the main thread
         // Create new empty ContentValues object
         ContentValues contentValues = new ContentValues();
         // Put the task description and selected mPriority into the ContentValues
         contentValues.put(TaskContract.TaskEntry.COLUMN_DESCRIPTION, input);
         contentValues.put(TaskContract.TaskEntry.COLUMN_PRIORITY, mPriority);
-        // Insert the content values via a ContentResolver
-        getContentResolver().insert(TaskContract.TaskEntry.CONTENT_URI, contentValues);
+        // Queue the insert of the content values. The activity may be gone by the time
+        // the task is written, so a failure is reported through the application context
+        final Context appContext = getApplicationContext();
+        TaskWriter.getInstance(this).insert(contentValues, new TaskWriter.Callback() {
+            @Override
+            public void onWriteFinished(boolean successful) {
+                if (!successful) {
+                    Toast.makeText(appContext, R.string.error_saving_task, Toast.LENGTH_SHORT)
+                            .show();
+                }
+            }
+        });
 
         // Finish activity (this returns back to MainActivity)
         finish();
@@ -18,11 +18,13 @@ package com.android.julia.todolist.ui;
 
 
 import android.app.Dialog;
+import android.content.ContentValues;
 import android.content.DialogInterface;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.v4.app.DialogFragment;
 import android.support.v7.app.AlertDialog;
+import android.util.Log;
 import android.view.View;
 import android.view.Window;
 import android.view.WindowManager;
@@ -30,17 +32,33 @@ import android.widget.EditText;
 import android.widget.RadioButton;
 
 import com.android.julia.todolist.R;
+import com.android.julia.todolist.data.LiveQuery;
+import com.android.julia.todolist.data.TaskContract;
+import com.android.julia.todolist.data.TaskQueries;
 
 
+/**
+ * EditTaskDialogFragment edits the description and priority of a task. It is only given
+ * the id of the task, and loads the task itself in the background; until then the fields
+ * are disabled.
+ */
 public class EditTaskDialogFragment extends DialogFragment implements View.OnClickListener {
 
+    private static final String TAG = EditTaskDialogFragment.class.getSimpleName();
+
+    private static final String ARGUMENT_TASK_ID = "task_id";
+    private static final String STATE_LOADED = "loaded";
+    private static final String STATE_PRIORITY = "priority";
+
     RadioButton mHighRadioButton;
     RadioButton mMediumRadioButton;
     RadioButton mLowRadioButton;
     EditText mTaskDescriptionEditText;
     // Declare a member variable to keep track of a task's selected mPriority
     private int mPriority;
-    private int mPosition;
+    private int mTaskId;
+    // True once the task has been loaded into the fields
+    private boolean mLoaded;
 
 
     public EditTaskDialogFragment() {
@@ -50,12 +68,10 @@ public class EditTaskDialogFragment extends DialogFragment implements View.OnCli
     }
 
 
-    public static EditTaskDialogFragment newInstance(int pos, String description, int priority) {
+    public static EditTaskDialogFragment newInstance(int taskId) {
         EditTaskDialogFragment frag = new EditTaskDialogFragment();
         Bundle args = new Bundle();
-        args.putInt("position", pos);
-        args.putString("description", description);
-        args.putInt("priority", priority);
+        args.putInt(ARGUMENT_TASK_ID, taskId);
         frag.setArguments(args);
         return frag;
     }
@@ -81,22 +97,13 @@ public class EditTaskDialogFragment extends DialogFragment implements View.OnCli
             }
         });
 
-        // Fetch arguments from bundle and set position, description, and priority
-        mPosition = getArguments().getInt("position", 0);
-        String description = getArguments().getString("description");
-        mPriority = getArguments().getInt("priority", 1);
+        // Fetch the id of the task from the arguments
+        mTaskId = getArguments().getInt(ARGUMENT_TASK_ID);
 
         View v = View.inflate(getContext(), R.layout.fragment_edit_task, null);
 
         // Get field from view
         mTaskDescriptionEditText = (EditText) v.findViewById(R.id.editTextTaskDescription);
-        // Set user's cursor in the text field at the end of the current text value
-        // and focused by default
-        mTaskDescriptionEditText.setText("");
-        mTaskDescriptionEditText.append(description);
-        // Show soft keyboard automatically and request focus to field
-        mTaskDescriptionEditText.requestFocus();
-
         mHighRadioButton = (RadioButton) v.findViewById(R.id.radButton1);
         mMediumRadioButton = (RadioButton) v.findViewById(R.id.radButton2);
         mLowRadioButton = (RadioButton) v.findViewById(R.id.radButton3);
@@ -104,12 +111,13 @@ public class EditTaskDialogFragment extends DialogFragment implements View.OnCli
         mMediumRadioButton.setOnClickListener(this);
         mLowRadioButton.setOnClickListener(this);
 
-        if (mPriority == 1) {
-            mHighRadioButton.setChecked(true);
-        } else if (mPriority == 2) {
-            mMediumRadioButton.setChecked(true);
-        } else if (mPriority == 3) {
-            mLowRadioButton.setChecked(true);
+        if (savedInstanceState != null && savedInstanceState.getBoolean(STATE_LOADED)) {
+            // The fields restore their own state, only the priority is kept here
+            mPriority = savedInstanceState.getInt(STATE_PRIORITY);
+            mLoaded = true;
+        } else {
+            setFieldsEnabled(false);
+            loadTask();
         }
 
         // Set to adjust screen height automatically, when soft keyboard appears on screen
@@ -122,6 +130,72 @@ public class EditTaskDialogFragment extends DialogFragment implements View.OnCli
     }
 
 
+    @Override
+    public void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putBoolean(STATE_LOADED, mLoaded);
+        outState.putInt(STATE_PRIORITY, mPriority);
+    }
+
+
+    // Loads the task in the background and puts it into the fields
+    private void loadTask() {
+        TaskQueries.loadTask(getContext(), mTaskId, new LiveQuery.Observer<ContentValues>() {
+            @Override
+            public void onResult(ContentValues task) {
+                if (!isAdded()) {
+                    return; // the dialog was closed meanwhile
+                }
+                if (task == null) {
+                    // The task was deleted meanwhile
+                    dismissAllowingStateLoss();
+                    return;
+                }
+                showTask(task.getAsString(TaskContract.TaskEntry.COLUMN_DESCRIPTION),
+                        task.getAsInteger(TaskContract.TaskEntry.COLUMN_PRIORITY));
+            }
+
+            @Override
+            public void onError(Exception e) {
+                Log.e(TAG, "Failed to load task " + mTaskId, e);
+                if (isAdded()) {
+                    dismissAllowingStateLoss();
+                }
+            }
+        });
+    }
+
+
+    private void showTask(String description, int priority) {
+        mPriority = priority;
+        mLoaded = true;
+        setFieldsEnabled(true);
+
+        // Set user's cursor in the text field at the end of the current text value
+        // and focused by default
+        mTaskDescriptionEditText.setText("");
+        mTaskDescriptionEditText.append(description);
+        // Show soft keyboard automatically and request focus to field
+        mTaskDescriptionEditText.requestFocus();
+
+        if (mPriority == 1) {
+            mHighRadioButton.setChecked(true);
+        } else if (mPriority == 2) {
+            mMediumRadioButton.setChecked(true);
+        } else if (mPriority == 3) {
+            mLowRadioButton.setChecked(true);
+        }
+    }
+
+
+    private void setFieldsEnabled(boolean enabled) {
+        mTaskDescriptionEditText.setEnabled(enabled);
+        mHighRadioButton.setEnabled(enabled);
+        mMediumRadioButton.setEnabled(enabled);
+        mLowRadioButton.setEnabled(enabled);
+    }
+
+
     /**
      * onClickSaveTask is called when the "SAVE" button is clicked.
      * It retrieves user input and inserts that edited task data into the underlying database.
@@ -130,13 +204,13 @@ public class EditTaskDialogFragment extends DialogFragment implements View.OnCli
         // Check if EditText is empty, if not retrieve input and store it in a ContentValues object
         // If the EditText input is empty -> don't create an entry
         String input = mTaskDescriptionEditText.getText().toString();
-        if (input.length() == 0) {
+        if (!mLoaded || input.length() == 0) {
             return;
         }
 
         // Return changed task data back to activity through the implemented listener
         EditTaskDialogListener listener = (EditTaskDialogListener) getActivity();
-        listener.onFinishEditTaskDialog(mPosition, input, mPriority);
+        listener.onFinishEditTaskDialog(mTaskId, input, mPriority);
     }
 
 
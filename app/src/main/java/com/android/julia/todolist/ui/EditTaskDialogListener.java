@@ -2,5 +2,5 @@ package com.android.julia.todolist.ui;
 
 // Defines the listener interface with a method passing back data result.
 interface EditTaskDialogListener {
-    void onFinishEditTaskDialog(int position, String description, int priority);
+    void onFinishEditTaskDialog(int taskId, String description, int priority);
 }
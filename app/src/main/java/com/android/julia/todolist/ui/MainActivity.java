@@ -18,28 +18,34 @@ package com.android.julia.todolist.ui;
 
 
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
-import android.net.Uri;
 import android.os.Bundle;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v4.app.FragmentManager;
-import android.support.v4.app.LoaderManager;
-import android.support.v4.content.AsyncTaskLoader;
-import android.support.v4.content.Loader;
+import android.support.v4.view.MenuItemCompat;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.DividerItemDecoration;
 import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.support.v7.widget.helper.ItemTouchHelper;
 import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
+import android.widget.Toast;
 
+import com.android.julia.todolist.BuildConfig;
 import com.android.julia.todolist.R;
-import com.android.julia.todolist.adapter.TodoCursorAdapter;
+import com.android.julia.todolist.adapter.TaskListAdapter;
+import com.android.julia.todolist.adapter.TaskPagingSource;
 import com.android.julia.todolist.data.TaskContract;
-import com.android.julia.todolist.data.TaskDbHelper;
-import com.facebook.stetho.Stetho;
+import com.android.julia.todolist.data.LiveQuery;
+import com.android.julia.todolist.data.TaskQueries;
+import com.android.julia.todolist.data.TaskSnapshot;
+import com.android.julia.todolist.data.TaskWriter;
+import com.android.julia.todolist.metrics.StartupTimer;
+import com.android.julia.todolist.metrics.Tracer;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
@@ -47,42 +53,57 @@ import butterknife.OnClick;
 
 
 public class MainActivity extends AppCompatActivity implements
-        LoaderManager.LoaderCallbacks<Cursor>, EditTaskDialogListener {
+        LiveQuery.Observer<TaskSnapshot>, EditTaskDialogListener {
 
-    // Constants for logging and referring to a unique loader
+    // Constant for logging
     private static final String TAG = MainActivity.class.getSimpleName();
-    private static final int TASK_LOADER_ID = 0;
-
-    SQLiteDatabase mDatabase;
+    // Task rows inflated in the background while the tasks load: a screenful, and a few more
+    // for the start of a fling
+    private static final int PREWARMED_VIEW_HOLDERS = 16;
+    // Above this many tasks, the list of all tasks is loaded a page at a time as it is
+    // scrolled, rather than as a whole
+    private static final int PAGING_THRESHOLD = 10000;
 
     @BindView(R.id.recyclerViewTasks) RecyclerView mRecyclerView;
     @BindView(R.id.fab) FloatingActionButton mFabButton;
 
     // Member variables for the adapter and RecyclerView
-    private TodoCursorAdapter mAdapter;
+    private TaskListAdapter mAdapter;
+    // The query of the displayed tasks, subscribed to while the activity is started
+    private LiveQuery<TaskSnapshot> mTaskQuery;
+    private LiveQuery.Subscription mSubscription;
+    // Pages through all tasks when there are too many to load at once, null until then
+    private TaskPagingSource mPagingSource;
+    private boolean mStarted;
+    private boolean mDestroyed;
+    // Writes the task changes in the background
+    private TaskWriter mTaskWriter;
+    // Tells the user about writes that failed. The activity may be gone by the time
+    // a write is done, so it only holds on to the application context.
+    private TaskWriter.Callback mWriteCallback;
 
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        StartupTimer.mark(StartupTimer.ACTIVITY_CREATE);
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
         ButterKnife.bind(this);
-        Stetho.initializeWithDefaults(this);
-
-        // Get DBHelper to read from database
-        final TaskDbHelper helper = TaskDbHelper.getInstance(this);
-        mDatabase = helper.getReadableDatabase();
+        StartupTimer.watchFirstFrame(this);
+        mTaskWriter = TaskWriter.getInstance(this);
+        mWriteCallback = showErrorOnFailure(getApplicationContext());
 
         // Initialize the adapter and attach it to the RecyclerView
-        mAdapter = new TodoCursorAdapter(this, new TaskClickListener() {
+        mAdapter = new TaskListAdapter(this, new TaskClickListener() {
             @Override
-            public void onTaskClick(View v, int position, String description, int priority) {
+            public void onTaskClick(View v, int taskId) {
 
-                showEditTaskDialog(position, description, priority);
+                showEditTaskDialog(taskId);
 
             }
         });
         mRecyclerView.setAdapter(mAdapter);
+        mAdapter.prewarmViewHolders(mRecyclerView, PREWARMED_VIEW_HOLDERS);
 
         /*
          Add a touch helper to the RecyclerView to recognize when a user swipes to delete an item.
@@ -100,29 +121,30 @@ public class MainActivity extends AppCompatActivity implements
             // Called when a user swipes left or right on a ViewHolder
             @Override
             public void onSwiped(RecyclerView.ViewHolder viewHolder, int swipeDir) {
-                // Construct the URI for the item to delete.
-                // Use getTag (from the adapter code) to get the id of the swiped item
-                // Retrieve the id of the task to delete
-                int id = (int) viewHolder.itemView.getTag();
-
-                // Build appropriate uri with String row id appended
-                String stringId = Integer.toString(id);
-                Uri uri = TaskContract.TaskEntry.CONTENT_URI;
-                uri = uri.buildUpon().appendPath(stringId).build();
-
-                // Delete a single row of data using a ContentResolver
-                getContentResolver().delete(uri, null, null);
-
-                // Restart the loader to re-query for all tasks after a deletion
-                getSupportLoaderManager().restartLoader(TASK_LOADER_ID, null, MainActivity.this);
+                // Take the task out of the list right away, then delete it in the background.
+                // If the delete fails, the task comes back with the next load of the list.
+                mAdapter.deleteTask(viewHolder.getAdapterPosition(), mWriteCallback);
             }
         }).attachToRecyclerView(mRecyclerView);
 
-        /*
-         Ensure a loader is initialized and active. If the loader doesn't already exist, one is
-         created, otherwise the last created loader is re-used.
-         */
-        getSupportLoaderManager().initLoader(TASK_LOADER_ID, null, this);
+        // Display all tasks until something is searched for. The query is shared, so it
+        // still holds the tasks when the activity is recreated.
+        mTaskQuery = TaskQueries.allTasks(this);
+        // Until the tasks are counted they are loaded as a whole, as most lists are short
+        TaskQueries.hasMoreTasksThan(this, PAGING_THRESHOLD, new LiveQuery.Observer<Boolean>() {
+            @Override
+            public void onResult(Boolean moreTasks) {
+                if (moreTasks && !mDestroyed) {
+                    mPagingSource = new TaskPagingSource(MainActivity.this);
+                    showTasks();
+                }
+            }
+
+            @Override
+            public void onError(Exception e) {
+                Log.e(TAG, "Failed to count the tasks.", e);
+            }
+        });
 
         // A gray divider line at the bottom of each task
         mRecyclerView.addItemDecoration(
@@ -130,116 +152,160 @@ public class MainActivity extends AppCompatActivity implements
     }
 
 
+    /**
+     * Adds the search box to the action bar. Every change of the search text
+     * switches to a query of the tasks that match it.
+     */
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_main, menu);
+        menu.findItem(R.id.action_metrics).setVisible(BuildConfig.DEBUG);
+
+        SearchView searchView =
+                (SearchView) MenuItemCompat.getActionView(menu.findItem(R.id.action_search));
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return false;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                setTaskQuery(TaskQueries.search(MainActivity.this, newText));
+                return true;
+            }
+        });
+        return true;
+    }
+
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.action_metrics) {
+            startActivity(new Intent(this, MetricsActivity.class));
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+
+    // Returns a callback that shows an error if a write failed, without holding on to
+    // the activity
+    private static TaskWriter.Callback showErrorOnFailure(final Context appContext) {
+        return new TaskWriter.Callback() {
+            @Override
+            public void onWriteFinished(boolean successful) {
+                if (!successful) {
+                    Toast.makeText(appContext, R.string.error_saving_task, Toast.LENGTH_SHORT)
+                            .show();
+                }
+            }
+        };
+    }
+
+
     /**
      * This method is called after user clicks on any task to edit it.
      *
-     * @param position    The position of the clicked task
-     * @param description The description of the clicked task
-     * @param priority    The priority of the clicked task
+     * @param taskId The id of the clicked task
      */
-    private void showEditTaskDialog(int position, String description, int priority) {
+    private void showEditTaskDialog(int taskId) {
         FragmentManager fm = getSupportFragmentManager();
-        // Pass along the position, text, and priority of clicked item
-        // to the EditTaskDialogFragment
+        // Only the id is passed to the EditTaskDialogFragment, which loads the task itself
         EditTaskDialogFragment editTaskDialogFragment =
-                EditTaskDialogFragment.newInstance(position, description, priority);
+                EditTaskDialogFragment.newInstance(taskId);
         editTaskDialogFragment.show(fm, "fragment_edit_task");
     }
 
 
-    /**
-     * This method is called after this activity has been paused or restarted.
-     * Often, this is after new data has been inserted through an AddTaskActivity,
-     * so this restarts the loader to re-query the underlying data for any changes.
-     */
+    @Override
+    protected void onStart() {
+        super.onStart();
+        mStarted = true;
+        showTasks();
+    }
+
+
     @Override
     protected void onResume() {
         super.onResume();
+        StartupTimer.mark(StartupTimer.ACTIVITY_RESUMED);
+    }
 
-        // re-queries for all tasks
-        getSupportLoaderManager().restartLoader(TASK_LOADER_ID, null, this);
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        mStarted = false;
+        unsubscribe();
     }
 
 
-    /**
-     * Instantiates and returns a new AsyncTaskLoader with the given ID.
-     * This loader will return task data as a Cursor or null if an error occurs.
-     *
-     * Implements the required callbacks to take care of loading data at all stages of loading.
-     */
     @Override
-    public Loader<Cursor> onCreateLoader(int id, final Bundle loaderArgs) {
+    protected void onDestroy() {
+        super.onDestroy();
+        mDestroyed = true;
+        if (mPagingSource != null) {
+            mAdapter.setPagingSource(null);
+            mPagingSource.close();
+        }
+    }
 
-        return new AsyncTaskLoader<Cursor>(this) {
 
-            // Initialize a Cursor, this will hold all the task data
-            Cursor mTaskData = null;
+    // Replaces the query of the displayed tasks
+    private void setTaskQuery(LiveQuery<TaskSnapshot> query) {
+        if (query == mTaskQuery) {
+            return;
+        }
+        mTaskQuery = query;
+        // The old query is stopped, a result it is still working on is dropped
+        unsubscribe();
+        showTasks();
+    }
 
-            // onStartLoading() is called when a loader first starts loading data
-            @Override
-            protected void onStartLoading() {
-                if (mTaskData != null) {
-                    // Delivers any previously loaded data immediately
-                    deliverResult(mTaskData);
-                } else {
-                    // Force a new load
-                    forceLoad();
-                }
-            }
 
-            // loadInBackground() performs asynchronous loading of data
-            @Override
-            public Cursor loadInBackground() {
-                // Will implement to load data
-
-                // Query and load all task data in the background; sort by priority
-
-                try {
-                    return getContentResolver().query(TaskContract.TaskEntry.CONTENT_URI,
-                            null,
-                            null,
-                            null,
-                            TaskContract.TaskEntry.COLUMN_PRIORITY);
-
-                } catch (Exception e) {
-                    Log.e(TAG, "Failed to asynchronously load data.");
-                    e.printStackTrace();
-                    return null;
-                }
-            }
+    // Displays the tasks of mTaskQuery: a page at a time if they are all the tasks of
+    // a large table, otherwise from the query while the activity is started
+    private void showTasks() {
+        boolean paging = mPagingSource != null && mTaskQuery == TaskQueries.allTasks(this);
+        mAdapter.setPagingSource(paging ? mPagingSource : null);
+        if (paging) {
+            unsubscribe();
+        } else if (mStarted && mSubscription == null) {
+            mSubscription = mTaskQuery.subscribe(this);
+        }
+    }
 
-            // deliverResult sends the result of the load, a Cursor, to the registered listener
-            public void deliverResult(Cursor data) {
-                mTaskData = data;
-                super.deliverResult(data);
-            }
-        };
+
+    private void unsubscribe() {
+        if (mSubscription != null) {
+            mSubscription.unsubscribe();
+            mSubscription = null;
+        }
     }
 
 
     /**
-     * Called when a previously created loader has finished its load.
+     * Called with the tasks whenever the query has loaded them.
      *
-     * @param loader The Loader that has finished.
-     * @param data   The data generated by the Loader.
+     * @param data The tasks of the query
      */
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        // Update the data that the adapter uses to create ViewHolders
-        mAdapter.swapCursor(data);
+    public void onResult(TaskSnapshot data) {
+        Tracer.beginSection("MainActivity.onResult");
+        try {
+            // Update the data that the adapter uses to create ViewHolders
+            mAdapter.swapSnapshot(data);
+        } finally {
+            Tracer.endSection();
+        }
     }
 
 
-    /**
-     * Called when a previously created loader is being reset, and thus
-     * making its data unavailable.
-     * onLoaderReset removes any references this activity had to the loader's data.
-     *
-     * @param loader The Loader that is being reset.
-     */
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        mAdapter.swapCursor(null);
+    public void onError(Exception e) {
+        Log.e(TAG, "Failed to load the tasks.", e);
     }
 
 
@@ -258,23 +324,18 @@ public class MainActivity extends AppCompatActivity implements
 
     /**
      * This method is called after the user presses 'Save' button in EditTaskDialogFragment.
-     * Edited data of the task puts into ContentResolver, then database updates, and then
-     * restarts the loader to re-query the underlying data for any changes.
+     * Edited data of the task is queued on the TaskWriter, which updates the database
+     * in the background, and the loader is notified of the changed row.
      */
     @Override
-    public void onFinishEditTaskDialog(int position, String description, int priority) {
-        // Update new task data via a ContentResolver.
+    public void onFinishEditTaskDialog(int taskId, String description, int priority) {
+        // Update new task data via the TaskWriter.
         // Create new empty ContentValues object.
         ContentValues contentValues = new ContentValues();
         // Put the task description and selected priority into the ContentValues
         contentValues.put(TaskContract.TaskEntry.COLUMN_DESCRIPTION, description);
         contentValues.put(TaskContract.TaskEntry.COLUMN_PRIORITY, priority);
-        // Create uri path with id of edited task
-        Uri uri = Uri.withAppendedPath(
-                TaskContract.TaskEntry.CONTENT_URI, Integer.toString(position));
-        // Update the content values via a ContentResolver
-        getContentResolver().update(uri, contentValues, null, null);
-        // Restart the loader to re-query for all tasks after an editing
-        getSupportLoaderManager().restartLoader(TASK_LOADER_ID, null, MainActivity.this);
+        // Queue the update of the edited task
+        mTaskWriter.update(taskId, contentValues, mWriteCallback);
     }
 }
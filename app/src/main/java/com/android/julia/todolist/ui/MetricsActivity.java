@@ -0,0 +1,84 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.ui;
+
+
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.SwitchCompat;
+import android.widget.CompoundButton;
+import android.widget.TextView;
+
+import com.android.julia.todolist.R;
+import com.android.julia.todolist.metrics.Metrics;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import butterknife.BindView;
+import butterknife.ButterKnife;
+import butterknife.OnCheckedChanged;
+import butterknife.OnClick;
+
+
+/**
+ * Debug screen that shows the latency histograms and counters of the Metrics registry,
+ * and turns collecting them on and off.
+ */
+public class MetricsActivity extends AppCompatActivity {
+
+    @BindView(R.id.switchMetricsEnabled) SwitchCompat mEnabledSwitch;
+    @BindView(R.id.textViewMetrics) TextView mMetricsTextView;
+
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_metrics);
+        ButterKnife.bind(this);
+    }
+
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mEnabledSwitch.setChecked(Metrics.isEnabled());
+        refresh();
+    }
+
+
+    @OnCheckedChanged(R.id.switchMetricsEnabled)
+    void onEnabledChanged(CompoundButton button, boolean enabled) {
+        Metrics.setEnabled(enabled);
+        refresh();
+    }
+
+
+    @OnClick(R.id.buttonResetMetrics)
+    void reset() {
+        Metrics.reset();
+        refresh();
+    }
+
+
+    @OnClick(R.id.buttonRefreshMetrics)
+    void refresh() {
+        StringWriter metrics = new StringWriter();
+        Metrics.dump(new PrintWriter(metrics));
+        mMetricsTextView.setText(metrics.toString());
+    }
+}
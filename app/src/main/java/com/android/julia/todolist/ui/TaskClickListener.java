@@ -3,5 +3,5 @@ package com.android.julia.todolist.ui;
 import android.view.View;
 
 public interface TaskClickListener {
-    void onTaskClick(View v, int position, String description, int priority);
+    void onTaskClick(View v, int taskId);
 }
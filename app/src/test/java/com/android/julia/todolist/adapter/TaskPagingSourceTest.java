@@ -0,0 +1,199 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.android.julia.todolist.adapter;
+
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+
+import com.android.julia.todolist.BuildConfig;
+import com.android.julia.todolist.data.ProviderTestRule;
+import com.android.julia.todolist.data.TaskContract.TaskEntry;
+import com.android.julia.todolist.data.TestScheduler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.android.julia.todolist.adapter.TaskPagingSource.EVICT_DISTANCE;
+import static com.android.julia.todolist.adapter.TaskPagingSource.PAGE_SIZE;
+import static com.android.julia.todolist.adapter.TaskPagingSource.PREFETCH_PAGES;
+import static com.android.julia.todolist.data.ProviderTestRule.task;
+import static com.android.julia.todolist.data.ProviderTestRule.taskUri;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Pages through the tasks of a real provider, with the loads run on a TestScheduler,
+ * and checks which pages are in memory and what the list is told as it changes.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class TaskPagingSourceTest {
+
+    private static final int TASK_COUNT = 20 * PAGE_SIZE;
+
+    @Rule
+    public final ProviderTestRule mProvider = new ProviderTestRule();
+
+    private ContentResolver mResolver;
+    private TestScheduler mScheduler;
+    private RecordingCallback mCallback;
+    private TaskPagingSource mSource;
+
+
+    @Before
+    public void setUp() {
+        mResolver = mProvider.getResolver();
+        // All tasks have the same priority, so they are listed in the order of their ids
+        ContentValues[] values = new ContentValues[TASK_COUNT];
+        for (int i = 0; i < TASK_COUNT; i++) {
+            values[i] = task("Task " + i, 2);
+        }
+        mResolver.bulkInsert(TaskEntry.CONTENT_URI, values);
+
+        mScheduler = new TestScheduler();
+        mCallback = new RecordingCallback();
+        mSource = new TaskPagingSource(mResolver, mScheduler, mScheduler);
+        mSource.setCallback(mCallback);
+        mScheduler.runDueTasks();
+    }
+
+
+    @After
+    public void tearDown() {
+        mSource.close();
+    }
+
+
+    @Test
+    public void firstPagesArePrefetched() {
+        int loaded = (1 + PREFETCH_PAGES) * PAGE_SIZE;
+        assertEquals(loaded, mSource.getCount());
+        assertTrue(mSource.isLoaded(loaded - 1));
+        assertEquals("Task " + (loaded - 1), mSource.getDescription(loaded - 1));
+
+        List<String> expected = new ArrayList<>();
+        for (int page = 0; page <= PREFETCH_PAGES; page++) {
+            expected.add("inserted " + page * PAGE_SIZE + " " + PAGE_SIZE);
+        }
+        assertEquals(expected, mCallback.events);
+
+        // Getting close to the end loads the pages after it
+        mSource.loadAround(loaded - 1);
+        mScheduler.runDueTasks();
+        assertEquals(loaded + PREFETCH_PAGES * PAGE_SIZE, mSource.getCount());
+    }
+
+
+    @Test
+    public void farPagesAreEvicted() {
+        int page = 2 * EVICT_DISTANCE;
+        int position = page * PAGE_SIZE;
+        // The pages before it are found one after the other
+        mSource.loadAround(position);
+        mScheduler.runDueTasks();
+        assertTrue(mSource.isLoaded(position));
+        assertEquals("Task " + position, mSource.getDescription(position));
+        assertEquals((page + 1 + PREFETCH_PAGES) * PAGE_SIZE, mSource.getCount());
+        assertFalse(mSource.isLoaded((page - EVICT_DISTANCE - 1) * PAGE_SIZE));
+        assertTrue(mSource.isLoaded((page - EVICT_DISTANCE) * PAGE_SIZE));
+
+        // An evicted page is loaded again from the key it was found with
+        mCallback.events.clear();
+        mSource.loadAround(0);
+        mScheduler.runDueTasks();
+        assertTrue(mSource.isLoaded(0));
+        assertEquals("Task 0", mSource.getDescription(0));
+        assertFalse(mSource.isLoaded(position));
+        assertEquals("changed 0 " + PAGE_SIZE, mCallback.events.get(0));
+    }
+
+
+    @Test
+    public void changesAreLoadedInPlace() {
+        int count = mSource.getCount();
+        long first = mSource.getId(0);
+        mResolver.delete(taskUri(first), null, null);
+
+        // Until the pages are loaded again, the list stays as it was
+        assertEquals(count, mSource.getCount());
+        assertEquals(first, mSource.getId(0));
+
+        mCallback.events.clear();
+        mScheduler.runDueTasks();
+        assertEquals(count, mSource.getCount());
+        assertEquals("Task 1", mSource.getDescription(0));
+        assertEquals("Task " + count, mSource.getDescription(count - 1));
+        List<String> expected = new ArrayList<>();
+        for (int page = 0; page <= PREFETCH_PAGES; page++) {
+            expected.add("changed " + page * PAGE_SIZE + " " + PAGE_SIZE);
+        }
+        assertEquals(expected, mCallback.events);
+    }
+
+
+    @Test
+    public void shrinkingTableRemovesTheEnd() {
+        int count = mSource.getCount();
+        int left = PAGE_SIZE + PAGE_SIZE / 2;
+        mResolver.delete(TaskEntry.CONTENT_URI, TaskEntry._ID + " > ?",
+                new String[]{Long.toString(mSource.getId(left - 1))});
+        mCallback.events.clear();
+        mScheduler.runDueTasks();
+
+        assertEquals(left, mSource.getCount());
+        assertEquals("Task " + (left - 1), mSource.getDescription(left - 1));
+        List<String> expected = new ArrayList<>();
+        expected.add("changed 0 " + PAGE_SIZE);
+        expected.add("changed " + PAGE_SIZE + " " + (left - PAGE_SIZE));
+        expected.add("removed " + left + " " + (count - left));
+        assertEquals(expected, mCallback.events);
+        assertFalse(mSource.isLoaded(2 * PAGE_SIZE));
+    }
+
+
+    // Records what the list is told, e.g. "inserted 0 50"
+    private static final class RecordingCallback implements TaskPagingSource.Callback {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            events.add("inserted " + positionStart + " " + itemCount);
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount) {
+            events.add("changed " + positionStart + " " + itemCount);
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            events.add("removed " + positionStart + " " + itemCount);
+        }
+    }
+}
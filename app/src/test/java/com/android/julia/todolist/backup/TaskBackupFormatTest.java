@@ -0,0 +1,177 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.backup;
+
+
+import com.android.julia.todolist.BuildConfig;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+/**
+ * Round trips tasks through every backup format. The JSON lines are read and written with
+ * android.util's JsonReader and JsonWriter, so the tests run on Robolectric.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class TaskBackupFormatTest {
+
+    private static final String[] DESCRIPTIONS = {
+            "Go shopping",
+            "",
+            "Say \"hi\" to C:\\Users\\me",
+            "Two\nlines\tand a tab",
+            "Čaj ☕ \u0001",
+    };
+
+
+    @Test
+    public void everyFormatRoundTrips() throws IOException {
+        for (int format : new int[]{
+                TaskBackupFormat.FORMAT_BINARY, TaskBackupFormat.FORMAT_JSON_LINES}) {
+            for (boolean compress : new boolean[]{false, true}) {
+                byte[] backup = write(format, compress);
+                assertEquals(format + " " + compress, list(DESCRIPTIONS), read(backup));
+            }
+        }
+    }
+
+
+    @Test
+    public void emptyBackups() throws IOException {
+        assertEquals(0, read(new byte[0]).size());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TaskBackupFormat.newWriter(out, TaskBackupFormat.FORMAT_BINARY, true).finish();
+        assertEquals(0, read(out.toByteArray()).size());
+    }
+
+
+    @Test
+    public void jsonLinesIgnoreUnknownKeysAndBlankLines() throws IOException {
+        String backup = "{ \"id\": 7, \"description\" : \"Go\\u0020shopping\", \"done\": false," +
+                " \"priority\": 3 }\n\n{\"priority\":1,\"description\":\"Learn guitar\"}\n";
+        TaskBackupFormat.Reader reader = reader(backup.getBytes("UTF-8"));
+        assertTrue(reader.next());
+        assertEquals("Go shopping", reader.getDescription());
+        assertEquals(3, reader.getPriority());
+        assertTrue(reader.next());
+        assertEquals("Learn guitar", reader.getDescription());
+        assertEquals(1, reader.getPriority());
+        assertFalse(reader.next());
+    }
+
+
+    @Test
+    public void jsonLinesIgnoreNestedValues() throws IOException {
+        String backup = "{\"tags\": [\"home\", {\"color\": \"red, or }\"}, [], [1 ,2]]," +
+                " \"meta\": {\"created\": 1, \"by\": {}}, \"description\": \"Go shopping\"," +
+                " \"priority\": 3}\n";
+        TaskBackupFormat.Reader reader = reader(backup.getBytes("UTF-8"));
+        assertTrue(reader.next());
+        assertEquals("Go shopping", reader.getDescription());
+        assertEquals(3, reader.getPriority());
+        assertFalse(reader.next());
+    }
+
+
+    @Test
+    public void badLinesAreReported() throws IOException {
+        for (String line : new String[]{
+                "{\"description\":\"Go shopping\"}",
+                "{\"description\":\"Go shopping,\"priority\":1}",
+                "{\"description\":\"Go shopping\",\"priority\":\"high\"}",
+                "{\"tags\":[1, 2},\"description\":\"Go shopping\",\"priority\":1}",
+                "[1, 2]"}) {
+            try {
+                reader(line.getBytes("UTF-8")).next();
+                fail("Accepted " + line);
+            } catch (IOException expected) {
+                // The message names the line
+            }
+        }
+    }
+
+
+    @Test
+    public void corruptLengthsAreReported() throws IOException {
+        byte[] backup = write(TaskBackupFormat.FORMAT_BINARY, false);
+        for (int length : new int[]{-2, Integer.MAX_VALUE}) {
+            // The length of the first description, after the magic and the version
+            byte[] corrupt = backup.clone();
+            for (int i = 0; i < 4; i++) {
+                corrupt[8 + i] = (byte) (length >>> (24 - 8 * i));
+            }
+            try {
+                reader(corrupt).next();
+                fail("Accepted a description of " + length + " bytes");
+            } catch (IOException expected) {
+                assertTrue(expected.getMessage(),
+                        expected.getMessage().startsWith("Corrupt backup"));
+            }
+        }
+    }
+
+
+    private static byte[] write(int format, boolean compress) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TaskBackupFormat.Writer writer = TaskBackupFormat.newWriter(out, format, compress);
+        for (int i = 0; i < DESCRIPTIONS.length; i++) {
+            writer.write(DESCRIPTIONS[i], i);
+        }
+        writer.finish();
+        return out.toByteArray();
+    }
+
+
+    private static List<String> read(byte[] backup) throws IOException {
+        TaskBackupFormat.Reader reader = reader(backup);
+        List<String> descriptions = new ArrayList<>();
+        while (reader.next()) {
+            assertEquals(descriptions.size(), reader.getPriority());
+            descriptions.add(reader.getDescription());
+        }
+        return descriptions;
+    }
+
+
+    private static TaskBackupFormat.Reader reader(byte[] backup) throws IOException {
+        return TaskBackupFormat.newReader(new ByteArrayInputStream(backup));
+    }
+
+
+    private static List<String> list(String... values) {
+        List<String> list = new ArrayList<>();
+        for (String value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+}
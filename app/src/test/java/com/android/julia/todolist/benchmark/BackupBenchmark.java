@@ -0,0 +1,153 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.benchmark;
+
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+
+import com.android.julia.todolist.BuildConfig;
+import com.android.julia.todolist.backup.TaskBackup;
+import com.android.julia.todolist.backup.TaskBackupFormat;
+import com.android.julia.todolist.data.ProviderTestRule;
+import com.android.julia.todolist.data.TaskContract.TaskEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+
+/**
+ * Exports the tasks table to a file and imports it back, in every backup format, at
+ * growing table sizes. The round trip of the compressed binary format has to stay within
+ * ROUND_TRIP_BUDGET_MS_PER_MILLION, which leaves room for a slow CI machine.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class BackupBenchmark {
+
+    private static final int FILL_CHUNK = 1000;
+    private static final long ROUND_TRIP_BUDGET_MS_PER_MILLION = 120000;
+
+    @Rule
+    public final ProviderTestRule mProvider = new ProviderTestRule();
+
+    private ContentResolver mResolver;
+    private Benchmark mBenchmark;
+    private File mFile;
+
+
+    @Before
+    public void setUp() throws Exception {
+        assumeTrue(Benchmark.isEnabled());
+        mResolver = mProvider.getResolver();
+        mBenchmark = new Benchmark("backup");
+        mFile = File.createTempFile("tasks", ".backup");
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        if (mBenchmark != null) {
+            mBenchmark.writeResults();
+        }
+        if (mFile != null && !mFile.delete()) {
+            mFile.deleteOnExit();
+        }
+    }
+
+
+    @Test
+    public void exportAndImport() throws Exception {
+        for (int size : Benchmark.getTableSizes()) {
+            fill(size);
+            roundTrip("binary", size, TaskBackupFormat.FORMAT_BINARY, false);
+            long nanos = roundTrip("binary_gzip", size, TaskBackupFormat.FORMAT_BINARY, true);
+            roundTrip("json_lines", size, TaskBackupFormat.FORMAT_JSON_LINES, false);
+            roundTrip("json_lines_gzip", size, TaskBackupFormat.FORMAT_JSON_LINES, true);
+
+            long budgetMs = Math.max(1000, ROUND_TRIP_BUDGET_MS_PER_MILLION * size / 1000000);
+            assertTrue("Round trip of " + size + " tasks took " + nanos / 1000000 + " ms",
+                    nanos <= budgetMs * 1000000);
+        }
+    }
+
+
+    // Exports all tasks, deletes them and imports them back; returns the time it took
+    private long roundTrip(String name, int size, int format, boolean compress)
+            throws Exception {
+        long start = System.nanoTime();
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(mFile));
+        int exported;
+        try {
+            exported = TaskBackup.exportTasks(mResolver, out, format, compress);
+        } finally {
+            out.close();
+        }
+        long exportNanos = System.nanoTime() - start;
+        assertEquals(size, exported);
+        mBenchmark.record("export_" + name, size, exportNanos, -1);
+        // The bytes of the backup file, rather than allocated bytes
+        mBenchmark.record("file_size_" + name, size, 0, mFile.length());
+
+        mResolver.delete(TaskEntry.CONTENT_URI, null, null);
+
+        start = System.nanoTime();
+        InputStream in = new BufferedInputStream(new FileInputStream(mFile));
+        int imported;
+        try {
+            imported = TaskBackup.importTasks(mResolver, in);
+        } finally {
+            in.close();
+        }
+        long importNanos = System.nanoTime() - start;
+        assertEquals(size, imported);
+        mBenchmark.record("import_" + name, size, importNanos, -1);
+        return exportNanos + importNanos;
+    }
+
+
+    private void fill(int size) {
+        mResolver.delete(TaskEntry.CONTENT_URI, null, null);
+        ContentValues[] chunk = new ContentValues[FILL_CHUNK];
+        for (int filled = 0; filled < size; filled += FILL_CHUNK) {
+            for (int i = 0; i < FILL_CHUNK; i++) {
+                chunk[i] = new ContentValues();
+                chunk[i].put(TaskEntry.COLUMN_DESCRIPTION,
+                        "Task number " + (filled + i) + " to get done");
+                chunk[i].put(TaskEntry.COLUMN_PRIORITY, 1 + (filled + i) % 3);
+            }
+            mResolver.bulkInsert(TaskEntry.CONTENT_URI, chunk);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.benchmark;
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * Benchmark is a small measuring harness for the JVM benchmarks of the data layer.
+ *
+ * Each operation is warmed up, then timed over a number of iterations, while the bytes
+ * allocated by the benchmark thread are counted; those of other threads are not, which the
+ * JSON file the results of a run are written to says. Runs on different commits can be
+ * compared through those files.
+ *
+ * Benchmarks only run when the build is started with -Pbenchmark, e.g.
+ * ./gradlew testDebugUnitTest -Pbenchmark -PbenchmarkSizes=1000,10000
+ */
+public final class Benchmark {
+
+    private static final String PROPERTY_ENABLED = "todolist.benchmark";
+    private static final String PROPERTY_SIZES = "todolist.benchmark.sizes";
+    private static final String PROPERTY_OUTPUT = "todolist.benchmark.output";
+
+    private static final String DEFAULT_SIZES = "1000,10000,100000,1000000";
+
+    // What the allocated bytes of a measured operation cover: work it hands to other
+    // threads, like the diff of a task list, isn't counted
+    private static final String ALLOCATION_SCOPE = "calling thread only";
+
+
+    /**
+     * Something to measure. The iteration index can be used to pick different rows.
+     */
+    public interface Operation {
+        void run(int iteration) throws Exception;
+    }
+
+
+    /**
+     * The measurements of one operation at one table size.
+     */
+    public static final class Result {
+        public final String name;
+        public final int tableSize;
+        public final int iterations;
+        public final double nanosPerOp;
+        public final double opsPerSecond;
+        public final double bytesPerOp;
+
+        Result(String name, int tableSize, int iterations, long nanos, long bytes) {
+            this.name = name;
+            this.tableSize = tableSize;
+            this.iterations = iterations;
+            this.nanosPerOp = (double) nanos / iterations;
+            this.opsPerSecond = nanos == 0 ? 0 : iterations * 1e9 / nanos;
+            this.bytesPerOp = bytes < 0 ? -1 : (double) bytes / iterations;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%-28s %9d rows %14.0f ns/op %12.1f ops/s %12.1f B/op",
+                    name, tableSize, nanosPerOp, opsPerSecond, bytesPerOp);
+        }
+    }
+
+
+    private final String mSuite;
+    private final List<Result> mResults = new ArrayList<>();
+
+
+    public Benchmark(String suite) {
+        mSuite = suite;
+    }
+
+
+    /**
+     * Returns true if benchmarks were asked for in this run.
+     */
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean(System.getProperty(PROPERTY_ENABLED, "false"));
+    }
+
+
+    /**
+     * Returns the table sizes to run the benchmarks at.
+     */
+    public static int[] getTableSizes() {
+        String[] values = System.getProperty(PROPERTY_SIZES, DEFAULT_SIZES).split(",");
+        int[] sizes = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            sizes[i] = Integer.parseInt(values[i].trim());
+        }
+        return sizes;
+    }
+
+
+    /**
+     * Measures an operation and records the result.
+     */
+    public Result measure(String name, int tableSize, int warmupIterations, int iterations,
+                          Operation operation) throws Exception {
+        for (int i = 0; i < warmupIterations; i++) {
+            operation.run(i);
+        }
+
+        long bytesBefore = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            operation.run(warmupIterations + i);
+        }
+        long nanos = System.nanoTime() - start;
+        long bytesAfter = allocatedBytes();
+
+        Result result = new Result(name, tableSize, iterations, nanos,
+                bytesBefore < 0 ? -1 : bytesAfter - bytesBefore);
+        mResults.add(result);
+        System.out.println(mSuite + ": " + result);
+        return result;
+    }
+
+
+    /**
+     * Records a value that was measured by the benchmark itself, e.g. a memory footprint.
+     */
+    public Result record(String name, int tableSize, long nanos, long bytes) {
+        Result result = new Result(name, tableSize, 1, nanos, bytes);
+        mResults.add(result);
+        System.out.println(mSuite + ": " + result);
+        return result;
+    }
+
+
+    /**
+     * Returns the bytes in use on the heap after garbage collection, so that the difference
+     * between two calls is what was retained in between.
+     */
+    public static long usedHeapBytes() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        // A single gc() is only a hint, repeat until the heap stops shrinking
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            long now = runtime.totalMemory() - runtime.freeMemory();
+            if (now >= used) {
+                return now;
+            }
+            used = now;
+        }
+        return used;
+    }
+
+
+    /**
+     * Returns the file with the given name in the directory the results are written to.
+     */
+    public static File getOutputFile(String name) {
+        return new File(System.getProperty(PROPERTY_OUTPUT, "build/benchmarks"), name);
+    }
+
+
+    /**
+     * Writes the recorded results as JSON, next to the results of other suites.
+     */
+    public void writeResults() throws IOException {
+        File output = getOutputFile(mSuite + ".json");
+        File directory = output.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(output), "UTF-8");
+        try {
+            writer.write("{\n  \"suite\": \"" + mSuite + "\",\n");
+            writer.write("  \"allocationScope\": \"" + ALLOCATION_SCOPE + "\",\n");
+            writer.write("  \"results\": [\n");
+            for (int i = 0; i < mResults.size(); i++) {
+                Result r = mResults.get(i);
+                writer.write(String.format(Locale.ROOT,
+                        "    {\"name\": \"%s\", \"tableSize\": %d, \"iterations\": %d, " +
+                                "\"nanosPerOp\": %.1f, \"opsPerSecond\": %.1f, " +
+                                "\"bytesPerOp\": %.1f}%s\n",
+                        r.name, r.tableSize, r.iterations, r.nanosPerOp, r.opsPerSecond,
+                        r.bytesPerOp, i < mResults.size() - 1 ? "," : ""));
+            }
+            writer.write("  ]\n}\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+
+    // Bytes allocated so far by the current thread, or -1 if the JVM can't tell
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,269 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.benchmark;
+
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+import android.widget.FrameLayout;
+
+import com.android.julia.todolist.BuildConfig;
+import com.android.julia.todolist.adapter.TaskListAdapter;
+import com.android.julia.todolist.data.ProviderTestRule;
+import com.android.julia.todolist.data.TaskContract.TaskEntry;
+import com.android.julia.todolist.data.TaskSnapshot;
+import com.android.julia.todolist.metrics.TraceRecorder;
+import com.android.julia.todolist.metrics.Tracer;
+import com.android.julia.todolist.ui.TaskClickListener;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import static org.junit.Assume.assumeTrue;
+import static com.android.julia.todolist.data.ProviderTestRule.taskUri;
+
+
+/**
+ * Measures the TaskContentProvider operations and TaskListAdapter binding
+ * on the JVM, against the real SQLite that Robolectric runs, at growing table sizes,
+ * and the memory a loaded task list takes as a TaskSnapshot and as a filled SQLite Cursor.
+ * The table is filled in chunks of FILL_CHUNK rows, so sizes should be multiples of it.
+ * The trace sections of the run are written to data_layer.trace.json, for Perfetto.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class DataLayerBenchmark {
+
+    // Rows per bulkInsert() call when filling the table
+    private static final int FILL_CHUNK = 1000;
+    private static final int PAGE_SIZE = 50;
+    // Memory is reported per this many tasks
+    private static final int MEMORY_UNIT = 100000;
+
+    @Rule
+    public final ProviderTestRule mProvider = new ProviderTestRule();
+
+    private ContentResolver mResolver;
+    private Benchmark mBenchmark;
+    private TraceRecorder mTraceRecorder;
+
+
+    @Before
+    public void setUp() {
+        assumeTrue(Benchmark.isEnabled());
+        mResolver = mProvider.getResolver();
+        mBenchmark = new Benchmark("data_layer");
+        mTraceRecorder = TraceRecorder.install();
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        if (mBenchmark != null) {
+            mBenchmark.writeResults();
+        }
+        if (mTraceRecorder != null) {
+            Tracer.setRecorder(null);
+            mTraceRecorder.writeTrace(Benchmark.getOutputFile("data_layer.trace.json"));
+        }
+    }
+
+
+    @Test
+    public void providerAndAdapter() throws Exception {
+        for (int size : Benchmark.getTableSizes()) {
+            runAtSize(size);
+        }
+    }
+
+
+    private void runAtSize(final int size) throws Exception {
+        mResolver.delete(TaskEntry.CONTENT_URI, null, null);
+
+        // Fill the table, which measures the batch insert path at the same time
+        mBenchmark.measure("bulk_insert_" + FILL_CHUNK, size, 0, size / FILL_CHUNK,
+                new Benchmark.Operation() {
+                    @Override
+                    public void run(int iteration) {
+                        ContentValues[] chunk = new ContentValues[FILL_CHUNK];
+                        for (int i = 0; i < FILL_CHUNK; i++) {
+                            chunk[i] = task(iteration * FILL_CHUNK + i);
+                        }
+                        mResolver.bulkInsert(TaskEntry.CONTENT_URI, chunk);
+                    }
+                });
+
+        // Whole list, as the loader reads it, scaled down so that each size takes similar time
+        int listIterations = Math.max(1, 100000 / size);
+        mBenchmark.measure("query_all", size, 1, listIterations, new Benchmark.Operation() {
+            @Override
+            public void run(int iteration) {
+                readAll(queryAll());
+            }
+        });
+
+        mBenchmark.measure("query_page_offset", size, 10, 200, new Benchmark.Operation() {
+            @Override
+            public void run(int iteration) {
+                readAll(mResolver.query(TaskEntry.buildPageUri(PAGE_SIZE, size / 2),
+                        null, null, null, TaskEntry.SORT_ORDER_PRIORITY));
+            }
+        });
+
+        mBenchmark.measure("query_page_keyset", size, 10, 200, new Benchmark.Operation() {
+            @Override
+            public void run(int iteration) {
+                readAll(mResolver.query(TaskEntry.buildPageUri(PAGE_SIZE, 2, size / 2),
+                        null, null, null, TaskEntry.SORT_ORDER_PRIORITY));
+            }
+        });
+
+        mBenchmark.measure("insert", size, 100, 1000, new Benchmark.Operation() {
+            @Override
+            public void run(int iteration) {
+                mResolver.insert(TaskEntry.CONTENT_URI, task(size + iteration));
+            }
+        });
+
+        mBenchmark.measure("update_by_id", size, 100, 1000, new Benchmark.Operation() {
+            @Override
+            public void run(int iteration) {
+                mResolver.update(taskUri(1 + (iteration * 7919) % size),
+                        task(iteration), null, null);
+            }
+        });
+
+        mBenchmark.measure("delete_by_id", size, 100, 1000, new Benchmark.Operation() {
+            @Override
+            public void run(int iteration) {
+                mResolver.delete(taskUri(1 + iteration), null, null);
+            }
+        });
+
+        measureMemory(size);
+        measureBind(size);
+    }
+
+
+    // The heap retained by the whole task list, held by a SQLite Cursor with its CursorWindow
+    // filled the way the loader used to keep it, and held by a TaskSnapshot. Both are read
+    // from SQLite: without a selection the provider would answer from its cache instead.
+    // Robolectric keeps the CursorWindow rows in Java objects rather than in the native
+    // memory Android uses, so the cursor figure only approximates what a device would take.
+    private void measureMemory(int size) {
+        long before = Benchmark.usedHeapBytes();
+        Cursor cursor = queryAllFromDatabase();
+        cursor.getCount();
+        long cursorBytes = Benchmark.usedHeapBytes() - before;
+        cursor.close();
+
+        before = Benchmark.usedHeapBytes();
+        cursor = queryAllFromDatabase();
+        TaskSnapshot snapshot = TaskSnapshot.fromCursor(cursor);
+        cursor.close();
+        long snapshotBytes = Benchmark.usedHeapBytes() - before;
+
+        mBenchmark.record("memory_per_100k_cursor_robolectric_window", size, 0,
+                cursorBytes * MEMORY_UNIT / size);
+        mBenchmark.record("memory_per_100k_snapshot", size, 0,
+                snapshotBytes * MEMORY_UNIT / size);
+        mBenchmark.record("memory_per_100k_snapshot_estimate", size, 0,
+                snapshot.getSizeInBytes() * MEMORY_UNIT / snapshot.getCount());
+    }
+
+
+    // Binds rows spread over the whole list, like a fling through it would
+    private void measureBind(int size) throws Exception {
+        Cursor cursor = queryAll();
+        TaskSnapshot snapshot = TaskSnapshot.fromCursor(cursor);
+        cursor.close();
+        final int count = snapshot.getCount();
+
+        TaskListAdapter adapter = new TaskListAdapter(RuntimeEnvironment.application,
+                new TaskClickListener() {
+                    @Override
+                    public void onTaskClick(View v, int taskId) {
+                    }
+                });
+        adapter.swapSnapshot(snapshot);
+        // The snapshot is swapped in once it has been diffed in the background
+        while (adapter.getItemCount() != count) {
+            Thread.sleep(10);
+            ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        }
+
+        @SuppressWarnings("unchecked")
+        final RecyclerView.Adapter<RecyclerView.ViewHolder> rawAdapter =
+                (RecyclerView.Adapter) adapter;
+        final RecyclerView.ViewHolder holder = rawAdapter.createViewHolder(
+                new FrameLayout(RuntimeEnvironment.application), 0);
+
+        mBenchmark.measure("bind_view_holder", size, 1000, 10000, new Benchmark.Operation() {
+            @Override
+            public void run(int iteration) {
+                rawAdapter.bindViewHolder(holder, (int) ((iteration * 7919L) % count));
+            }
+        });
+
+        adapter.swapSnapshot(null);
+    }
+
+
+    private Cursor queryAll() {
+        return mResolver.query(TaskEntry.CONTENT_URI, TaskEntry.LIST_PROJECTION, null, null,
+                TaskEntry.SORT_ORDER_PRIORITY);
+    }
+
+
+    // The whole list, with a selection that matches every task so that SQLite answers it
+    private Cursor queryAllFromDatabase() {
+        return mResolver.query(TaskEntry.CONTENT_URI, TaskEntry.LIST_PROJECTION, "1 = 1", null,
+                TaskEntry.SORT_ORDER_PRIORITY);
+    }
+
+
+    private static ContentValues task(int i) {
+        ContentValues values = new ContentValues();
+        values.put(TaskEntry.COLUMN_DESCRIPTION, "Task number " + i + " to get done");
+        values.put(TaskEntry.COLUMN_PRIORITY, 1 + i % 3);
+        return values;
+    }
+
+
+    // Reads every row of the cursor, the way a consumer of the query would
+    private static void readAll(Cursor cursor) {
+        try {
+            while (cursor.moveToNext()) {
+                cursor.getInt(0);
+                cursor.getString(1);
+                cursor.getInt(2);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.benchmark;
+
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.android.julia.todolist.BuildConfig;
+import com.android.julia.todolist.data.TaskContract.TaskEntry;
+import com.android.julia.todolist.data.TaskDbHelper;
+import com.android.julia.todolist.data.TaskMigrations;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+
+import static org.junit.Assume.assumeTrue;
+
+
+/**
+ * Upgrades a database of the first schema version, filled with tasks, to the current
+ * version, and records how long every migration step and the whole upgrade take.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class MigrationBenchmark {
+
+    private static final String DATABASE_NAME = "migrationBenchmark.db";
+
+    private Benchmark mBenchmark;
+
+
+    @Before
+    public void setUp() {
+        assumeTrue(Benchmark.isEnabled());
+        mBenchmark = new Benchmark("migration");
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        TaskDbHelper.setMigrationListener(null);
+        if (mBenchmark != null) {
+            mBenchmark.writeResults();
+        }
+        RuntimeEnvironment.application.deleteDatabase(DATABASE_NAME);
+    }
+
+
+    @Test
+    public void upgradeFromFirstVersion() {
+        for (int size : Benchmark.getTableSizes()) {
+            runAtSize(size);
+        }
+    }
+
+
+    private void runAtSize(final int size) {
+        RuntimeEnvironment.application.deleteDatabase(DATABASE_NAME);
+        createFirstVersion(RuntimeEnvironment.application.getDatabasePath(DATABASE_NAME), size);
+
+        TaskDbHelper.setMigrationListener(new TaskMigrations.Listener() {
+            @Override
+            public void onStepMigrated(int version, String description, long nanos) {
+                mBenchmark.record("migrate_to_v" + version, size, nanos, -1);
+            }
+        });
+        TaskDbHelper helper =
+                TaskDbHelper.newInstanceForTesting(RuntimeEnvironment.application, DATABASE_NAME);
+        long start = System.nanoTime();
+        helper.getWritableDatabase();
+        mBenchmark.record("migrate_all", size, System.nanoTime() - start, -1);
+        helper.close();
+    }
+
+
+    // Writes a database with the schema of version 1, the tasks table alone
+    private static void createFirstVersion(File file, int size) {
+        File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalStateException("Cannot create " + directory);
+        }
+
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        try {
+            db.execSQL("CREATE TABLE " + TaskEntry.TABLE_NAME + "(" +
+                    TaskEntry._ID + " INTEGER PRIMARY KEY, " +
+                    TaskEntry.COLUMN_DESCRIPTION + " TEXT NOT NULL, " +
+                    TaskEntry.COLUMN_PRIORITY + " INTEGER NOT NULL);");
+
+            SQLiteStatement insert = db.compileStatement("INSERT INTO " + TaskEntry.TABLE_NAME +
+                    " (" + TaskEntry.COLUMN_DESCRIPTION + ", " + TaskEntry.COLUMN_PRIORITY +
+                    ") VALUES (?, ?)");
+            db.beginTransaction();
+            try {
+                for (int i = 0; i < size; i++) {
+                    insert.bindString(1, "Task number " + i + " to get done");
+                    insert.bindLong(2, 1 + i % 3);
+                    insert.executeInsert();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            insert.close();
+            db.setVersion(1);
+        } finally {
+            db.close();
+        }
+    }
+}
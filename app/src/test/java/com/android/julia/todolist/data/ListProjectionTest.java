@@ -0,0 +1,103 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.data;
+
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+import com.android.julia.todolist.BuildConfig;
+import com.android.julia.todolist.data.TaskContract.TaskEntry;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+
+
+/**
+ * Checks that the task list projection shortens long descriptions the same way,
+ * whether the tasks come from TaskCache or from SQLite.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class ListProjectionTest {
+
+    @Rule
+    public final ProviderTestRule mProvider = new ProviderTestRule();
+
+    private ContentResolver mResolver;
+
+
+    @Before
+    public void setUp() {
+        mResolver = mProvider.getResolver();
+    }
+
+
+    @Test
+    public void longDescriptionsAreShortenedByCacheAndSqlite() {
+        StringBuilder description = new StringBuilder();
+        for (int i = 0; i < TaskEntry.LIST_DESCRIPTION_LENGTH * 3; i++) {
+            // A character outside the BMP is two chars, but a single character to SQLite
+            description.append(i % 10 == 0 ? "\uD83D\uDCDD" : "a");
+        }
+        String full = description.toString();
+        mProvider.insert("Short", 1);
+        mProvider.insert(full, 2);
+
+        String cached = listDescriptions(null)[1];
+        // A selection can't be answered from the cache
+        String queried = listDescriptions("1")[1];
+        assertEquals(queried, cached);
+        assertEquals(TaskEntry.LIST_DESCRIPTION_LENGTH,
+                cached.codePointCount(0, cached.length()));
+        assertEquals("Short", listDescriptions(null)[0]);
+
+        // The whole description is still there for a query of all columns
+        Cursor cursor = mResolver.query(TaskEntry.CONTENT_URI, null,
+                TaskEntry.COLUMN_PRIORITY + " = ?", new String[]{"2"}, null);
+        try {
+            cursor.moveToFirst();
+            assertEquals(full, cursor.getString(
+                    cursor.getColumnIndexOrThrow(TaskEntry.COLUMN_DESCRIPTION)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+
+    // The list descriptions of all tasks in priority order
+    private String[] listDescriptions(String selection) {
+        Cursor cursor = mResolver.query(TaskEntry.CONTENT_URI, TaskEntry.LIST_PROJECTION,
+                selection, null, TaskEntry.SORT_ORDER_PRIORITY);
+        try {
+            String[] descriptions = new String[cursor.getCount()];
+            int index = cursor.getColumnIndexOrThrow(TaskEntry.COLUMN_DESCRIPTION);
+            for (int i = 0; cursor.moveToNext(); i++) {
+                descriptions[i] = cursor.getString(index);
+            }
+            return descriptions;
+        } finally {
+            cursor.close();
+        }
+    }
+}
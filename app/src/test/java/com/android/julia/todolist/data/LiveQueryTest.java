@@ -0,0 +1,242 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.data;
+
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Runs LiveQuery on two TestSchedulers, one for the queries and one for the results,
+ * so that every interleaving is under the control of the test.
+ */
+public class LiveQueryTest {
+
+    private static final long DEBOUNCE = 100;
+    private static final long MAX_DELAY = 500;
+
+    private TestScheduler mWorker;
+    private TestScheduler mMain;
+    private FakeSource mSource;
+    private LiveQuery<Integer> mQuery;
+
+
+    @Before
+    public void setUp() {
+        mWorker = new TestScheduler();
+        mMain = new TestScheduler();
+        mSource = new FakeSource();
+        mQuery = new LiveQuery<>(mSource, mWorker, mMain, DEBOUNCE, MAX_DELAY);
+    }
+
+
+    @Test
+    public void subscribersShareOneQuery() {
+        RecordingObserver first = new RecordingObserver();
+        RecordingObserver second = new RecordingObserver();
+        mQuery.subscribe(first);
+        mQuery.subscribe(second);
+        runQueries();
+
+        assertEquals(1, mSource.queries);
+        assertEquals(list(1), first.results);
+        assertEquals(list(1), second.results);
+
+        // A late subscriber gets the latest result without a new query
+        RecordingObserver late = new RecordingObserver();
+        mQuery.subscribe(late);
+        runQueries();
+        assertEquals(1, mSource.queries);
+        assertEquals(list(1), late.results);
+    }
+
+
+    @Test
+    public void burstOfChangesRunsOneQuery() {
+        RecordingObserver observer = new RecordingObserver();
+        mQuery.subscribe(observer);
+        runQueries();
+
+        // Well within the maximum delay
+        for (int i = 0; i < 5; i++) {
+            mSource.notifyChange();
+            mMain.advanceBy(DEBOUNCE / 2);
+        }
+        assertEquals("No query while the changes go on", 1, mSource.queries);
+
+        mMain.advanceBy(DEBOUNCE);
+        runQueries();
+        assertEquals(2, mSource.queries);
+        assertEquals(list(1, 2), observer.results);
+    }
+
+
+    @Test
+    public void endlessChangesRunAQueryAfterTheMaximumDelay() {
+        mQuery.subscribe(new RecordingObserver());
+        runQueries();
+
+        for (long waited = 0; waited < MAX_DELAY; waited += DEBOUNCE / 2) {
+            mSource.notifyChange();
+            mMain.advanceBy(DEBOUNCE / 2);
+        }
+        runQueries();
+        assertEquals(2, mSource.queries);
+    }
+
+
+    @Test
+    public void staleQueryIsCancelledAndItsResultDropped() {
+        RecordingObserver observer = new RecordingObserver();
+        mSource.duringFirstQuery = new Runnable() {
+            @Override
+            public void run() {
+                // The tasks change while the first query is running
+                mSource.notifyChange();
+                mMain.advanceBy(DEBOUNCE);
+            }
+        };
+        mQuery.subscribe(observer);
+        runQueries();
+
+        assertEquals(2, mSource.queries);
+        assertTrue(mSource.signals.get(0).isCanceled());
+        assertFalse(mSource.signals.get(1).isCanceled());
+        assertEquals(list(2), observer.results);
+    }
+
+
+    @Test
+    public void queuedQueryIsSkippedOnceCancelled() {
+        RecordingObserver observer = new RecordingObserver();
+        mQuery.subscribe(observer);
+        // Changes before the first query even started
+        mSource.notifyChange();
+        mMain.advanceBy(DEBOUNCE);
+        runQueries();
+
+        assertEquals(1, mSource.queries);
+        assertEquals(list(1), observer.results);
+    }
+
+
+    @Test
+    public void lastUnsubscribeStopsWatchingAndQuerying() {
+        RecordingObserver observer = new RecordingObserver();
+        LiveQuery.Subscription subscription = mQuery.subscribe(observer);
+        runQueries();
+
+        subscription.unsubscribe();
+        assertNull(mSource.listener);
+
+        mQuery.subscribe(observer).unsubscribe();
+        runQueries();
+        assertEquals("Nothing is delivered after unsubscribing", list(1), observer.results);
+    }
+
+
+    @Test
+    public void errorsAreDelivered() {
+        RecordingObserver observer = new RecordingObserver();
+        mSource.failing = true;
+        mQuery.subscribe(observer);
+        runQueries();
+
+        assertEquals(0, observer.results.size());
+        assertEquals(1, observer.errors.size());
+    }
+
+
+    // Runs the queries that are due, then delivers their results
+    private void runQueries() {
+        mWorker.runDueTasks();
+        mMain.runDueTasks();
+    }
+
+
+    private static List<Integer> list(Integer... values) {
+        List<Integer> list = new ArrayList<>();
+        for (Integer value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+
+
+    // Returns the number of the query as its result
+    private static final class FakeSource implements LiveQuery.Source<Integer> {
+        int queries;
+        boolean failing;
+        Runnable listener;
+        Runnable duringFirstQuery;
+        final List<QuerySignal> signals = new ArrayList<>();
+
+        void notifyChange() {
+            if (listener != null) {
+                listener.run();
+            }
+        }
+
+        @Override
+        public Integer query(QuerySignal signal) throws Exception {
+            queries++;
+            signals.add(signal);
+            if (failing) {
+                throw new Exception("Query failed");
+            }
+            if (queries == 1 && duringFirstQuery != null) {
+                duringFirstQuery.run();
+            }
+            return queries;
+        }
+
+        @Override
+        public void observe(Runnable onChange) {
+            listener = onChange;
+        }
+
+        @Override
+        public void stopObserving(Runnable onChange) {
+            listener = null;
+        }
+    }
+
+
+    private static final class RecordingObserver implements LiveQuery.Observer<Integer> {
+        final List<Integer> results = new ArrayList<>();
+        final List<Exception> errors = new ArrayList<>();
+
+        @Override
+        public void onResult(Integer result) {
+            results.add(result);
+        }
+
+        @Override
+        public void onError(Exception e) {
+            errors.add(e);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.android.julia.todolist.data;
+
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+
+import com.android.julia.todolist.data.TaskContract.TaskEntry;
+
+import org.junit.rules.ExternalResource;
+import org.robolectric.Robolectric;
+import org.robolectric.RuntimeEnvironment;
+
+
+/**
+ * Gives every Robolectric test a TaskContentProvider of its own, on an empty database,
+ * and closes the database after the test:
+ *
+ *     @Rule
+ *     public final ProviderTestRule mProvider = new ProviderTestRule();
+ *
+ * The rule closes the database after the test's own @After methods have run.
+ */
+public class ProviderTestRule extends ExternalResource {
+
+    private ContentResolver mResolver;
+
+
+    @Override
+    protected void before() {
+        TaskDbHelper.resetInstance();
+        Robolectric.buildContentProvider(TaskContentProvider.class).create();
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+
+    @Override
+    protected void after() {
+        TaskDbHelper.resetInstance();
+    }
+
+
+    /**
+     * Returns the resolver that the provider of the test is registered with.
+     */
+    public ContentResolver getResolver() {
+        return mResolver;
+    }
+
+
+    /**
+     * Inserts a task through the provider and returns its id.
+     */
+    public long insert(String description, int priority) {
+        return ContentUris.parseId(mResolver.insert(TaskEntry.CONTENT_URI,
+                task(description, priority)));
+    }
+
+
+    /**
+     * Returns the values of a task with the given description and priority.
+     */
+    public static ContentValues task(String description, int priority) {
+        ContentValues values = new ContentValues();
+        values.put(TaskEntry.COLUMN_DESCRIPTION, description);
+        values.put(TaskEntry.COLUMN_PRIORITY, priority);
+        return values;
+    }
+
+
+    public static Uri taskUri(long id) {
+        return ContentUris.withAppendedId(TaskEntry.CONTENT_URI, id);
+    }
+}
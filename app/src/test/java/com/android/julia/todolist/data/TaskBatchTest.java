@@ -0,0 +1,195 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.android.julia.todolist.data;
+
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.android.julia.todolist.BuildConfig;
+import com.android.julia.todolist.data.TaskContract.TaskEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static com.android.julia.todolist.data.ProviderTestRule.taskUri;
+import static com.android.julia.todolist.data.ProviderTestRule.task;
+
+
+/**
+ * Checks that the writes of many tasks at once are all or nothing, and notify the
+ * observers of the tasks once: applyBatch(), bulkInsert() and the delete and update
+ * of the tasks directory.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class TaskBatchTest {
+
+    @Rule
+    public final ProviderTestRule mProvider = new ProviderTestRule();
+
+    private ContentResolver mResolver;
+    private final List<Uri> mNotifications = new ArrayList<>();
+    private final ContentObserver mObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            mNotifications.add(uri);
+        }
+    };
+
+
+    @Before
+    public void setUp() {
+        mResolver = mProvider.getResolver();
+        mResolver.registerContentObserver(TaskEntry.CONTENT_URI, true, mObserver);
+    }
+
+
+    @After
+    public void tearDown() {
+        mResolver.unregisterContentObserver(mObserver);
+    }
+
+
+    @Test
+    public void batchIsAppliedWithOneNotification() throws Exception {
+        long shopping = mProvider.insert("Go shopping", 2);
+        long laundry = mProvider.insert("Do the laundry", 3);
+        mNotifications.clear();
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(TaskEntry.CONTENT_URI)
+                .withValue(TaskEntry.COLUMN_DESCRIPTION, "Wash the dishes")
+                .withValue(TaskEntry.COLUMN_PRIORITY, 1)
+                .build());
+        operations.add(ContentProviderOperation.newUpdate(taskUri(shopping))
+                .withValue(TaskEntry.COLUMN_PRIORITY, 1)
+                .build());
+        operations.add(ContentProviderOperation.newDelete(taskUri(laundry)).build());
+        mResolver.applyBatch(TaskContract.AUTHORITY, operations);
+
+        assertEquals(Arrays.asList("Go shopping", "Wash the dishes"), queryDescriptions());
+        assertEquals(Arrays.asList(TaskEntry.CONTENT_URI), mNotifications);
+    }
+
+
+    @Test
+    public void failingOperationRollsBackTheWholeBatch() throws Exception {
+        long shopping = mProvider.insert("Go shopping", 2);
+        long laundry = mProvider.insert("Do the laundry", 3);
+        mNotifications.clear();
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(TaskEntry.CONTENT_URI)
+                .withValue(TaskEntry.COLUMN_DESCRIPTION, "Wash the dishes")
+                .withValue(TaskEntry.COLUMN_PRIORITY, 1)
+                .build());
+        operations.add(ContentProviderOperation.newUpdate(taskUri(shopping))
+                .withValue(TaskEntry.COLUMN_DESCRIPTION, "Go shopping for shoes")
+                .build());
+        // Fails in the middle of the batch
+        operations.add(ContentProviderOperation.newAssertQuery(TaskEntry.CONTENT_URI)
+                .withExpectedCount(100)
+                .build());
+        operations.add(ContentProviderOperation.newDelete(taskUri(laundry)).build());
+        try {
+            mResolver.applyBatch(TaskContract.AUTHORITY, operations);
+            fail("The batch should have failed");
+        } catch (OperationApplicationException expected) {
+            // The batch was rolled back
+        }
+
+        assertEquals(Arrays.asList("Go shopping", "Do the laundry"), queryDescriptions());
+        assertEquals("Nothing changed, so nothing is notified", 0, mNotifications.size());
+    }
+
+
+    @Test
+    public void bulkInsertNotifiesOnce() {
+        ContentValues[] values = new ContentValues[3];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = task("Task " + i, 1 + i);
+        }
+
+        assertEquals(3, mResolver.bulkInsert(TaskEntry.CONTENT_URI, values));
+        assertEquals(Arrays.asList("Task 0", "Task 1", "Task 2"), queryDescriptions());
+        assertEquals(Arrays.asList(TaskEntry.CONTENT_URI), mNotifications);
+    }
+
+
+    @Test
+    public void directoryIsUpdatedAndDeletedBySelection() {
+        mProvider.insert("Go shopping", 2);
+        mProvider.insert("Do the laundry", 2);
+        mProvider.insert("Wash the dishes", 3);
+        mNotifications.clear();
+
+        ContentValues values = new ContentValues();
+        values.put(TaskEntry.COLUMN_PRIORITY, 1);
+        assertEquals(2, mResolver.update(TaskEntry.CONTENT_URI, values,
+                TaskEntry.COLUMN_PRIORITY + " = ?", new String[]{"2"}));
+        assertEquals(Arrays.asList("Go shopping", "Do the laundry", "Wash the dishes"),
+                queryDescriptions());
+        assertEquals(Arrays.asList(TaskEntry.CONTENT_URI), mNotifications);
+
+        assertEquals(2, mResolver.delete(TaskEntry.CONTENT_URI,
+                TaskEntry.COLUMN_PRIORITY + " = ?", new String[]{"1"}));
+        assertEquals(Arrays.asList("Wash the dishes"), queryDescriptions());
+
+        assertEquals(1, mResolver.delete(TaskEntry.CONTENT_URI, null, null));
+        assertEquals(0, queryDescriptions().size());
+        assertEquals(3, mNotifications.size());
+
+        // Nothing left to delete, so nothing is notified
+        assertEquals(0, mResolver.delete(TaskEntry.CONTENT_URI, null, null));
+        assertEquals(3, mNotifications.size());
+    }
+
+
+    // The descriptions of the stored tasks in priority order, read from SQLite
+    private List<String> queryDescriptions() {
+        Cursor cursor = mResolver.query(TaskEntry.CONTENT_URI,
+                new String[]{TaskEntry.COLUMN_DESCRIPTION}, "1 = 1", null,
+                TaskEntry.SORT_ORDER_PRIORITY);
+        try {
+            List<String> descriptions = new ArrayList<>();
+            while (cursor.moveToNext()) {
+                descriptions.add(cursor.getString(0));
+            }
+            return descriptions;
+        } finally {
+            cursor.close();
+        }
+    }
+}
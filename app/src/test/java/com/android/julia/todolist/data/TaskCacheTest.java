@@ -0,0 +1,254 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.data;
+
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+
+import com.android.julia.todolist.BuildConfig;
+import com.android.julia.todolist.data.TaskContract.TaskEntry;
+import com.android.julia.todolist.metrics.Counter;
+import com.android.julia.todolist.metrics.Metrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static com.android.julia.todolist.data.ProviderTestRule.taskUri;
+
+
+/**
+ * Checks that the task list answered by TaskCache is always the one SQLite has: after every
+ * write, once the table outgrows the cache, and after a rolled back batch.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class TaskCacheTest {
+
+    // The columns the cache holds
+    private static final String[] COLUMNS = {
+            TaskEntry._ID, TaskEntry.COLUMN_DESCRIPTION, TaskEntry.COLUMN_PRIORITY};
+
+    @Rule
+    public final ProviderTestRule mProvider = new ProviderTestRule();
+
+    private ContentResolver mResolver;
+    private TaskCache mCache;
+
+
+    @Before
+    public void setUp() {
+        mResolver = mProvider.getResolver();
+        mCache = TaskCache.getInstance();
+    }
+
+
+    @After
+    public void tearDown() {
+        Metrics.setEnabled(false);
+        Metrics.reset();
+    }
+
+
+    @Test
+    public void writesGoThroughToTheCache() {
+        long shopping = mProvider.insert("Go shopping", 2);
+        long laundry = mProvider.insert("Do the laundry", 3);
+        queryCached();
+        assertNotNull("The first query loads the cache", cachedTasks());
+
+        long dishes = mProvider.insert("Wash the dishes", 1);
+        ContentValues values = new ContentValues();
+        values.put(TaskEntry.COLUMN_PRIORITY, 1);
+        mResolver.update(taskUri(laundry),
+                values, null, null);
+        mResolver.delete(taskUri(shopping), null, null);
+
+        // Still answered from memory, and the same as in SQLite
+        assertNotNull(cachedTasks());
+        assertEquals(queryStored(), queryCached());
+        List<String> expected = new ArrayList<>();
+        expected.add(task(laundry, 1, "Do the laundry"));
+        expected.add(task(dishes, 1, "Wash the dishes"));
+        assertEquals(expected, queryCached());
+    }
+
+
+    @Test
+    public void hitsAndMissesAreCounted() {
+        Metrics.setEnabled(true);
+        Metrics.reset();
+        Counter hits = Metrics.counter("cache.hits");
+        Counter misses = Metrics.counter("cache.misses");
+        mProvider.insert("Go shopping", 2);
+
+        queryCached();
+        assertEquals(1, hits.get());
+
+        // The cache doesn't hold the version, so SQLite answers
+        Cursor cursor = mResolver.query(TaskEntry.CONTENT_URI,
+                new String[]{TaskEntry._ID, TaskEntry.COLUMN_VERSION}, null, null, null);
+        cursor.close();
+        assertEquals(1, hits.get());
+        assertEquals(1, misses.get());
+    }
+
+
+    @Test
+    public void cachedAndStoredQueriesHaveTheSameColumns() {
+        mProvider.insert("Go shopping", 2);
+        queryCached();
+        assertNotNull(cachedTasks());
+
+        String[][] projections = {null, COLUMNS, TaskEntry.LIST_PROJECTION,
+                {TaskEntry.COLUMN_PRIORITY, TaskEntry._ID}};
+        for (String[] projection : projections) {
+            assertEquals(columns(projection, "1 = 1"), columns(projection, null));
+        }
+        // A null projection is every column of the table
+        assertTrue(columns(null, null).contains(TaskEntry.COLUMN_VERSION));
+        assertTrue(columns(null, null).contains(TaskEntry.COLUMN_SYNC_ID));
+    }
+
+
+    @Test
+    public void tableThatOutgrowsTheCacheIsReadFromSQLite() {
+        ContentValues[] values = new ContentValues[TaskCache.MAX_ENTRIES];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new ContentValues();
+            values[i].put(TaskEntry.COLUMN_DESCRIPTION, "Task " + i);
+            values[i].put(TaskEntry.COLUMN_PRIORITY, 1 + i % 3);
+        }
+        mResolver.bulkInsert(TaskEntry.CONTENT_URI, values);
+        assertEquals(TaskCache.MAX_ENTRIES, queryCached().size());
+        assertNotNull(cachedTasks());
+
+        long last = mProvider.insert("One task too many", 1);
+        assertNull("The cache is dropped", cachedTasks());
+        List<String> tasks = queryCached();
+        assertEquals(TaskCache.MAX_ENTRIES + 1, tasks.size());
+        assertNull("And not loaded again", cachedTasks());
+
+        mResolver.delete(taskUri(last), null, null);
+        assertEquals(TaskCache.MAX_ENTRIES, queryCached().size());
+        assertNotNull("Small enough to cache again", cachedTasks());
+    }
+
+
+    @Test
+    public void rolledBackBatchLeavesTheCacheAsTheTasks() throws Exception {
+        long shopping = mProvider.insert("Go shopping", 2);
+        queryCached();
+        List<String> before = queryCached();
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation
+                .newUpdate(taskUri(shopping))
+                .withValue(TaskEntry.COLUMN_DESCRIPTION, "Go shopping for shoes")
+                .withValue(TaskEntry.COLUMN_PRIORITY, 1)
+                .build());
+        operations.add(ContentProviderOperation.newInsert(TaskEntry.CONTENT_URI)
+                .withValue(TaskEntry.COLUMN_DESCRIPTION, "Wash the dishes")
+                .withValue(TaskEntry.COLUMN_PRIORITY, 1)
+                .build());
+        // Fails, so the whole batch is rolled back
+        operations.add(ContentProviderOperation.newAssertQuery(TaskEntry.CONTENT_URI)
+                .withExpectedCount(100)
+                .build());
+        try {
+            mResolver.applyBatch(TaskContract.AUTHORITY, operations);
+            fail("The batch should have failed");
+        } catch (OperationApplicationException expected) {
+            // The batch was rolled back
+        }
+
+        assertNotNull(cachedTasks());
+        assertEquals(before, queryCached());
+        assertEquals(before, queryStored());
+    }
+
+
+    // The task list, which the cache answers once it is loaded
+    private List<String> queryCached() {
+        return read(mResolver.query(TaskEntry.CONTENT_URI, COLUMNS, null, null,
+                TaskEntry.SORT_ORDER_PRIORITY));
+    }
+
+
+    // The task list as SQLite has it: a selection keeps the query away from the cache
+    private List<String> queryStored() {
+        return read(mResolver.query(TaskEntry.CONTENT_URI, COLUMNS, "1 = 1", null,
+                TaskEntry.SORT_ORDER_PRIORITY));
+    }
+
+
+    // The tasks the cache holds, or null if it can't answer
+    private Cursor cachedTasks() {
+        return mCache.query(COLUMNS, true, -1, 0, null);
+    }
+
+
+    // The column names of the task list queried with the projection and selection
+    private List<String> columns(String[] projection, String selection) {
+        Cursor cursor = mResolver.query(TaskEntry.CONTENT_URI, projection, selection, null,
+                TaskEntry.SORT_ORDER_PRIORITY);
+        try {
+            return Arrays.asList(cursor.getColumnNames());
+        } finally {
+            cursor.close();
+        }
+    }
+
+
+    private static List<String> read(Cursor cursor) {
+        List<String> tasks = new ArrayList<>();
+        try {
+            int id = cursor.getColumnIndexOrThrow(TaskEntry._ID);
+            int priority = cursor.getColumnIndexOrThrow(TaskEntry.COLUMN_PRIORITY);
+            int description = cursor.getColumnIndexOrThrow(TaskEntry.COLUMN_DESCRIPTION);
+            while (cursor.moveToNext()) {
+                tasks.add(task(cursor.getLong(id), cursor.getInt(priority),
+                        cursor.getString(description)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return tasks;
+    }
+
+
+    private static String task(long id, int priority, String description) {
+        return id + " " + priority + " " + description;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.android.julia.todolist.data;
+
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.android.julia.todolist.BuildConfig;
+import com.android.julia.todolist.data.TaskContract.TaskEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class TaskMigrationsTest {
+
+    private static final String MIGRATED_NAME = "migrated.db";
+    private static final String CREATED_NAME = "created.db";
+
+    // The canonical form of a UUID, as TaskEntry.newSyncId() returns it
+    private static final String SYNC_ID_PATTERN =
+            "[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}";
+
+    private TaskDbHelper mMigrated;
+    private TaskDbHelper mCreated;
+
+
+    @Before
+    public void setUp() {
+        createFirstVersion(RuntimeEnvironment.application.getDatabasePath(MIGRATED_NAME));
+        mMigrated = TaskDbHelper.newInstanceForTesting(RuntimeEnvironment.application,
+                MIGRATED_NAME);
+        mCreated = TaskDbHelper.newInstanceForTesting(RuntimeEnvironment.application,
+                CREATED_NAME);
+    }
+
+
+    @After
+    public void tearDown() {
+        mMigrated.close();
+        mCreated.close();
+        RuntimeEnvironment.application.deleteDatabase(MIGRATED_NAME);
+        RuntimeEnvironment.application.deleteDatabase(CREATED_NAME);
+    }
+
+
+    @Test
+    public void migratedSchemaIsTheCreatedOne() {
+        assertEquals(readSchema(mCreated.getWritableDatabase()),
+                readSchema(mMigrated.getWritableDatabase()));
+    }
+
+
+    @Test
+    public void migratedTasksGetSyncIdsLikeNewTasks() {
+        SQLiteDatabase db = mMigrated.getWritableDatabase();
+        ContentValues values = new ContentValues();
+        values.put(TaskEntry.COLUMN_DESCRIPTION, "New task");
+        values.put(TaskEntry.COLUMN_PRIORITY, 1);
+        values.put(TaskEntry.COLUMN_SYNC_ID, TaskEntry.newSyncId());
+        db.insert(TaskEntry.TABLE_NAME, null, values);
+
+        Cursor cursor = db.query(TaskEntry.TABLE_NAME, new String[]{TaskEntry.COLUMN_SYNC_ID},
+                null, null, null, null, TaskEntry._ID);
+        try {
+            assertEquals(3, cursor.getCount());
+            while (cursor.moveToNext()) {
+                String syncId = cursor.getString(0);
+                assertTrue(syncId, syncId.matches(SYNC_ID_PATTERN));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+
+    // Every table, index and trigger with its SQL, in name order
+    private static List<String> readSchema(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT type, name, tbl_name, sql FROM sqlite_master " +
+                "ORDER BY type, name", null);
+        try {
+            List<String> schema = new ArrayList<>();
+            while (cursor.moveToNext()) {
+                schema.add(cursor.getString(0) + " " + cursor.getString(1) + " ON " +
+                        cursor.getString(2) + ": " + cursor.getString(3));
+            }
+            return schema;
+        } finally {
+            cursor.close();
+        }
+    }
+
+
+    // Writes a database with the schema of version 1, the tasks table alone, with two tasks
+    private static void createFirstVersion(File file) {
+        File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalStateException("Cannot create " + directory);
+        }
+
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        try {
+            db.execSQL("CREATE TABLE " + TaskEntry.TABLE_NAME + "(" +
+                    TaskEntry._ID + " INTEGER PRIMARY KEY, " +
+                    TaskEntry.COLUMN_DESCRIPTION + " TEXT NOT NULL, " +
+                    TaskEntry.COLUMN_PRIORITY + " INTEGER NOT NULL);");
+            db.execSQL("INSERT INTO " + TaskEntry.TABLE_NAME + " (" +
+                    TaskEntry.COLUMN_DESCRIPTION + ", " + TaskEntry.COLUMN_PRIORITY + ") " +
+                    "VALUES ('Buy milk', 1), ('Walk the dog', 2);");
+            db.setVersion(1);
+        } finally {
+            db.close();
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.data;
+
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.android.julia.todolist.BuildConfig;
+import com.android.julia.todolist.data.TaskContract.TaskEntry;
+import com.android.julia.todolist.metrics.Histogram;
+import com.android.julia.todolist.metrics.Metrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static com.android.julia.todolist.data.ProviderTestRule.taskUri;
+
+
+/**
+ * Checks that the task list is patched from the single tasks that changed, and that the
+ * patched list is the one a full query would load.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class TaskQueriesTest {
+
+    @Rule
+    public final ProviderTestRule mProvider = new ProviderTestRule();
+
+    private ContentResolver mResolver;
+    private TestScheduler mScheduler;
+    private LiveQuery.Subscription mSubscription;
+    private TaskSnapshot mResult;
+    // Full queries of the task list, and queries of single tasks
+    private Histogram mListQueries;
+    private Histogram mTaskQueries;
+
+
+    @Before
+    public void setUp() {
+        mResolver = mProvider.getResolver();
+        mScheduler = new TestScheduler();
+
+        Metrics.setEnabled(true);
+        Metrics.reset();
+        mListQueries = Metrics.histogram("provider.query.tasks");
+        mTaskQueries = Metrics.histogram("provider.query.task_with_id");
+    }
+
+
+    @After
+    public void tearDown() {
+        if (mSubscription != null) {
+            mSubscription.unsubscribe();
+        }
+        Metrics.setEnabled(false);
+        Metrics.reset();
+    }
+
+
+    @Test
+    public void singleTaskChangesArePatchedIn() {
+        long shopping = mProvider.insert("Go shopping", 3);
+        long guitar = mProvider.insert("Learn guitar", 2);
+        mProvider.insert("Complete lesson", 1);
+        subscribe(TaskEntry.CONTENT_URI);
+        assertEquals(1, mListQueries.getCount());
+
+        // Moved to the top by its new priority
+        ContentValues values = new ContentValues();
+        values.put(TaskEntry.COLUMN_DESCRIPTION, "Go shopping for shoes");
+        values.put(TaskEntry.COLUMN_PRIORITY, 1);
+        mResolver.update(taskUri(shopping), values, null, null);
+        long lesson = mProvider.insert("Prepare lesson", 2);
+        mResolver.delete(taskUri(guitar), null, null);
+        mScheduler.advanceBy(TaskQueries.MAX_DELAY_MS);
+
+        assertEquals(1, mListQueries.getCount());
+        assertEquals(3, mTaskQueries.getCount());
+        assertEquals(queryAll(), read(mResult));
+        assertEquals(3, mResult.getCount());
+        assertEquals(shopping, mResult.getId(0));
+        assertEquals(lesson, mResult.getId(2));
+    }
+
+
+    @Test
+    public void directoryChangesAreQueriedAgain() {
+        mProvider.insert("Go shopping", 3);
+        subscribe(TaskEntry.CONTENT_URI);
+
+        ContentValues[] values = new ContentValues[2];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new ContentValues();
+            values[i].put(TaskEntry.COLUMN_DESCRIPTION, "Task " + i);
+            values[i].put(TaskEntry.COLUMN_PRIORITY, 2);
+        }
+        mResolver.bulkInsert(TaskEntry.CONTENT_URI, values);
+        mScheduler.advanceBy(TaskQueries.MAX_DELAY_MS);
+
+        assertEquals(2, mListQueries.getCount());
+        assertEquals(queryAll(), read(mResult));
+    }
+
+
+    @Test
+    public void tooManyChangesAreQueriedAgain() {
+        subscribe(TaskEntry.CONTENT_URI);
+        for (int i = 0; i <= TaskQueries.MAX_PATCHED_TASKS; i++) {
+            mProvider.insert("Task " + i, 1 + i % 3);
+        }
+        mScheduler.advanceBy(TaskQueries.MAX_DELAY_MS);
+
+        assertEquals(2, mListQueries.getCount());
+        assertEquals(0, mTaskQueries.getCount());
+        assertEquals(queryAll(), read(mResult));
+    }
+
+
+    @Test
+    public void searchResultsAreQueriedAgain() {
+        long shopping = mProvider.insert("Go shopping", 3);
+        subscribe(TaskEntry.buildSearchUri("shop"));
+        assertEquals(1, mResult.getCount());
+
+        ContentValues values = new ContentValues();
+        values.put(TaskEntry.COLUMN_DESCRIPTION, "Go to the gym");
+        values.put(TaskEntry.COLUMN_PRIORITY, 3);
+        mResolver.update(taskUri(shopping), values, null, null);
+        mScheduler.advanceBy(TaskQueries.MAX_DELAY_MS);
+
+        assertEquals(0, mTaskQueries.getCount());
+        assertEquals(0, mResult.getCount());
+    }
+
+
+    // Subscribes to the query of the uri and waits for its first result
+    private void subscribe(Uri uri) {
+        mSubscription = TaskQueries.create(mResolver, uri, mScheduler, mScheduler)
+                .subscribe(new LiveQuery.Observer<TaskSnapshot>() {
+                    @Override
+                    public void onResult(TaskSnapshot result) {
+                        mResult = result;
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                        throw new AssertionError(e);
+                    }
+                });
+        mScheduler.runDueTasks();
+    }
+
+
+    // The task list as a full query loads it, through SQLite
+    private List<String> queryAll() {
+        Cursor cursor = mResolver.query(TaskEntry.CONTENT_URI, TaskEntry.LIST_PROJECTION,
+                "1", null, TaskEntry.SORT_ORDER_PRIORITY);
+        try {
+            return read(TaskSnapshot.fromCursor(cursor));
+        } finally {
+            cursor.close();
+        }
+    }
+
+
+    private static List<String> read(TaskSnapshot snapshot) {
+        List<String> tasks = new ArrayList<>();
+        for (int i = 0; i < snapshot.getCount(); i++) {
+            tasks.add(snapshot.getId(i) + " " + snapshot.getPriority(i) + " "
+                    + snapshot.getDescription(i));
+        }
+        return tasks;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.data;
+
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.android.julia.todolist.BuildConfig;
+import com.android.julia.todolist.data.TaskContract.TaskEntry;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static com.android.julia.todolist.data.ProviderTestRule.taskUri;
+
+
+/**
+ * Searches the task descriptions through TaskEntry.buildSearchUri().
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class TaskSearchTest {
+
+    @Rule
+    public final ProviderTestRule mProvider = new ProviderTestRule();
+
+    private ContentResolver mResolver;
+
+
+    @Before
+    public void setUp() {
+        mResolver = mProvider.getResolver();
+    }
+
+
+    @Test
+    public void wordsMatchStartsOfWords() {
+        long shopping = mProvider.insert("Go shopping for shoes", 2);
+        long guitar = mProvider.insert("Learn guitar", 1);
+
+        assertEquals(ids(shopping), search("SHO go!"));
+        assertEquals(ids(shopping), search("shoes, shopping"));
+        // Every word has to match
+        assertEquals(ids(), search("go guitar"));
+        // Quotes and operators are taken as separators, not as query syntax
+        assertEquals(ids(guitar), search("\"guit"));
+        assertEquals(ids(guitar), search("-learn ^guitar:"));
+        assertEquals(ids(), search("hopping"));
+        assertEquals(ids(), search(" ?! "));
+    }
+
+
+    @Test
+    public void moreMatchesComeFirst() {
+        long milk = mProvider.insert("Buy milk", 1);
+        long moreMilk = mProvider.insert("Buy milk and more milk", 2);
+        mProvider.insert("Buy bread", 1);
+        long mostMilk = mProvider.insert("Milk, buy, buy milk", 3);
+        long lowMilk = mProvider.insert("Buy milk", 3);
+
+        // Equal matches stay in priority order
+        assertEquals(ids(mostMilk, moreMilk, milk, lowMilk), search("buy milk"));
+
+        Uri page = TaskEntry.buildSearchUri("buy milk").buildUpon()
+                .appendQueryParameter(TaskEntry.QUERY_PARAMETER_LIMIT, "2")
+                .appendQueryParameter(TaskEntry.QUERY_PARAMETER_OFFSET, "1")
+                .build();
+        assertEquals(ids(moreMilk, milk), read(mResolver.query(page, null, null, null, null)));
+    }
+
+
+    @Test
+    public void indexFollowsTheTasks() {
+        long walk = mProvider.insert("Walk the dog", 2);
+        assertEquals(ids(walk), search("dog"));
+
+        Uri uri = taskUri(walk);
+        ContentValues values = new ContentValues();
+        values.put(TaskEntry.COLUMN_DESCRIPTION, "Walk the cat");
+        values.put(TaskEntry.COLUMN_PRIORITY, 2);
+        mResolver.update(uri, values, null, null);
+        assertEquals(ids(), search("dog"));
+        assertEquals(ids(walk), search("cat"));
+
+        // Only a new description is indexed again
+        values = new ContentValues();
+        values.put(TaskEntry.COLUMN_PRIORITY, 1);
+        mResolver.update(uri, values, null, null);
+        assertEquals(ids(walk), search("cat"));
+
+        ContentValues feed = new ContentValues();
+        feed.put(TaskEntry.COLUMN_DESCRIPTION, "Feed the cat");
+        feed.put(TaskEntry.COLUMN_PRIORITY, 1);
+        mResolver.bulkInsert(TaskEntry.CONTENT_URI, new ContentValues[]{feed});
+        assertEquals(2, search("cat").size());
+
+        mResolver.delete(uri, null, null);
+        assertEquals(1, search("cat").size());
+        assertEquals(ids(), search("walk"));
+    }
+
+
+    // The ids of the tasks found, best match first
+    private List<Long> search(String text) {
+        return read(mResolver.query(TaskEntry.buildSearchUri(text), TaskEntry.LIST_PROJECTION,
+                null, null, null));
+    }
+
+
+    private static List<Long> read(Cursor cursor) {
+        List<Long> ids = new ArrayList<>();
+        try {
+            int id = cursor.getColumnIndexOrThrow(TaskEntry._ID);
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(id));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+
+    private static List<Long> ids(Long... ids) {
+        return ids.length == 0 ? Collections.<Long>emptyList() : Arrays.asList(ids);
+    }
+}
@@ -0,0 +1,344 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.data;
+
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.net.Uri;
+
+import com.android.julia.todolist.BuildConfig;
+import com.android.julia.todolist.data.TaskContract.TaskEntry;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+/**
+ * Checks the filters and sort orders of TaskEntry.QueryBuilder against the tasks in the
+ * provider, and that SQLite answers each combination of them without sorting the rows.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class TaskSelectionTest {
+
+    private static final String[] COLUMNS = {
+            TaskEntry._ID, TaskEntry.COLUMN_DESCRIPTION, TaskEntry.COLUMN_PRIORITY};
+    private static final String[] DESCRIPTIONS = {
+            "Buy milk", "Buy bread", "Call mom", "Clean the kitchen", "Write a letter"};
+    private static final int TASK_COUNT = 200;
+
+    @Rule
+    public final ProviderTestRule mProvider = new ProviderTestRule();
+
+    private ContentResolver mResolver;
+
+
+    @Before
+    public void setUp() {
+        mResolver = mProvider.getResolver();
+
+        ContentValues[] tasks = new ContentValues[TASK_COUNT];
+        for (int i = 0; i < TASK_COUNT; i++) {
+            tasks[i] = new ContentValues();
+            tasks[i].put(TaskEntry.COLUMN_DESCRIPTION, DESCRIPTIONS[i % DESCRIPTIONS.length]);
+            tasks[i].put(TaskEntry.COLUMN_PRIORITY, 1 + i * 7 % 3);
+        }
+        mResolver.bulkInsert(TaskEntry.CONTENT_URI, tasks);
+    }
+
+
+    @Test
+    public void noFilterOrSortOrderNeedsATemporaryBTree() {
+        SQLiteDatabase db =
+                TaskDbHelper.getInstance(RuntimeEnvironment.application).getReadableDatabase();
+        for (TaskEntry.QueryBuilder builder : everyCombination()) {
+            Uri uri = builder.build();
+            TaskSelection selection = TaskSelection.fromUri(uri);
+            String sql = selection.buildQuery(COLUMNS, null, "50 OFFSET 10");
+
+            Cursor plan = db.rawQuery("EXPLAIN QUERY PLAN " + sql,
+                    selection.getSelectionArgs(null));
+            try {
+                int detail = plan.getColumnIndexOrThrow("detail");
+                while (plan.moveToNext()) {
+                    assertFalse(uri + ": " + plan.getString(detail),
+                            plan.getString(detail).contains("TEMP B-TREE"));
+                }
+            } finally {
+                plan.close();
+            }
+        }
+    }
+
+
+    @Test
+    public void keysetPagesSeekThePriorityIndex() {
+        SQLiteDatabase db =
+                TaskDbHelper.getInstance(RuntimeEnvironment.application).getReadableDatabase();
+        String sql = SQLiteQueryBuilder.buildQueryString(false, TaskEntry.TABLE_NAME, COLUMNS,
+                TaskContentProvider.KEYSET_SELECTION, null, null,
+                TaskEntry.SORT_ORDER_PRIORITY, "50");
+
+        Cursor plan = db.rawQuery("EXPLAIN QUERY PLAN " + sql, new String[]{"2", "2", "100"});
+        try {
+            // A single step, which starts at the key rather than at the start of the index
+            assertTrue(plan.moveToFirst());
+            String detail = plan.getString(plan.getColumnIndexOrThrow("detail"));
+            assertTrue(detail, detail.startsWith("SEARCH")
+                    && detail.contains("USING INDEX " + TaskDbHelper.INDEX_PRIORITY));
+            assertFalse(plan.moveToNext());
+        } finally {
+            plan.close();
+        }
+
+        // A selection keeps the page from being answered by the cache
+        List<Task> sorted = query(TaskEntry.CONTENT_URI);
+        Collections.sort(sorted, new Comparator<Task>() {
+            @Override
+            public int compare(Task a, Task b) {
+                if (a.priority != b.priority) {
+                    return a.priority < b.priority ? -1 : 1;
+                }
+                return a.id < b.id ? -1 : (a.id == b.id ? 0 : 1);
+            }
+        });
+        for (int after : new int[]{0, 60, 130, TASK_COUNT - 1}) {
+            Task key = sorted.get(after);
+            Uri uri = TaskEntry.buildPageUri(50, key.priority, (int) key.id);
+            List<Task> expected =
+                    sorted.subList(after + 1, Math.min(after + 51, TASK_COUNT));
+            assertEquals(uri.toString(), expected, query(uri, "1 = 1"));
+        }
+    }
+
+
+    @Test
+    public void queriesReturnTheFilteredTasksInOrder() {
+        List<Task> all = query(TaskEntry.CONTENT_URI);
+        assertEquals(TASK_COUNT, all.size());
+
+        for (TaskEntry.QueryBuilder builder : everyCombination()) {
+            Uri uri = builder.build();
+            assertEquals(uri.toString(), expected(all, uri), query(uri));
+        }
+    }
+
+
+    @Test
+    public void pagesAreTakenFromTheSortedTasks() {
+        List<Task> sorted = query(new TaskEntry.QueryBuilder()
+                .orderBy(TaskEntry.COLUMN_DESCRIPTION).build());
+        List<Task> page = query(new TaskEntry.QueryBuilder()
+                .orderBy(TaskEntry.COLUMN_DESCRIPTION).page(20, 30).build());
+        assertEquals(sorted.subList(30, 50), page);
+    }
+
+
+    @Test
+    public void unsupportedSortOrdersAreRejected() {
+        try {
+            new TaskEntry.QueryBuilder()
+                    .orderBy(TaskEntry.COLUMN_DESCRIPTION).orderBy(TaskEntry._ID).build();
+            fail("description, _id has no index");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            query(TaskEntry.CONTENT_URI.buildUpon()
+                    .appendQueryParameter(TaskEntry.QUERY_PARAMETER_SORT, "version").build());
+            fail("version has no index");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+
+    @Test
+    public void prefixEndIsTheNextString() {
+        assertEquals("Buz", TaskSelection.prefixEnd("Buy"));
+        // The next code point, which comes after the chars of the surrogate range
+        assertEquals("a\ue000", TaskSelection.prefixEnd("a\ud7ff"));
+        assertEquals("B\ud800\udc00", TaskSelection.prefixEnd("B\uffff"));
+        assertEquals("Go \ud83d\ude01", TaskSelection.prefixEnd("Go \ud83d\ude00"));
+        assertEquals("C", TaskSelection.prefixEnd("B\udbff\udfff"));
+        assertNull(TaskSelection.prefixEnd("\udbff\udfff\udbff\udfff"));
+    }
+
+
+    @Test
+    public void prefixesBeyondTheBasicPlaneMatchTheirTasks() {
+        for (String description : new String[]{"\ud83d\ude00 party", "\ud83d\ude00",
+                "\ud83d\ude01 smile", "\uffff end", "\ue000 private", "\ud7ff last"}) {
+            mProvider.insert(description, 2);
+        }
+        List<Task> all = query(TaskEntry.CONTENT_URI);
+
+        // SQLite sorts the tasks by UTF-8 bytes, where U+1F600 comes after U+FFFF
+        for (String prefix : new String[]{"\ud83d\ude00", "\uffff", "\ud7ff"}) {
+            Uri uri = new TaskEntry.QueryBuilder().descriptionPrefix(prefix).build();
+            List<Task> expected = expected(all, uri);
+            assertFalse(prefix, expected.isEmpty());
+            assertEquals(prefix, expected, query(uri));
+        }
+    }
+
+
+    // Every filter, alone and together, with every sort order in both directions
+    private static List<TaskEntry.QueryBuilder> everyCombination() {
+        List<TaskEntry.QueryBuilder> builders = new ArrayList<>();
+        for (int filters = 0; filters < 8; filters++) {
+            for (String[] order : TaskSelection.SORT_ORDERS) {
+                for (int descending = 0; descending < 2; descending++) {
+                    TaskEntry.QueryBuilder builder = new TaskEntry.QueryBuilder();
+                    if ((filters & 1) != 0) {
+                        builder.priorities(1, 3);
+                    }
+                    if ((filters & 2) != 0) {
+                        builder.idRange(20, 150);
+                    }
+                    if ((filters & 4) != 0) {
+                        builder.descriptionPrefix("Buy");
+                    }
+                    // The first key is enough, the rest of the sort order is implied
+                    builder.orderBy(order[0]);
+                    if (descending == 1) {
+                        builder.descending();
+                    }
+                    builders.add(builder);
+                }
+            }
+        }
+        return builders;
+    }
+
+
+    private List<Task> query(Uri uri) {
+        return query(uri, null);
+    }
+
+
+    private List<Task> query(Uri uri, String selection) {
+        Cursor cursor = mResolver.query(uri, COLUMNS, selection, null, null);
+        try {
+            List<Task> tasks = new ArrayList<>();
+            while (cursor.moveToNext()) {
+                tasks.add(new Task(cursor.getLong(0), cursor.getString(1), cursor.getInt(2)));
+            }
+            return tasks;
+        } finally {
+            cursor.close();
+        }
+    }
+
+
+    // The tasks the uri should return, filtered and sorted in Java
+    private static List<Task> expected(List<Task> all, Uri uri) {
+        List<String> priorities = uri.getQueryParameters(TaskEntry.QUERY_PARAMETER_PRIORITY);
+        String minId = uri.getQueryParameter(TaskEntry.QUERY_PARAMETER_MIN_ID);
+        String maxId = uri.getQueryParameter(TaskEntry.QUERY_PARAMETER_MAX_ID);
+        String prefix = uri.getQueryParameter(TaskEntry.QUERY_PARAMETER_PREFIX);
+
+        List<Task> tasks = new ArrayList<>();
+        for (Task task : all) {
+            if ((priorities.isEmpty() || priorities.contains(Integer.toString(task.priority)))
+                    && (minId == null || task.id >= Long.parseLong(minId))
+                    && (maxId == null || task.id <= Long.parseLong(maxId))
+                    && (prefix == null || task.description.startsWith(prefix))) {
+                tasks.add(task);
+            }
+        }
+
+        final List<String> keys = Arrays.asList(TaskSelection.SORT_ORDERS[
+                TaskSelection.findSortOrder(
+                        uri.getQueryParameters(TaskEntry.QUERY_PARAMETER_SORT))]);
+        final int direction = Boolean.parseBoolean(
+                uri.getQueryParameter(TaskEntry.QUERY_PARAMETER_DESCENDING)) ? -1 : 1;
+        Collections.sort(tasks, new Comparator<Task>() {
+            @Override
+            public int compare(Task a, Task b) {
+                for (String key : keys) {
+                    int result;
+                    if (key.equals(TaskEntry.COLUMN_PRIORITY)) {
+                        result = a.priority - b.priority;
+                    } else if (key.equals(TaskEntry.COLUMN_DESCRIPTION)) {
+                        result = a.description.compareTo(b.description);
+                    } else {
+                        result = a.id < b.id ? -1 : (a.id == b.id ? 0 : 1);
+                    }
+                    if (result != 0) {
+                        return result * direction;
+                    }
+                }
+                return 0;
+            }
+        });
+        assertTrue("The filters should leave some tasks", !tasks.isEmpty());
+        return tasks;
+    }
+
+
+    private static final class Task {
+        final long id;
+        final String description;
+        final int priority;
+
+        Task(long id, String description, int priority) {
+            this.id = id;
+            this.description = description;
+            this.priority = priority;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Task)) {
+                return false;
+            }
+            Task other = (Task) o;
+            return id == other.id && priority == other.priority
+                    && description.equals(other.description);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) id;
+        }
+
+        @Override
+        public String toString() {
+            return id + " " + description + " " + priority;
+        }
+    }
+}
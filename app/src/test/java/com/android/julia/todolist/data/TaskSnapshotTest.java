@@ -0,0 +1,126 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.android.julia.todolist.data;
+
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+
+/**
+ * Checks that a snapshot with rows taken out reads the same as a copy without them.
+ */
+public class TaskSnapshotTest {
+
+    private static final int TASK_COUNT = 50;
+    private static final int NEW_ID = 1000;
+
+
+    @Test
+    public void withoutHidesTheTask() {
+        TaskSnapshot snapshot = snapshot(TASK_COUNT);
+        List<Integer> expected = ids(TASK_COUNT);
+
+        // Take out the first, the last and some in between, in no particular order
+        int[] positions = {0, 48, 10, 10, 11, 9, 0, 40};
+        for (int position : positions) {
+            snapshot = snapshot.without(position);
+            expected.remove(position);
+            assertSnapshot(expected, snapshot);
+        }
+    }
+
+
+    @Test
+    public void withoutIdsHidesTheTasks() {
+        TaskSnapshot snapshot = snapshot(TASK_COUNT).without(3).without(20);
+        List<Integer> expected = ids(TASK_COUNT);
+        expected.remove(Integer.valueOf(3));
+        expected.remove(Integer.valueOf(21));
+
+        // 3 is hidden already and 1000 isn't in the snapshot
+        snapshot = snapshot.withoutIds(new int[] {3, 7, 8, 21, 30, 49, 1000});
+        expected.remove(Integer.valueOf(7));
+        expected.remove(Integer.valueOf(8));
+        expected.remove(Integer.valueOf(30));
+        expected.remove(Integer.valueOf(49));
+        assertSnapshot(expected, snapshot);
+
+        assertSame(snapshot, snapshot.withoutIds(new int[] {3, 1000}));
+    }
+
+
+    @Test
+    public void hiddenRowsMatchACopy() {
+        Random random = new Random(42);
+        TaskSnapshot snapshot = snapshot(TASK_COUNT);
+        List<Integer> expected = ids(TASK_COUNT);
+        while (snapshot.getCount() > 0) {
+            int position = random.nextInt(snapshot.getCount());
+            snapshot = snapshot.without(position);
+            expected.remove(position);
+            assertSnapshot(expected, snapshot);
+
+            // Copying the hidden snapshot gives the same tasks
+            int insertAt = random.nextInt(snapshot.getCount() + 1);
+            TaskSnapshot added = new TaskSnapshot.Builder(1).add(NEW_ID, "Task " + NEW_ID,
+                    NEW_ID % 3 + 1).build();
+            TaskSnapshot copy = snapshot.with(insertAt, added, 0);
+            List<Integer> copyIds = new ArrayList<>(expected);
+            copyIds.add(insertAt, NEW_ID);
+            assertSnapshot(copyIds, copy);
+        }
+    }
+
+
+    // Task i has the id i, the priority i % 3 + 1 and the description "Task i"
+    private static TaskSnapshot snapshot(int count) {
+        TaskSnapshot.Builder builder = new TaskSnapshot.Builder(count);
+        for (int i = 0; i < count; i++) {
+            builder.add(i, "Task " + i, i % 3 + 1);
+        }
+        return builder.build();
+    }
+
+
+    private static List<Integer> ids(int count) {
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ids.add(i);
+        }
+        return ids;
+    }
+
+
+    private static void assertSnapshot(List<Integer> expectedIds, TaskSnapshot snapshot) {
+        assertEquals(expectedIds.size(), snapshot.getCount());
+        for (int position = 0; position < expectedIds.size(); position++) {
+            int id = expectedIds.get(position);
+            assertEquals(id, snapshot.getId(position));
+            assertEquals(id % 3 + 1, snapshot.getPriority(position));
+            assertEquals("Task " + id, snapshot.getDescription(position));
+            assertEquals(position, snapshot.indexOf(id));
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.data;
+
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.net.Uri;
+
+import com.android.julia.todolist.BuildConfig;
+import com.android.julia.todolist.data.TaskContract.TaskEntry;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static com.android.julia.todolist.data.ProviderTestRule.taskUri;
+
+
+/**
+ * Queries single tasks through tasks/#, and checks that the recently queried tasks
+ * the provider keeps never outlive a change.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class TaskWithIdQueryTest {
+
+    @Rule
+    public final ProviderTestRule mProvider = new ProviderTestRule();
+
+    private ContentResolver mResolver;
+    private TaskCache mCache;
+
+
+    @Before
+    public void setUp() {
+        mResolver = mProvider.getResolver();
+        mCache = TaskCache.getInstance();
+    }
+
+
+    @Test
+    public void taskIsQueriedWithAllColumnsAndKept() {
+        long id = mProvider.insert("Go shopping", 2);
+        Uri uri = taskUri(id);
+
+        ContentValues task = queryOne(uri, null);
+        assertEquals("Go shopping", task.getAsString(TaskEntry.COLUMN_DESCRIPTION));
+        assertEquals(2, (int) task.getAsInteger(TaskEntry.COLUMN_PRIORITY));
+        assertEquals(1, (int) task.getAsInteger(TaskEntry.COLUMN_VERSION));
+        assertNotNull(task.getAsString(TaskEntry.COLUMN_SYNC_ID));
+        assertNotNull("The task is kept", mCache.getRow(id));
+
+        // The kept task answers the next queries, in any projection of table columns
+        assertEquals(task, queryOne(uri, null));
+        ContentValues priority = queryOne(uri, new String[]{TaskEntry.COLUMN_PRIORITY});
+        assertEquals(1, priority.size());
+        assertEquals(2, (int) priority.getAsInteger(TaskEntry.COLUMN_PRIORITY));
+
+        // Other columns and selections are left to SQLite
+        assertEquals("Go shopping", queryOne(uri, TaskEntry.LIST_PROJECTION)
+                .getAsString(TaskEntry.COLUMN_DESCRIPTION));
+        Cursor cursor = mResolver.query(uri, null, TaskEntry.COLUMN_PRIORITY + " = ?",
+                new String[]{"1"}, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+
+
+    @Test
+    public void changesAreNeverHiddenByAKeptTask() {
+        long id = mProvider.insert("Go shopping", 2);
+        Uri uri = taskUri(id);
+        queryOne(uri, null);
+
+        ContentValues values = new ContentValues();
+        values.put(TaskEntry.COLUMN_DESCRIPTION, "Go shopping for shoes");
+        values.put(TaskEntry.COLUMN_PRIORITY, 1);
+        mResolver.update(uri, values, null, null);
+        assertNull("The task is dropped once changed", mCache.getRow(id));
+
+        ContentValues task = queryOne(uri, null);
+        assertEquals("Go shopping for shoes", task.getAsString(TaskEntry.COLUMN_DESCRIPTION));
+        assertEquals(1, (int) task.getAsInteger(TaskEntry.COLUMN_PRIORITY));
+        assertEquals(2, (int) task.getAsInteger(TaskEntry.COLUMN_VERSION));
+
+        mResolver.delete(uri, null, null);
+        Cursor cursor = mResolver.query(uri, null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+
+
+    @Test
+    public void rowReadBeforeAChangeIsNotKept() {
+        long id = mProvider.insert("Go shopping", 2);
+        long generation = mCache.getRowGeneration();
+        TaskCache.Row row = new TaskCache.Row(new String[]{TaskEntry._ID}, new Object[]{id});
+
+        mCache.forgetRows();
+        mCache.putRow(id, row, generation);
+        assertNull(mCache.getRow(id));
+
+        mCache.putRow(id, row, mCache.getRowGeneration());
+        assertNotNull(mCache.getRow(id));
+    }
+
+
+    @Test
+    public void onlyTheRecentTasksAreKept() {
+        // Every change drops the kept tasks, so all of them are inserted first
+        long[] ids = new long[TaskCache.MAX_RECENT_ROWS + 1];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = mProvider.insert("Task " + i, 1);
+        }
+        for (long id : ids) {
+            queryOne(taskUri(id), null);
+        }
+        assertNull("The least recently queried task is dropped", mCache.getRow(ids[0]));
+        assertNotNull(mCache.getRow(ids[ids.length - 1]));
+    }
+
+
+    private ContentValues queryOne(Uri uri, String[] projection) {
+        Cursor cursor = mResolver.query(uri, projection, null, null, null);
+        try {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            ContentValues values = new ContentValues();
+            DatabaseUtils.cursorRowToContentValues(cursor, values);
+            return values;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.data;
+
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.android.julia.todolist.BuildConfig;
+import com.android.julia.todolist.data.TaskContract.TaskEntry;
+import com.android.julia.todolist.metrics.Histogram;
+import com.android.julia.todolist.metrics.Metrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static com.android.julia.todolist.data.ProviderTestRule.taskUri;
+
+
+/**
+ * Runs a TaskWriter on a TestScheduler, so that the test decides when its batches
+ * are written.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class TaskWriterTest {
+
+    @Rule
+    public final ProviderTestRule mProvider = new ProviderTestRule();
+
+    private ContentResolver mResolver;
+    private TestScheduler mScheduler;
+    private TaskWriter mWriter;
+    private Histogram mBatches;
+    // The outcomes of the writes, in the order the callbacks were called
+    private final List<String> mResults = new ArrayList<>();
+
+
+    @Before
+    public void setUp() {
+        mResolver = mProvider.getResolver();
+        mScheduler = new TestScheduler();
+        mWriter = new TaskWriter(mResolver, mScheduler, mScheduler);
+
+        Metrics.setEnabled(true);
+        Metrics.reset();
+        mBatches = Metrics.histogram("provider.apply_batch");
+    }
+
+
+    @After
+    public void tearDown() {
+        Metrics.setEnabled(false);
+        Metrics.reset();
+    }
+
+
+    @Test
+    public void updatesOfQueuedTaskAreMerged() {
+        long id = insertNow("Go shopping", 3);
+        mWriter.update(id, values("Go shopping for shoes", null), callback("description"));
+        mWriter.update(id, values(null, 1), callback("priority"));
+        mWriter.insert(values("Learn guitar", 2), callback("insert"));
+        mScheduler.runDueTasks();
+
+        assertEquals(1, mBatches.getCount());
+        assertEquals(Arrays.asList("description ok", "priority ok", "insert ok"), mResults);
+        // Written once, so the version only went up by one
+        assertEquals(Arrays.<Object>asList("Go shopping for shoes", 1L, 2L), queryTask(id));
+    }
+
+
+    @Test
+    public void writesAreAppliedInOrder() {
+        long id = insertNow("Go shopping", 3);
+        mWriter.update(id, values("Go shopping for shoes", 3), callback("update"));
+        mWriter.delete(id, callback("delete"));
+        mWriter.update(id, values("Go shopping again", 3), callback("late update"));
+        mScheduler.runDueTasks();
+
+        // The delete doesn't wait, as the writes around it are flushed anyway
+        assertEquals(Arrays.asList("update ok", "delete ok", "late update ok"), mResults);
+        assertNull(queryTask(id));
+    }
+
+
+    @Test
+    public void deletesWaitForMoreDeletes() {
+        long shopping = insertNow("Go shopping", 3);
+        long guitar = insertNow("Learn guitar", 2);
+        mWriter.delete(shopping, callback("shopping"));
+        mScheduler.advanceBy(TaskWriter.DELETE_DELAY_MS / 2);
+        mWriter.delete(guitar, callback("guitar"));
+        mScheduler.advanceBy(TaskWriter.DELETE_DELAY_MS / 2 - 1);
+        assertEquals(0, mBatches.getCount());
+
+        mScheduler.advanceBy(1);
+        assertEquals(1, mBatches.getCount());
+        assertEquals(Arrays.asList("shopping ok", "guitar ok"), mResults);
+        assertNull(queryTask(shopping));
+        assertNull(queryTask(guitar));
+    }
+
+
+    @Test
+    public void deletesTakenAlongDontFlushLaterDeletesEarly() {
+        long shopping = insertNow("Go shopping", 3);
+        long guitar = insertNow("Learn guitar", 2);
+        mWriter.delete(shopping, callback("shopping"));
+        mScheduler.advanceBy(100);
+        // The insert flushes right away, with the delete
+        mWriter.insert(values("Complete lesson", 1), callback("insert"));
+        mScheduler.runDueTasks();
+        assertEquals(Arrays.asList("shopping ok", "insert ok"), mResults);
+
+        mScheduler.advanceBy(100);
+        mWriter.delete(guitar, callback("guitar"));
+        // Past the time the first delete would have been flushed at
+        mScheduler.advanceBy(TaskWriter.DELETE_DELAY_MS - 1);
+        assertEquals(2, mResults.size());
+
+        mScheduler.advanceBy(1);
+        assertEquals("guitar ok", mResults.get(2));
+        assertNull(queryTask(guitar));
+    }
+
+
+    @Test
+    public void failedWriteOnlyFailsItself() {
+        long id = insertNow("Go shopping", 3);
+        mWriter.insert(values("Learn guitar", 2), callback("guitar"));
+        // A task needs a description, so this insert fails and rolls back the batch
+        mWriter.insert(values(null, 1), callback("no description"));
+        mWriter.update(id, values("Go shopping for shoes", 3), callback("update"));
+        mScheduler.runDueTasks();
+
+        assertEquals(Arrays.asList("guitar ok", "no description failed", "update ok"),
+                mResults);
+        // The writes that work were committed again on their own
+        assertEquals(2, mBatches.getCount());
+        assertEquals("Go shopping for shoes", queryTask(id).get(0));
+        assertEquals(2, countTasks());
+    }
+
+
+    private long insertNow(String description, int priority) {
+        return ContentUris.parseId(mResolver.insert(TaskEntry.CONTENT_URI,
+                values(description, priority)));
+    }
+
+
+    private static ContentValues values(String description, Integer priority) {
+        ContentValues values = new ContentValues();
+        if (description != null) {
+            values.put(TaskEntry.COLUMN_DESCRIPTION, description);
+        }
+        if (priority != null) {
+            values.put(TaskEntry.COLUMN_PRIORITY, priority);
+        }
+        return values;
+    }
+
+
+    private TaskWriter.Callback callback(final String name) {
+        return new TaskWriter.Callback() {
+            @Override
+            public void onWriteFinished(boolean successful) {
+                mResults.add(name + (successful ? " ok" : " failed"));
+            }
+        };
+    }
+
+
+    // The description, priority and version of a task, or null if there is no such task
+    private List<Object> queryTask(long id) {
+        Cursor cursor = mResolver.query(taskUri(id),
+                new String[]{TaskEntry.COLUMN_DESCRIPTION, TaskEntry.COLUMN_PRIORITY,
+                        TaskEntry.COLUMN_VERSION}, null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return Arrays.<Object>asList(cursor.getString(0), cursor.getLong(1),
+                    cursor.getLong(2));
+        } finally {
+            cursor.close();
+        }
+    }
+
+
+    private int countTasks() {
+        Cursor cursor = mResolver.query(TaskEntry.CONTENT_URI, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
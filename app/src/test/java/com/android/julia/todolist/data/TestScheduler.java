@@ -0,0 +1,98 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.data;
+
+
+import java.util.PriorityQueue;
+
+
+/**
+ * A Scheduler with a virtual clock, which only runs its tasks when the test advances
+ * the clock, on the test's thread and in a deterministic order.
+ */
+public class TestScheduler implements Scheduler {
+
+    private static final class ScheduledTask implements Comparable<ScheduledTask> {
+        final long time;
+        final long sequence;
+        final Runnable task;
+        boolean cancelled;
+
+        ScheduledTask(long time, long sequence, Runnable task) {
+            this.time = time;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(ScheduledTask other) {
+            if (time != other.time) {
+                return time < other.time ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+
+    private final PriorityQueue<ScheduledTask> mTasks = new PriorityQueue<>();
+    private long mNow;
+    private long mSequence;
+
+
+    @Override
+    public Cancellable schedule(Runnable task, long delayMillis) {
+        final ScheduledTask scheduled = new ScheduledTask(mNow + delayMillis, mSequence++, task);
+        mTasks.add(scheduled);
+        return new Cancellable() {
+            @Override
+            public void cancel() {
+                scheduled.cancelled = true;
+            }
+        };
+    }
+
+
+    @Override
+    public long now() {
+        return mNow;
+    }
+
+
+    /**
+     * Moves the clock forward, running every task that is due on the way,
+     * including the ones those tasks schedule.
+     */
+    public void advanceBy(long millis) {
+        long target = mNow + millis;
+        while (!mTasks.isEmpty() && mTasks.peek().time <= target) {
+            ScheduledTask next = mTasks.poll();
+            mNow = next.time;
+            if (!next.cancelled) {
+                next.task.run();
+            }
+        }
+        mNow = target;
+    }
+
+
+    /**
+     * Runs the tasks that are due now.
+     */
+    public void runDueTasks() {
+        advanceBy(0);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.metrics;
+
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class HistogramTest {
+
+    @Test
+    public void bucketsCoverEveryValue() {
+        int previous = -1;
+        for (long value = 0; value < 100000; value++) {
+            int bucket = Histogram.bucketOf(value);
+            assertTrue("Buckets only grow", bucket == previous || bucket == previous + 1);
+            previous = bucket;
+        }
+        assertEquals(Histogram.bucketOf(Long.MAX_VALUE), Histogram.bucketOf(Long.MAX_VALUE - 1));
+    }
+
+
+    @Test
+    public void percentilesAreWithinABucket() {
+        Histogram histogram = new Histogram("test");
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value * 1000);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000, histogram.getMax());
+        assertEquals(500500, histogram.getMean());
+        assertWithin(500000, histogram.getPercentile(50));
+        assertWithin(990000, histogram.getPercentile(99));
+        assertEquals(1000000, histogram.getPercentile(100));
+    }
+
+
+    @Test
+    public void nothingIsTimedWhileDisabled() {
+        Histogram histogram = new Histogram("test");
+        Metrics.setEnabled(false);
+        long start = Metrics.start();
+        assertEquals(Metrics.NOT_STARTED, start);
+        histogram.stop(start);
+        assertEquals(0, histogram.getCount());
+
+        Metrics.setEnabled(true);
+        try {
+            histogram.stop(Metrics.start());
+            assertEquals(1, histogram.getCount());
+        } finally {
+            Metrics.setEnabled(false);
+        }
+    }
+
+
+    // A bucket is at most an eighth of its value wide
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(expected + " != " + actual, Math.abs(expected - actual) <= expected / 8);
+    }
+}
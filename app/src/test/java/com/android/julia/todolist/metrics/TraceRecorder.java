@@ -0,0 +1,215 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.metrics;
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * A Tracer.Recorder for unit tests and JVM benchmarks, where there is no platform trace.
+ *
+ * It keeps the sections that ended, with their thread and nesting depth, and writes them
+ * in the Chrome trace event format, which Perfetto (ui.perfetto.dev) and chrome://tracing
+ * open like a systrace capture.
+ */
+public class TraceRecorder implements Tracer.Recorder {
+
+    /**
+     * A section that has ended.
+     */
+    public static final class Section {
+        public final String name;
+        public final String thread;
+        public final long threadId;
+        public final int depth;
+        public final long startNanos;
+        public final long durationNanos;
+
+        Section(String name, Thread thread, int depth, long startNanos, long durationNanos) {
+            this.name = name;
+            this.thread = thread.getName();
+            this.threadId = thread.getId();
+            this.depth = depth;
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+        }
+
+        @Override
+        public String toString() {
+            return name + " (" + thread + ", depth " + depth + ", " + durationNanos + " ns)";
+        }
+    }
+
+
+    // Sections beyond this many are dropped, so that a long benchmark can't run out of memory
+    private static final int DEFAULT_MAX_SECTIONS = 1000000;
+
+    private final int mMaxSections;
+    private final long mOriginNanos = System.nanoTime();
+    private final List<Section> mSections = new ArrayList<>();
+    private int mDropped;
+
+    // Begin times and names of the open sections of every thread
+    private final ThreadLocal<Deque<Object[]>> mOpenSections = new ThreadLocal<Deque<Object[]>>() {
+        @Override
+        protected Deque<Object[]> initialValue() {
+            return new ArrayDeque<>();
+        }
+    };
+
+
+    public TraceRecorder() {
+        this(DEFAULT_MAX_SECTIONS);
+    }
+
+
+    public TraceRecorder(int maxSections) {
+        mMaxSections = maxSections;
+    }
+
+
+    /**
+     * Installs a new TraceRecorder as the recorder of Tracer.
+     */
+    public static TraceRecorder install() {
+        TraceRecorder recorder = new TraceRecorder();
+        Tracer.setRecorder(recorder);
+        return recorder;
+    }
+
+
+    @Override
+    public void beginSection(String name) {
+        mOpenSections.get().push(new Object[]{name, System.nanoTime()});
+    }
+
+
+    @Override
+    public void endSection() {
+        long end = System.nanoTime();
+        Deque<Object[]> open = mOpenSections.get();
+        if (open.isEmpty()) {
+            throw new IllegalStateException("endSection() without a section on "
+                    + Thread.currentThread().getName());
+        }
+        Object[] section = open.pop();
+        long start = (Long) section[1];
+        synchronized (mSections) {
+            if (mSections.size() >= mMaxSections) {
+                mDropped++;
+                return;
+            }
+            mSections.add(new Section((String) section[0], Thread.currentThread(), open.size(),
+                    start - mOriginNanos, end - start));
+        }
+    }
+
+
+    /**
+     * Returns the sections that have ended, in the order they ended.
+     */
+    public List<Section> getSections() {
+        synchronized (mSections) {
+            return new ArrayList<>(mSections);
+        }
+    }
+
+
+    /**
+     * Returns the sections with the given name.
+     */
+    public List<Section> getSections(String name) {
+        List<Section> sections = new ArrayList<>();
+        for (Section section : getSections()) {
+            if (section.name.equals(name)) {
+                sections.add(section);
+            }
+        }
+        return sections;
+    }
+
+
+    /**
+     * Returns the number of sections that were dropped because there were too many.
+     */
+    public int getDroppedCount() {
+        synchronized (mSections) {
+            return mDropped;
+        }
+    }
+
+
+    /**
+     * Writes the sections as a JSON trace, with one complete ("X") event per section.
+     */
+    public void writeTrace(Writer writer) throws IOException {
+        List<Section> sections = getSections();
+        writer.write("{\"displayTimeUnit\": \"ms\", \"traceEvents\": [\n");
+        for (int i = 0; i < sections.size(); i++) {
+            Section s = sections.get(i);
+            writer.write(String.format(Locale.ROOT,
+                    "  {\"name\": \"%s\", \"ph\": \"X\", \"pid\": 1, \"tid\": %d, " +
+                            "\"ts\": %.3f, \"dur\": %.3f}%s\n",
+                    escape(s.name), s.threadId, s.startNanos / 1000.0, s.durationNanos / 1000.0,
+                    i < sections.size() - 1 ? "," : ""));
+        }
+        writer.write("]}\n");
+    }
+
+
+    /**
+     * Writes the trace to a file, creating its directory if needed.
+     */
+    public void writeTrace(File file) throws IOException {
+        File directory = file.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writeTrace(writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+
+    private static String escape(String value) {
+        StringBuilder builder = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                builder.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+}
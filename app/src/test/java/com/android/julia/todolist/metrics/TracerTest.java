@@ -0,0 +1,101 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.metrics;
+
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class TracerTest {
+
+    private TraceRecorder mRecorder;
+
+
+    @Before
+    public void setUp() {
+        mRecorder = TraceRecorder.install();
+    }
+
+
+    @After
+    public void tearDown() {
+        Tracer.setRecorder(null);
+    }
+
+
+    @Test
+    public void sectionsNestPerThread() throws Exception {
+        Tracer.beginSection("outer");
+        Tracer.beginSection("inner");
+        Thread other = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Tracer.beginSection("other");
+                Tracer.endSection();
+            }
+        });
+        other.start();
+        other.join();
+        Tracer.endSection();
+        Tracer.endSection();
+
+        List<TraceRecorder.Section> sections = mRecorder.getSections();
+        assertEquals(3, sections.size());
+        assertEquals("other", sections.get(0).name);
+        assertEquals("A section on another thread is outermost", 0, sections.get(0).depth);
+        assertEquals("inner", sections.get(1).name);
+        assertEquals(1, sections.get(1).depth);
+        assertEquals("outer", sections.get(2).name);
+        assertEquals(0, sections.get(2).depth);
+        assertTrue(sections.get(2).durationNanos >= sections.get(1).durationNanos);
+    }
+
+
+    @Test
+    public void sectionsBeyondTheLimitAreDropped() {
+        TraceRecorder recorder = new TraceRecorder(2);
+        Tracer.setRecorder(recorder);
+        for (int i = 0; i < 5; i++) {
+            Tracer.beginSection("section");
+            Tracer.endSection();
+        }
+        assertEquals(2, recorder.getSections().size());
+        assertEquals(3, recorder.getDroppedCount());
+    }
+
+
+    @Test
+    public void traceIsWrittenAsTraceEvents() throws Exception {
+        Tracer.beginSection("TaskListAdapter.\"bind\"");
+        Tracer.endSection();
+
+        StringWriter writer = new StringWriter();
+        mRecorder.writeTrace(writer);
+        String trace = writer.toString();
+        assertTrue(trace, trace.startsWith("{\"displayTimeUnit\": \"ms\", \"traceEvents\": ["));
+        assertTrue(trace, trace.contains("\"name\": \"TaskListAdapter.\\\"bind\\\"\""));
+        assertTrue(trace, trace.contains("\"ph\": \"X\""));
+    }
+}
@@ -0,0 +1,144 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.sync;
+
+
+import com.android.julia.todolist.data.TaskContract.TaskEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * A SyncStore that keeps the tasks of one simulated device in memory, with a change log
+ * that works like the one of the tasks database: one entry per task, moved to the end
+ * of the log whenever the task changes again.
+ */
+class InMemorySyncStore implements SyncStore {
+
+    private final Map<String, SyncRecord> mTasks = new HashMap<>();
+    private final TreeMap<Long, SyncRecord> mChanges = new TreeMap<>();
+    private final Map<String, Long> mChangeSequences = new HashMap<>();
+    private long mSequence;
+    private long mServerCursor;
+
+
+    String add(String description, int priority) {
+        String syncId = TaskEntry.newSyncId();
+        change(new SyncRecord(syncId, 1, description, priority));
+        return syncId;
+    }
+
+
+    void edit(String syncId, String description) {
+        SyncRecord task = mTasks.get(syncId);
+        change(new SyncRecord(syncId, task.version + 1, description, task.priority));
+    }
+
+
+    void delete(String syncId) {
+        change(SyncRecord.tombstone(syncId, mTasks.get(syncId).version + 1));
+    }
+
+
+    SyncRecord get(String syncId) {
+        return mTasks.get(syncId);
+    }
+
+
+    Map<String, SyncRecord> getTasks() {
+        return mTasks;
+    }
+
+
+    private void change(SyncRecord record) {
+        if (record.deleted) {
+            mTasks.remove(record.syncId);
+        } else {
+            mTasks.put(record.syncId, record);
+        }
+        forgetChange(record.syncId);
+        mChanges.put(++mSequence, record);
+        mChangeSequences.put(record.syncId, mSequence);
+    }
+
+
+    private void forgetChange(String syncId) {
+        Long sequence = mChangeSequences.remove(syncId);
+        if (sequence != null) {
+            mChanges.remove(sequence);
+        }
+    }
+
+
+    @Override
+    public Changes getChanges(int limit) {
+        if (mChanges.isEmpty()) {
+            return null;
+        }
+        List<SyncRecord> records = new ArrayList<>();
+        long lastSequence = 0;
+        for (Map.Entry<Long, SyncRecord> change : mChanges.entrySet()) {
+            if (records.size() == limit) {
+                break;
+            }
+            records.add(change.getValue());
+            lastSequence = change.getKey();
+        }
+        return new Changes(records, lastSequence);
+    }
+
+
+    @Override
+    public void acknowledge(long sequence) {
+        while (!mChanges.isEmpty() && mChanges.firstKey() <= sequence) {
+            mChangeSequences.remove(mChanges.pollFirstEntry().getValue().syncId);
+        }
+    }
+
+
+    @Override
+    public void applyRemote(List<SyncRecord> records, boolean force) {
+        for (SyncRecord record : records) {
+            SyncRecord local = mTasks.get(record.syncId);
+            if (local != null && !force && record.version <= local.version) {
+                continue;
+            }
+            if (record.deleted) {
+                mTasks.remove(record.syncId);
+            } else {
+                mTasks.put(record.syncId, record);
+            }
+            forgetChange(record.syncId);
+        }
+    }
+
+
+    @Override
+    public long getServerCursor() {
+        return mServerCursor;
+    }
+
+
+    @Override
+    public void setServerCursor(long cursor) {
+        mServerCursor = cursor;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.sync;
+
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * An in-process stand-in for the sync server, speaking the protocol of SyncTransport
+ * on a local port. It keeps the latest record of every task in the order the records
+ * arrived, and counts what the clients send.
+ */
+class MockSyncServer {
+
+    private static final class Entry {
+        final SyncRecord record;
+        final long sequence;
+        final String origin;
+
+        Entry(SyncRecord record, long sequence, String origin) {
+            this.record = record;
+            this.sequence = sequence;
+            this.origin = origin;
+        }
+    }
+
+
+    private final HttpServer mServer;
+    private final Map<String, Entry> mBySyncId = new HashMap<>();
+    private final TreeMap<Long, Entry> mBySequence = new TreeMap<>();
+    private long mSequence;
+
+    private int mPushRequests;
+    private int mReceivedRecords;
+
+
+    MockSyncServer() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/push", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange, push(exchange));
+            }
+        });
+        mServer.createContext("/pull", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange, pull(exchange));
+            }
+        });
+        mServer.start();
+    }
+
+
+    String getUrl() {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort();
+    }
+
+
+    void stop() {
+        mServer.stop(0);
+    }
+
+
+    synchronized int getPushRequests() {
+        return mPushRequests;
+    }
+
+
+    synchronized int getReceivedRecords() {
+        return mReceivedRecords;
+    }
+
+
+    synchronized SyncRecord get(String syncId) {
+        Entry entry = mBySyncId.get(syncId);
+        return entry == null ? null : entry.record;
+    }
+
+
+    private synchronized SyncCodec.Batch push(HttpExchange exchange) throws IOException {
+        String client = exchange.getRequestHeaders().getFirst(SyncTransport.HEADER_CLIENT_ID);
+        SyncCodec.Batch batch = SyncCodec.decode(exchange.getRequestBody());
+        mPushRequests++;
+        mReceivedRecords += batch.records.size();
+
+        List<SyncRecord> rejected = new ArrayList<>();
+        for (SyncRecord record : batch.records) {
+            Entry current = mBySyncId.get(record.syncId);
+            if (current != null && record.version <= current.record.version) {
+                rejected.add(current.record);
+                continue;
+            }
+            if (current != null) {
+                mBySequence.remove(current.sequence);
+            }
+            Entry entry = new Entry(record, ++mSequence, client);
+            mBySyncId.put(record.syncId, entry);
+            mBySequence.put(entry.sequence, entry);
+        }
+        return new SyncCodec.Batch(rejected);
+    }
+
+
+    private synchronized SyncCodec.Batch pull(HttpExchange exchange) {
+        String client = exchange.getRequestHeaders().getFirst(SyncTransport.HEADER_CLIENT_ID);
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getQuery());
+        long cursor = Long.parseLong(query.get("since"));
+        int limit = Integer.parseInt(query.get("limit"));
+
+        List<SyncRecord> records = new ArrayList<>();
+        boolean hasMore = false;
+        for (Entry entry : mBySequence.tailMap(cursor, false).values()) {
+            if (records.size() == limit) {
+                hasMore = true;
+                break;
+            }
+            cursor = entry.sequence;
+            if (!entry.origin.equals(client)) {
+                records.add(entry.record);
+            }
+        }
+        return new SyncCodec.Batch(records, cursor, hasMore);
+    }
+
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> parameters = new HashMap<>();
+        for (String parameter : query.split("&")) {
+            int separator = parameter.indexOf('=');
+            parameters.put(parameter.substring(0, separator), parameter.substring(separator + 1));
+        }
+        return parameters;
+    }
+
+
+    private static void respond(HttpExchange exchange, SyncCodec.Batch batch) throws IOException {
+        byte[] payload = SyncCodec.encode(batch);
+        exchange.getResponseHeaders().set("Content-Type", SyncTransport.CONTENT_TYPE);
+        exchange.sendResponseHeaders(200, payload.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(payload);
+        } finally {
+            out.close();
+        }
+    }
+}
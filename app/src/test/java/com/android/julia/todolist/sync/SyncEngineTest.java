@@ -0,0 +1,154 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.sync;
+
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Syncs two simulated devices through a MockSyncServer over real HTTP.
+ */
+public class SyncEngineTest {
+
+    private static final int BATCH_SIZE = 30;
+
+    private MockSyncServer mServer;
+    private InMemorySyncStore mStoreA;
+    private InMemorySyncStore mStoreB;
+    private SyncEngine mDeviceA;
+    private SyncEngine mDeviceB;
+
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new MockSyncServer();
+        mStoreA = new InMemorySyncStore();
+        mStoreB = new InMemorySyncStore();
+        mDeviceA = new SyncEngine(mStoreA, new SyncTransport(mServer.getUrl(), "a"), BATCH_SIZE);
+        mDeviceB = new SyncEngine(mStoreB, new SyncTransport(mServer.getUrl(), "b"), BATCH_SIZE);
+    }
+
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+    }
+
+
+    @Test
+    public void devicesConverge() throws IOException {
+        String shopping = mStoreA.add("Go shopping", 3);
+        mStoreA.add("Complete lesson", 1);
+        String guitar = mStoreB.add("Learn guitar", 2);
+        syncAll();
+        assertEquals(3, mStoreA.getTasks().size());
+        assertEquals(mStoreA.getTasks(), mStoreB.getTasks());
+
+        mStoreB.edit(shopping, "Go shopping for shoes");
+        mStoreA.delete(guitar);
+        syncAll();
+        assertEquals("Go shopping for shoes", mStoreA.get(shopping).description);
+        assertNull(mStoreB.get(guitar));
+        assertEquals(mStoreA.getTasks(), mStoreB.getTasks());
+    }
+
+
+    @Test
+    public void higherVersionWins() throws IOException {
+        String task = mStoreA.add("Go shopping", 3);
+        syncAll();
+
+        // A changed the task twice, B once, and B syncs first
+        mStoreA.edit(task, "Go shopping today");
+        mStoreA.edit(task, "Go shopping tomorrow");
+        mStoreB.edit(task, "Go shopping later");
+        mDeviceB.sync();
+        SyncEngine.Result result = mDeviceA.sync();
+        assertEquals(0, result.rejected);
+        mDeviceB.sync();
+        assertEquals("Go shopping tomorrow", mStoreB.get(task).description);
+
+        // Now B's change is older than the server's, so the server's side wins on both
+        mStoreB.edit(task, "Go shopping never");
+        mStoreA.edit(task, "Go shopping now");
+        mStoreA.edit(task, "Go shopping at noon");
+        mDeviceA.sync();
+        result = mDeviceB.sync();
+        assertEquals(1, result.rejected);
+        assertEquals("Go shopping at noon", mStoreB.get(task).description);
+        assertEquals(mStoreA.getTasks(), mStoreB.getTasks());
+    }
+
+
+    @Test
+    public void onlyChangesAreSent() throws IOException {
+        List<String> tasks = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            tasks.add(mStoreA.add("Task " + i, 1 + i % 3));
+        }
+        assertEquals(100, mDeviceA.sync().pushed);
+        assertEquals(100, mServer.getReceivedRecords());
+        // In batches, on both ways
+        assertEquals(4, mServer.getPushRequests());
+        assertEquals(100, mDeviceB.sync().pulled);
+
+        mStoreA.edit(tasks.get(42), "Task forty-two");
+        SyncEngine.Result result = mDeviceA.sync();
+        assertEquals(1, result.pushed);
+        assertEquals(101, mServer.getReceivedRecords());
+        assertEquals(1, mDeviceB.sync().pulled);
+
+        // Nothing changed, nothing is sent
+        int pushRequests = mServer.getPushRequests();
+        result = mDeviceA.sync();
+        assertEquals(0, result.pushed);
+        assertEquals(0, result.pulled);
+        assertEquals(pushRequests, mServer.getPushRequests());
+    }
+
+
+    @Test
+    public void codecKeepsRecords() throws IOException {
+        List<SyncRecord> records = new ArrayList<>();
+        records.add(new SyncRecord("1", 3, "Čaj ☕ and biscuits", 2));
+        records.add(SyncRecord.tombstone("2", 7));
+        byte[] payload = SyncCodec.encode(new SyncCodec.Batch(records, 12, true));
+
+        SyncCodec.Batch batch = SyncCodec.decode(payload);
+        assertEquals(12, batch.cursor);
+        assertTrue(batch.hasMore);
+        assertEquals(records, batch.records);
+    }
+
+
+    private void syncAll() throws IOException {
+        mDeviceA.sync();
+        mDeviceB.sync();
+        mDeviceA.sync();
+    }
+}
@@ -0,0 +1,191 @@
+/*
+* Copyright 2017 Julia Kozhukhovskaya
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.android.julia.todolist.sync;
+
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.android.julia.todolist.BuildConfig;
+import com.android.julia.todolist.data.ProviderTestRule;
+import com.android.julia.todolist.data.TaskContract.TaskEntry;
+import com.android.julia.todolist.data.TaskSyncStore;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static com.android.julia.todolist.data.ProviderTestRule.taskUri;
+
+
+/**
+ * Syncs the tasks database, through TaskSyncStore, with a simulated device through
+ * a MockSyncServer.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class TaskSyncStoreTest {
+
+    private static final int BATCH_SIZE = 30;
+
+    @Rule
+    public final ProviderTestRule mProvider = new ProviderTestRule();
+
+    private ContentResolver mResolver;
+    private MockSyncServer mServer;
+    private TaskSyncStore mStore;
+    private InMemorySyncStore mOtherStore;
+    private SyncEngine mDevice;
+    private SyncEngine mOtherDevice;
+
+
+    @Before
+    public void setUp() throws IOException {
+        mResolver = mProvider.getResolver();
+
+        mServer = new MockSyncServer();
+        mStore = new TaskSyncStore(RuntimeEnvironment.application);
+        mOtherStore = new InMemorySyncStore();
+        mDevice = new SyncEngine(mStore, new SyncTransport(mServer.getUrl(), "a"), BATCH_SIZE);
+        mOtherDevice = new SyncEngine(mOtherStore,
+                new SyncTransport(mServer.getUrl(), "b"), BATCH_SIZE);
+    }
+
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+    }
+
+
+    @Test
+    public void databaseConvergesWithOtherDevice() throws IOException {
+        long shopping = mProvider.insert("Go shopping", 3);
+        for (int i = 0; i < 40; i++) {
+            mProvider.insert("Task " + i, 1 + i % 3);
+        }
+        String guitar = mOtherStore.add("Learn guitar", 2);
+        syncAll();
+        assertEquals(42, getTasks().size());
+        assertEquals(descriptions(mOtherStore), getTasks());
+        // Everything was sent, and what was received isn't sent back
+        assertNull(mStore.getChanges(BATCH_SIZE));
+
+        mOtherStore.edit(getSyncId(shopping), "Go shopping for shoes");
+        long guitarId = findId(guitar);
+        mResolver.delete(taskUri(guitarId), null, null);
+        syncAll();
+        assertEquals("Go shopping for shoes", getTasks().get(getSyncId(shopping)));
+        assertNull(mOtherStore.get(guitar));
+        assertEquals(descriptions(mOtherStore), getTasks());
+
+        // Nothing changed, nothing is sent
+        assertEquals(0, mDevice.sync().pushed);
+    }
+
+
+    @Test
+    public void remoteUpdateReplacesLocalChange() throws IOException {
+        long id = mProvider.insert("Go shopping", 3);
+        syncAll();
+        String syncId = getSyncId(id);
+
+        // Edited here once, and twice on the other device
+        ContentValues values = new ContentValues();
+        values.put(TaskEntry.COLUMN_DESCRIPTION, "Go shopping today");
+        values.put(TaskEntry.COLUMN_PRIORITY, 3);
+        mResolver.update(taskUri(id), values,
+                null, null);
+        mOtherStore.edit(syncId, "Go shopping tomorrow");
+        mOtherStore.edit(syncId, "Go shopping at noon");
+
+        // The other device's version is higher, so the local change is dropped with it
+        mStore.applyRemote(Collections.singletonList(mOtherStore.get(syncId)), false);
+        assertEquals("Go shopping at noon", getTasks().get(syncId));
+        assertNull(mStore.getChanges(BATCH_SIZE));
+    }
+
+
+    // The descriptions of the tasks in the database, by sync id
+    private Map<String, String> getTasks() {
+        Map<String, String> tasks = new HashMap<>();
+        Cursor cursor = mResolver.query(TaskEntry.CONTENT_URI,
+                new String[]{TaskEntry.COLUMN_SYNC_ID, TaskEntry.COLUMN_DESCRIPTION},
+                null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                tasks.put(cursor.getString(0), cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return tasks;
+    }
+
+
+    private static Map<String, String> descriptions(InMemorySyncStore store) {
+        Map<String, String> tasks = new HashMap<>();
+        for (SyncRecord record : store.getTasks().values()) {
+            tasks.put(record.syncId, record.description);
+        }
+        return tasks;
+    }
+
+
+    private String getSyncId(long id) {
+        Cursor cursor = mResolver.query(taskUri(id),
+                new String[]{TaskEntry.COLUMN_SYNC_ID}, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+
+    private long findId(String syncId) {
+        Cursor cursor = mResolver.query(TaskEntry.CONTENT_URI, new String[]{TaskEntry._ID},
+                TaskEntry.COLUMN_SYNC_ID + " = ?", new String[]{syncId}, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+
+    private void syncAll() throws IOException {
+        mDevice.sync();
+        mOtherDevice.sync();
+        mDevice.sync();
+    }
+}